@@ -0,0 +1,198 @@
+package com.censhare.db.iindex;
+
+import gnu.trove.TCollections;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link StripedIDSetTrie} with a single-lock trie, a synchronized Trove {@link TLongHashSet} and a
+ * {@link ConcurrentHashMap} key set, all safe for concurrent writers.
+ * Keys are user snowflakes spread over the years Discord has existed. Heap used per key is printed once per fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IDTrieBenchmark {
+    private static final long DISCORD_EPOCH = 1420070400000L;
+    private static final long KEY_RANGE = 1535760000000L - DISCORD_EPOCH; // until September 2018
+    private static final int KEYS = 1 << 17;
+
+    @Param({"trie-locked", "trie-striped", "trove-synchronized", "chm"})
+    public String impl;
+
+    private LongSet set;
+    private long[] keys;
+    private long[] absentKeys;
+
+    static long[] snowflakes(Random random, int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            long timestamp = (long) (random.nextDouble() * KEY_RANGE);
+            long worker = random.nextInt(2);
+            long process = random.nextInt(32);
+            long increment = random.nextInt(64);
+
+            ids[i] = timestamp << 22 | worker << 17 | process << 12 | increment;
+        }
+
+        return ids;
+    }
+
+    private LongSet create() {
+        switch (impl) {
+            case "trie-locked":
+                return new StripedSet(new StripedIDSetTrie(1));
+            case "trie-striped":
+                return new StripedSet(new StripedIDSetTrie(32));
+            case "trove-synchronized":
+                return new TroveSet(TCollections.synchronizedSet(new TLongHashSet()));
+            case "chm":
+                return new ConcurrentSet(ConcurrentHashMap.newKeySet());
+            default:
+                throw new IllegalArgumentException(impl);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++)
+            System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        keys = snowflakes(random, KEYS);
+        absentKeys = snowflakes(random, KEYS);
+
+        long before = usedHeap();
+        set = create();
+        for (long key : keys)
+            set.add(key);
+        long after = usedHeap();
+
+        System.out.printf("%n%s: %.1f bytes/key%n", impl, (after - before) / (double) KEYS);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = new Random().nextInt(KEYS);
+
+        int next() {
+            return next = (next + 1) & (KEYS - 1);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean get(Cursor cursor) {
+        return set.contains(keys[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean getAbsent(Cursor cursor) {
+        return set.contains(absentKeys[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean setClear(Cursor cursor) {
+        long key = absentKeys[cursor.next()];
+        set.add(key);
+        return set.remove(key);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public boolean mixedGet(Cursor cursor) {
+        return set.contains(keys[cursor.next()]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public boolean mixedSetClear(Cursor cursor) {
+        long key = absentKeys[cursor.next()];
+        set.add(key);
+        return set.remove(key);
+    }
+
+    interface LongSet {
+        boolean contains(long key);
+        boolean add(long key);
+        boolean remove(long key);
+    }
+
+    private static final class StripedSet implements LongSet {
+        private final StripedIDSetTrie trie;
+
+        private StripedSet(StripedIDSetTrie trie) {
+            this.trie = trie;
+        }
+
+        public boolean contains(long key) {
+            return trie.get(key);
+        }
+
+        public boolean add(long key) {
+            return !trie.set(key);
+        }
+
+        public boolean remove(long key) {
+            return trie.clear(key);
+        }
+    }
+
+    private static final class TroveSet implements LongSet {
+        private final TLongSet set;
+
+        private TroveSet(TLongSet set) {
+            this.set = set;
+        }
+
+        public boolean contains(long key) {
+            return set.contains(key);
+        }
+
+        public boolean add(long key) {
+            return set.add(key);
+        }
+
+        public boolean remove(long key) {
+            return set.remove(key);
+        }
+    }
+
+    private static final class ConcurrentSet implements LongSet {
+        private final Set<Long> set;
+
+        private ConcurrentSet(Set<Long> set) {
+            this.set = set;
+        }
+
+        public boolean contains(long key) {
+            return set.contains(key);
+        }
+
+        public boolean add(long key) {
+            return set.add(key);
+        }
+
+        public boolean remove(long key) {
+            return set.remove(key);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.kdrag0n.bluestone;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the dispatch cost of reflective command invocation with the generated {@link Command.Invoker}.
+ * The command body is as trivial as {@code CoreCog.ping}, minus the network call, so only dispatch is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandInvokeBenchmark {
+    private PingCog cog;
+    private Method method;
+    private Command.Invoker invoker;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        cog = new PingCog();
+        method = PingCog.class.getMethod("cmdPing", Context.class);
+        invoker = Command.createInvoker(method, cog);
+    }
+
+    @Benchmark
+    public void reflective(Blackhole bh) throws ReflectiveOperationException {
+        cog.bh = bh;
+        method.invoke(cog, (Context) null);
+    }
+
+    @Benchmark
+    public void generated(Blackhole bh) throws Throwable {
+        cog.bh = bh;
+        invoker.invoke(null);
+    }
+
+    public static class PingCog extends Cog {
+        private Blackhole bh;
+
+        public PingCog() {
+            super(null);
+        }
+
+        public String getName() {
+            return "Ping";
+        }
+
+        public String getDescription() {
+            return "Benchmark cog.";
+        }
+
+        public void cmdPing(Context ctx) {
+            bh.consume("WebSockets: " + System.nanoTime() + "ms");
+        }
+    }
+}
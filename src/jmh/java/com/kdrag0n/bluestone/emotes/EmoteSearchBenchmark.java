@@ -0,0 +1,130 @@
+package com.kdrag0n.bluestone.emotes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link EmoteSearch#suggest} over an index about the size of every Twitch, BetterTTV and FrankerFaceZ
+ * emote together, against comparing the query with every code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmoteSearchBenchmark {
+    private static final String[] SYLLABLES = { "kap", "pa", "pog", "champ", "lul", "kek", "pepe", "hands", "up",
+            "feels", "bad", "good", "man", "monka", "s", "omega", "lol", "wut", "face", "cry", "hype", "ree", "sad",
+            "cat", "dog", "pride", "ross", "keepo", "biblethump", "4head" };
+
+    @Param({ "200000" })
+    public int size;
+
+    @Param({ "exact", "prefix", "typo", "transposed", "none" })
+    public String kind;
+
+    private EmoteSearch search;
+    private String[] codes;
+    private String query;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        codes = new String[size];
+        StringBuilder pool = new StringBuilder(size * 12);
+        int[] offsets = new int[size + 1];
+
+        for (int i = 0; i < size; i++) {
+            // channel prefixes and camel case, like most emote codes
+            StringBuilder code = new StringBuilder();
+            int parts = 2 + random.nextInt(3);
+            for (int j = 0; j < parts; j++) {
+                String syllable = SYLLABLES[random.nextInt(SYLLABLES.length)];
+                code.append(j == 0 ? syllable : Character.toUpperCase(syllable.charAt(0)) + syllable.substring(1));
+            }
+            if (random.nextInt(4) == 0)
+                code.append(random.nextInt(100));
+
+            codes[i] = code.toString();
+            pool.append(codes[i]);
+            offsets[i + 1] = pool.length();
+        }
+
+        search = new EmoteSearch(pool.toString().getBytes(StandardCharsets.UTF_8), offsets);
+
+        String target = codes[size / 2];
+        switch (kind) {
+            case "exact":
+                query = target.toLowerCase();
+                break;
+            case "prefix":
+                query = target.substring(0, 5);
+                break;
+            case "typo":
+                query = target.substring(0, 3) + 'x' + target.substring(4);
+                break;
+            case "transposed":
+                query = target.substring(0, 2) + target.charAt(3) + target.charAt(2) + target.substring(4);
+                break;
+            default:
+                query = "zzqqjjxx";
+        }
+    }
+
+    @Benchmark
+    public int[] suggest() {
+        return search.suggest(query, 10);
+    }
+
+    @Benchmark
+    public int scan() {
+        // what suggesting would cost without an index: an edit distance per code
+        String folded = query.toLowerCase();
+        int best = Integer.MAX_VALUE;
+        int bestIndex = -1;
+
+        for (int i = 0; i < codes.length; i++) {
+            int distance = distance(folded, codes[i].toLowerCase());
+            if (distance < best) {
+                best = distance;
+                bestIndex = i;
+            }
+        }
+
+        return bestIndex;
+    }
+
+    private static int distance(String a, String b) {
+        int[] twoBack = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+
+            for (int j = 1; j <= b.length(); j++) {
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                        previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+                    value = Math.min(value, twoBack[j - 2] + 1);
+
+                current[j] = value;
+            }
+
+            int[] recycled = twoBack;
+            twoBack = previous;
+            previous = current;
+            current = recycled;
+        }
+
+        return previous[b.length()];
+    }
+}
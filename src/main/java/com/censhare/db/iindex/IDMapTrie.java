@@ -8,7 +8,7 @@ import java.util.*;
 
 /**
  * Implementation of concurrent map of long integers using bit-group trie.
- * Supports multiple concurrent readers and one writer.
+ * Supports multiple concurrent readers and one writer. Use {@link StripedIDMapTrie} for multiple writers.
  * @author Walter Bauer
  */
 public class IDMapTrie extends IDTrie {
@@ -29,6 +29,14 @@ public class IDMapTrie extends IDTrie {
         super(bst);
     }
 
+    /**
+     * Return next generation for performing updates without changing this one.
+     * Doesn't copy any nodes, see {@link IDTrie#IDTrie(IDTrie)}.
+     */
+    public IDMapTrie nextGeneration() {
+        return new IDMapTrie(this);
+    }
+
     @Override
     protected IDTrie createInstance(int size) {
         return new IDMapTrie(size);
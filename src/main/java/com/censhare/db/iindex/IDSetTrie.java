@@ -8,7 +8,7 @@ import java.util.Arrays;
 
 /**
  * Implementation of concurrent set of long integers using bit-group trie.
- * Supports multiple concurrent readers and one writer.
+ * Supports multiple concurrent readers and one writer. Use {@link StripedIDSetTrie} for multiple writers.
  * @author Walter Bauer
  */
 public class IDSetTrie extends IDTrie {
@@ -28,6 +28,14 @@ public class IDSetTrie extends IDTrie {
         super(bst);
     }
 
+    /**
+     * Return next generation for performing updates without changing this one.
+     * Doesn't copy any nodes, see {@link IDTrie#IDTrie(IDTrie)}.
+     */
+    public IDSetTrie nextGeneration() {
+        return new IDSetTrie(this);
+    }
+
     @Override
     protected IDTrie createInstance(int size) {
         return new IDSetTrie(size);
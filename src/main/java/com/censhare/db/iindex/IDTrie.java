@@ -73,7 +73,12 @@ public abstract class IDTrie {
         count = 0;
     }
 
-    /** Return copy for performing updates increasing generation number. */
+    /**
+     * Return copy for performing updates increasing generation number.
+     * The copy shares the heap with bst, so this doesn't copy any nodes. Updates on the copy only copy the nodes
+     * on the path to the changed key and leave bst unchanged. Only one copy of a generation may be updated,
+     * since copies append to the same heap.
+     */
     IDTrie(IDTrie bst) {
         mem = bst.mem;
         root = bst.root;
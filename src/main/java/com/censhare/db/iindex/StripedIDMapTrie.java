@@ -0,0 +1,56 @@
+package com.censhare.db.iindex;
+
+/**
+ * Map of long integers to long integers using striped bit-group tries.
+ * Supports multiple concurrent readers and multiple concurrent writers; readers never lock.
+ */
+public class StripedIDMapTrie extends StripedIDTrie<IDMapTrie> {
+
+    /** Constructor with default number of stripes. */
+    public StripedIDMapTrie() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /** Constructor with given number of stripes. */
+    public StripedIDMapTrie(int stripeCount) {
+        super(stripeCount, IDMapTrie::new);
+    }
+
+    /**
+     * Get operation.
+     * @return mapped value or defaultValue if not found
+     */
+    public long get(long key, long defaultValue) {
+        return stripeOf(key).trie.get(key, defaultValue);
+    }
+
+    /**
+     * Add key and value.
+     * @return old value or defaultValue if map didn't contain the key
+     */
+    public long put(long key, long value, long defaultValue) {
+        Stripe<IDMapTrie> stripe = stripeOf(key);
+
+        synchronized (stripe) {
+            IDMapTrie next = stripe.trie.nextGeneration();
+            long old = next.put(key, value, defaultValue);
+            stripe.trie = next;
+            return old;
+        }
+    }
+
+    /**
+     * Remove key.
+     * @return old value or defaultValue if map didn't contain the key
+     */
+    public long clear(long key, long defaultValue) {
+        Stripe<IDMapTrie> stripe = stripeOf(key);
+
+        synchronized (stripe) {
+            IDMapTrie next = stripe.trie.nextGeneration();
+            long old = next.clear(key, defaultValue);
+            stripe.trie = next;
+            return old;
+        }
+    }
+}
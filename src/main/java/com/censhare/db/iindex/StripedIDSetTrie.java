@@ -0,0 +1,88 @@
+package com.censhare.db.iindex;
+
+/**
+ * Set of long integers using striped bit-group tries.
+ * Supports multiple concurrent readers and multiple concurrent writers; readers never lock.
+ */
+public class StripedIDSetTrie extends StripedIDTrie<IDSetTrie> {
+
+    /** Constructor with default number of stripes. */
+    public StripedIDSetTrie() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /** Constructor with given number of stripes. */
+    public StripedIDSetTrie(int stripeCount) {
+        super(stripeCount, IDSetTrie::new);
+    }
+
+    /** Contains operation. */
+    public boolean get(long key) {
+        return stripeOf(key).trie.get(key);
+    }
+
+    /**
+     * Add key.
+     * @return old value (true if set already contained the key)
+     */
+    public boolean set(long key) {
+        Stripe<IDSetTrie> stripe = stripeOf(key);
+
+        synchronized (stripe) {
+            if (stripe.trie.get(key))
+                return true;
+
+            IDSetTrie next = stripe.trie.nextGeneration();
+            next.set(key);
+            stripe.trie = next;
+            return false;
+        }
+    }
+
+    /**
+     * Add keys, using one generation per stripe.
+     */
+    public void setAll(long[] keys) {
+        int[] stripeIdxs = new int[keys.length];
+        for (int j = 0; j < keys.length; j++)
+            stripeIdxs[j] = stripeIndex(keys[j]);
+
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe<IDSetTrie> stripe = stripes[i];
+
+            synchronized (stripe) {
+                IDSetTrie next = null;
+
+                for (int j = 0; j < keys.length; j++) {
+                    if (stripeIdxs[j] != i)
+                        continue;
+
+                    if (next == null)
+                        next = stripe.trie.nextGeneration();
+                    next.set(keys[j]);
+                }
+
+                if (next != null)
+                    stripe.trie = next;
+            }
+        }
+    }
+
+    /**
+     * Remove key.
+     * @return true if set contained the key
+     */
+    public boolean clear(long key) {
+        Stripe<IDSetTrie> stripe = stripeOf(key);
+
+        synchronized (stripe) {
+            if (!stripe.trie.get(key))
+                return false;
+
+            IDSetTrie next = stripe.trie.nextGeneration();
+            next.clear(key);
+            stripe.trie = next;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.censhare.db.iindex;
+
+import java.util.function.Supplier;
+
+/**
+ * Base class for tries that support multiple concurrent writers.
+ *
+ * Keys are spread over stripes by a hash of the key. Each stripe is a trie with its own writer lock,
+ * and every update is applied to a new generation of the stripe's trie that's only published once complete.
+ * Published generations are never modified, so reads don't lock and never see a half-applied update.
+ */
+abstract class StripedIDTrie<T extends IDTrie> {
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    final Stripe<T>[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripeCount number of stripes, rounded up to a power of two
+     * @param factory creates the initial trie of each stripe
+     */
+    @SuppressWarnings("unchecked")
+    StripedIDTrie(int stripeCount, Supplier<T> factory) {
+        int count = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++)
+            stripes[i] = new Stripe<>(factory.get());
+
+        mask = count - 1;
+    }
+
+    /** Return index of stripe responsible for key. */
+    final int stripeIndex(long key) {
+        // snowflake IDs differ mostly in the high bits, so mix before masking
+        return (int) ((key * HASH_MULTIPLIER) >>> 32) & mask;
+    }
+
+    /** Return stripe responsible for key. */
+    final Stripe<T> stripeOf(long key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    /** Returns number of keys. */
+    public int size() {
+        int size = 0;
+        for (Stripe<T> stripe : stripes)
+            size += stripe.trie.size();
+        return size;
+    }
+
+    /** Returns heap size of all stripes in bytes. */
+    public long sizeInBytes() {
+        long size = 0;
+        for (Stripe<T> stripe : stripes)
+            size += stripe.trie.mem.length * 8L;
+        return size;
+    }
+
+    /** Returns number of stripes. */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    static final class Stripe<T extends IDTrie> {
+        /** Current generation. Only replaced while holding the lock on this stripe. */
+        volatile T trie;
+
+        private Stripe(T trie) {
+            this.trie = trie;
+        }
+    }
+}
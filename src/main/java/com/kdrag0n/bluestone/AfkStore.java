@@ -0,0 +1,235 @@
+package com.kdrag0n.bluestone;
+
+import com.censhare.db.iindex.IDMapTrie;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.kdrag0n.bluestone.sql.AfkMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AFK messages of all users, kept in memory and shared by all shards.
+ *
+ * Messages are stored back to back in a char arena, and an {@link IDMapTrie} maps each user to the offset
+ * and length of theirs. Every change publishes a new generation of the trie, so lookups never lock.
+ * A new generation shares the heap of the previous one and only copies the nodes on the path to the changed user,
+ * so a change never copies the whole trie.
+ * Changes are written to the DB in the background.
+ */
+public class AfkStore {
+    private static final Logger logger = LoggerFactory.getLogger(AfkStore.class);
+    private static final String SELECT_ALL = "SELECT userId, message FROM afk_messages";
+    private static final int MIN_ARENA_SIZE = 4096;
+
+    private final Dao<AfkMessage, Long> dao;
+    private volatile Snapshot snapshot = new Snapshot(new IDMapTrie(), new char[MIN_ARENA_SIZE]);
+    private int arenaEnd = 0;
+    private int arenaGarbage = 0;
+    // null values are deletions
+    private final Map<Long, String> pendingWrites = new LinkedHashMap<>();
+
+    AfkStore(Dao<AfkMessage, Long> dao) {
+        this.dao = dao;
+
+        load();
+        Bot.scheduledExecutor.scheduleWithFixedDelay(this::flush, 2, 2, TimeUnit.SECONDS);
+    }
+
+    private static long pack(int offset, int length) {
+        return ((long) offset << 16) | length;
+    }
+
+    /**
+     * Load every stored message in one query.
+     */
+    private synchronized void load() {
+        int count = 0;
+
+        try (GenericRawResults<String[]> results = dao.queryRaw(SELECT_ALL)) {
+            IDMapTrie index = snapshot.index.nextGeneration();
+            char[] arena = snapshot.arena;
+
+            for (String[] row : results) {
+                long userId = Long.parseLong(row[0]);
+                // don't overwrite anything that was changed while we were loading
+                if (index.get(userId, -1L) != -1L)
+                    continue;
+
+                arena = append(arena, row[1]);
+                index.put(userId, pack(arenaEnd - row[1].length(), row[1].length()));
+                count++;
+            }
+
+            snapshot = new Snapshot(index, arena);
+        } catch (Exception e) {
+            logger.error("Error loading AFK messages from DB", e);
+            return;
+        }
+
+        logger.info("Loaded {} AFK messages", count);
+    }
+
+    /**
+     * @param userId the user ID
+     * @return whether the user has an AFK message
+     */
+    public boolean isAway(long userId) {
+        return snapshot.index.get(userId, -1L) != -1L;
+    }
+
+    /**
+     * @param userId the user ID
+     * @return the user's AFK message, or null if they don't have one
+     */
+    public String getMessage(long userId) {
+        Snapshot current = snapshot;
+        long value = current.index.get(userId, -1L);
+        if (value == -1L)
+            return null;
+
+        return new String(current.arena, (int) (value >>> 16), (int) (value & 0xffff));
+    }
+
+    /**
+     * Set the AFK message of a user.
+     * @param userId the user ID
+     * @param message the message, at most 65535 characters
+     */
+    public synchronized void set(long userId, String message) {
+        Snapshot current = snapshot;
+        char[] arena = current.arena;
+
+        if (arenaEnd + message.length() > arena.length && arenaGarbage > arenaEnd / 2) {
+            current = compact(current);
+            arena = current.arena;
+        }
+
+        arena = append(arena, message);
+
+        IDMapTrie index = current.index.nextGeneration();
+        long old = index.put(userId, pack(arenaEnd - message.length(), message.length()), -1L);
+        if (old != -1L)
+            arenaGarbage += (int) (old & 0xffff);
+
+        snapshot = new Snapshot(index, arena);
+        queueWrite(userId, message);
+    }
+
+    /**
+     * Remove the AFK message of a user.
+     * @param userId the user ID
+     * @return whether the user had one
+     */
+    public boolean remove(long userId) {
+        if (!isAway(userId))
+            return false;
+
+        synchronized (this) {
+            IDMapTrie index = snapshot.index.nextGeneration();
+            long old = index.clear(userId, -1L);
+            if (old == -1L)
+                return false;
+
+            arenaGarbage += (int) (old & 0xffff);
+            snapshot = new Snapshot(index, snapshot.arena);
+            queueWrite(userId, null);
+            return true;
+        }
+    }
+
+    /**
+     * Append a message to the end of the arena, growing it if needed.
+     * The part of the arena that's in use is never changed, so readers of older snapshots aren't affected.
+     */
+    private char[] append(char[] arena, String message) {
+        int length = message.length();
+        if (arenaEnd + length > arena.length)
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaEnd + length));
+
+        message.getChars(0, length, arena, arenaEnd);
+        arenaEnd += length;
+        return arena;
+    }
+
+    /**
+     * Copy the live messages into a new arena, dropping the ones that have been replaced or removed.
+     */
+    private Snapshot compact(Snapshot current) {
+        IDMapTrie index = new IDMapTrie();
+        char[] arena = new char[Math.max(MIN_ARENA_SIZE, (arenaEnd - arenaGarbage) * 2)];
+        int end = 0;
+
+        for (Map.Entry<Long, Long> entry : current.index.getMap().entrySet()) {
+            int offset = (int) (entry.getValue() >>> 16);
+            int length = (int) (entry.getValue() & 0xffff);
+
+            System.arraycopy(current.arena, offset, arena, end, length);
+            index.put(entry.getKey(), pack(end, length));
+            end += length;
+        }
+
+        arenaEnd = end;
+        arenaGarbage = 0;
+        return new Snapshot(index, arena);
+    }
+
+    private void queueWrite(long userId, String message) {
+        synchronized (pendingWrites) {
+            pendingWrites.put(userId, message);
+        }
+    }
+
+    /**
+     * Write all pending changes to the DB now.
+     */
+    void flush() {
+        List<Map.Entry<Long, String>> writes;
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty())
+                return;
+
+            writes = new ArrayList<>(pendingWrites.entrySet());
+            pendingWrites.clear();
+        }
+
+        try {
+            dao.callBatchTasks(() -> {
+                for (Map.Entry<Long, String> write : writes) {
+                    if (write.getValue() == null)
+                        dao.deleteById(write.getKey());
+                    else
+                        dao.createOrUpdate(new AfkMessage(write.getKey(), write.getValue()));
+                }
+
+                return null;
+            });
+        } catch (Exception e) {
+            logger.error("Error writing AFK messages to DB", e);
+
+            // try again next time, unless there's a newer change
+            synchronized (pendingWrites) {
+                for (Map.Entry<Long, String> write : writes) {
+                    if (!pendingWrites.containsKey(write.getKey()))
+                        pendingWrites.put(write.getKey(), write.getValue());
+                }
+            }
+        }
+    }
+
+    private static final class Snapshot {
+        private final IDMapTrie index;
+        private final char[] arena;
+
+        private Snapshot(IDMapTrie index, char[] arena) {
+            this.index = index;
+            this.arena = arena;
+        }
+    }
+}
@@ -6,11 +6,11 @@ import com.j256.ormlite.dao.Dao;
 import com.jagrosh.jdautilities.commons.waiter.EventWaiter;
 import com.kdrag0n.bluestone.sql.BotAdmin;
 import com.kdrag0n.bluestone.util.*;
+import com.kdrag0n.bluestone.annotations.Cooldown;
 import com.kdrag0n.bluestone.annotations.Disable;
 import com.kdrag0n.bluestone.annotations.EventHandler;
 import com.kdrag0n.bluestone.errors.PassException;
 import com.kdrag0n.bluestone.handlers.MessageWaitEventListener;
-import com.kdrag0n.bluestone.handlers.RejectedExecHandlerImpl;
 import com.neovisionaries.ws.client.WebSocketFactory;
 import com.sedmelluq.discord.lavaplayer.jdaudp.NativeAudioSendFactory;
 import gnu.trove.set.TLongSet;
@@ -18,7 +18,9 @@ import gnu.trove.set.hash.TLongHashSet;
 import net.dv8tion.jda.bot.entities.ApplicationInfo;
 import net.dv8tion.jda.core.*;
 import net.dv8tion.jda.core.JDA.ShardInfo;
+import net.dv8tion.jda.core.audio.factory.IAudioSendFactory;
 import net.dv8tion.jda.core.entities.*;
+import net.dv8tion.jda.core.entities.impl.JDAImpl;
 import net.dv8tion.jda.core.events.Event;
 import net.dv8tion.jda.core.events.ReadyEvent;
 import net.dv8tion.jda.core.events.ShutdownEvent;
@@ -41,7 +43,6 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -49,9 +50,7 @@ import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
@@ -73,14 +72,9 @@ public class Bot implements EventListener, ClassUtilities {
     public final Logger logger;
     public static final ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(8,
             new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Bot BG-Task Thread %d").build());
-    private static final ThreadPoolExecutor cogEventExecutor = new ThreadPoolExecutor(4, 32, 10, TimeUnit.SECONDS,
-            new ArrayBlockingQueue<>(64),
-            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Bot Cog-Event Pool Thread %d").build(),
-            new RejectedExecHandlerImpl("Cog-Event"));
-    public static final ThreadPoolExecutor threadExecutor = new ThreadPoolExecutor(4, 85, 10, TimeUnit.SECONDS,
-            new ArrayBlockingQueue<>(72),
-            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Bot Command-Exec Pool Thread %d").build(),
-            new RejectedExecHandlerImpl("Command-Exec"));
+    public static final EventScheduler eventScheduler = new EventScheduler(
+            Math.max(4, Math.min(32, Runtime.getRuntime().availableProcessors() * 4)), 64, 4);
+    public static final CommandExecutor threadExecutor = new CommandExecutor();
     public final EventWaiter eventWaiter = new EventWaiter();
     private static Unsafe unsafe = null;
     public final JDA jda;
@@ -88,11 +82,14 @@ public class Bot implements EventListener, ClassUtilities {
     public static JSONObject patreonData = new JSONObject();
     public static TLongSet patronIds = new TLongHashSet();
     public final Map<String, Command> commands = new HashMap<>();
+    private volatile CommandTrie commandTrie = CommandTrie.EMPTY;
     public final Map<String, Cog> cogs = new HashMap<>();
-    private final Map<Class<? extends Event>, List<ExtraEvent>> extraEvents = new HashMap<>();
+    private final EventBus eventBus;
     public static final OkHttpClient http = new OkHttpClient.Builder()
             .cache(new Cache(new File("data/http_cache"), 24000000000L)).connectTimeout(5, TimeUnit.SECONDS)
-            .readTimeout(12, TimeUnit.SECONDS).writeTimeout(8, TimeUnit.SECONDS).retryOnConnectionFailure(true).build();
+            .readTimeout(12, TimeUnit.SECONDS).writeTimeout(8, TimeUnit.SECONDS).retryOnConnectionFailure(true)
+            .addInterceptor(new HttpMetrics("bot.http")).build();
+    public static final SharedHttp sharedHttp = new SharedHttp(http, 1024);
     public static long ownerId;
     public static String ownerTag;
     private static long ourId;
@@ -104,6 +101,15 @@ public class Bot implements EventListener, ClassUtilities {
         scheduledExecutor.setMaximumPoolSize(16);
         scheduledExecutor.setKeepAliveTime(16L, TimeUnit.SECONDS);
 
+        Metrics.gauge("bot.commands.queued", threadExecutor::getQueueDepth);
+        Metrics.gauge("bot.commands.active", threadExecutor::getActiveCount);
+        Metrics.gauge("bot.events.queued", eventScheduler::getQueueDepth);
+        Metrics.gauge("bot.events.dropped", eventScheduler::getDrops);
+        Metrics.gauge("bot.scheduled.queued", () -> scheduledExecutor.getQueue().size());
+        Metrics.gauge("bot.scheduled.active", scheduledExecutor::getActiveCount);
+        Metrics.gauge("bot.shared_http.cached", sharedHttp::getCacheSize);
+        Metrics.gauge("bot.shared_http.in_flight", sharedHttp::getInFlight);
+
         ensureUnsafe();
 
         RestAction.DEFAULT_FAILURE = e -> {
@@ -134,13 +140,14 @@ public class Bot implements EventListener, ClassUtilities {
         super();
 
         shardUtil = util;
-        prefixStore = new PrefixStore(shardUtil.getPool(), shardUtil.getConfig().optString("default_prefix", "!"));
+        prefixStore = shardUtil.getPrefixStore();
 
         this.jda = jda;
         jda.addEventListener(this, eventWaiter);
 
         final ShardInfo sInfo = jda.getShardInfo();
         logger = LoggerFactory.getLogger("Bot" + (sInfo == null ? "" : " [" + sInfo.getShardString() + ']'));
+        eventBus = new EventBus(logger, eventScheduler);
     }
 
     public int getShardNum() {
@@ -175,35 +182,7 @@ public class Bot implements EventListener, ClassUtilities {
     }
 
     private void dispatchCogEvent(Event event) {
-        for (Map.Entry<Class<? extends Event>, List<ExtraEvent>> entry : extraEvents.entrySet()) {
-            Class<? extends Event> eventClass = entry.getKey();
-
-            if (eventClass.isInstance(event)) {
-                List<ExtraEvent> events = entry.getValue();
-
-                for (ExtraEvent extraEvent : events) {
-                    Runnable task = () -> {
-                        try {
-                            extraEvent.getMethod().invoke(extraEvent.getParent(), event);
-                        } catch (IllegalAccessException e) {
-                            logger.error("Error dispatching {} to {} - handler not public",
-                                    event.getClass().getSimpleName(),
-                                    extraEvent.getMethod().getDeclaringClass().getName(), e);
-                        } catch (InvocationTargetException eContainer) {
-                            Throwable e = eContainer.getCause();
-
-                            logger.error("{} error handling {}", extraEvent.getMethod().getDeclaringClass().getName(),
-                                    event.getClass().getSimpleName(), e);
-                        }
-                    };
-
-                    if (extraEvent.isThreaded())
-                        cogEventExecutor.execute(task);
-                    else
-                        task.run();
-                }
-            }
-        }
+        eventBus.dispatch(event);
     }
 
     private void updateOwnerInfo() {
@@ -230,6 +209,9 @@ public class Bot implements EventListener, ClassUtilities {
 
         logger.info("Ready - ID {}", ourId);
 
+        final long[] guildIds = ((JDAImpl) jda).getGuildMap().keys();
+        scheduledExecutor.execute(() -> prefixStore.warmup(guildIds));
+
         if (jda.getGuildById(110373943822540800L) != null)
             Emotes.setHasDbots();
 
@@ -307,7 +289,7 @@ public class Bot implements EventListener, ClassUtilities {
                 List<Permission> perms = new ArrayList<>(method.getDeclaredAnnotations().length - 1);
                 for (Annotation a : method.getDeclaredAnnotations()) {
                     Class<? extends Annotation> type = a.annotationType();
-                    if (type == com.kdrag0n.bluestone.annotations.Command.class)
+                    if (type == com.kdrag0n.bluestone.annotations.Command.class || type == Cooldown.class)
                         continue;
 
                     if (type == Perm.Owner.class) {
@@ -370,9 +352,13 @@ public class Bot implements EventListener, ClassUtilities {
                     }
                 }
 
+                Cooldown cooldownAnno = method.getDeclaredAnnotation(Cooldown.class);
+                CooldownBucket cooldown = cooldownAnno == null ? null :
+                        CooldownBucket.forCommand(anno.name(), cooldownAnno);
+
                 Command command = new Command(anno.name(), anno.desc(), anno.usage(), anno.hidden(),
                         perms.toArray(new Permission[0]), anno.guildOnly(), anno.aliases(), method, cog, anno.thread(),
-                        anno.reportErrors());
+                        anno.reportErrors(), cooldown);
 
                 if (commands.containsKey(command.name))
                     throw new IllegalStateException("Command '" + command.name + "' already registered!");
@@ -387,21 +373,12 @@ public class Bot implements EventListener, ClassUtilities {
                 }
             } else if (method.isAnnotationPresent(EventHandler.class)) {
                 EventHandler anno = method.getAnnotation(EventHandler.class);
-                ExtraEvent extraEvent = new ExtraEvent(method, anno.threaded(), cog);
-                Class eventClass = method.getParameterTypes()[0];
-
-                if (extraEvents.containsKey(eventClass)) {
-                    extraEvents.get(eventClass).add(extraEvent);
-                } else {
-                    List<ExtraEvent> list = new ArrayList<>();
-                    list.add(extraEvent);
-
-                    extraEvents.put(eventClass, list);
-                }
+                eventBus.register(cog, method, anno.threaded(), anno.overflow());
             }
         }
 
         cogs.put(cog.getName(), cog);
+        commandTrie = CommandTrie.build(commands);
     }
 
     public void unregisterCog(Cog cog) {
@@ -412,17 +389,11 @@ public class Bot implements EventListener, ClassUtilities {
                 commands.remove(entry.getKey());
             }
         }
+        commandTrie = CommandTrie.build(commands);
 
         cog.unload();
         cogs.remove(cog.getName(), cog);
-
-        for (List<ExtraEvent> events : extraEvents.values()) {
-            for (ExtraEvent event : new HashSet<>(events)) {
-                if (event.getMethod().getDeclaringClass().equals(cog.getClass())) {
-                    events.remove(event);
-                }
-            }
-        }
+        eventBus.unregister(cog);
     }
 
     private void onShutdown() {
@@ -448,18 +419,15 @@ public class Bot implements EventListener, ClassUtilities {
         final MessageChannel channel = event.getChannel();
 
         if (content.startsWith(prefix)) {
-            final String[] split = WHITESPACE_PATTERN.split(content.substring(prefix.length()), 0);
-            if (split.length == 0)
+            final CommandTrie.Node match = commandTrie.match(content, prefix.length());
+            if (match == null)
                 return;
-            final ArrayListView args = new ArrayListView(split);
 
-            final String cmdName = split[0].toLowerCase();
+            // only tokenize once we know it's a command
+            final ArrayListView args = new ArrayListView(WHITESPACE_PATTERN
+                    .split(content.substring(prefix.length()), 0));
 
-            if (commands.containsKey(cmdName)) {
-                final Command command = commands.get(cmdName);
-
-                command.simpleInvoke(this, event, args, prefix, cmdName);
-            }
+            match.command.simpleInvoke(this, event, args, prefix, match.name);
         } else if (content.startsWith(ourMention) || content.startsWith(ourGuildMention)) {
             final String request = Strings.renderMessage(message, message.getGuild(),
                     GENERAL_MENTION_PATTERN.matcher(message.getContentRaw()).replaceFirst(""));
@@ -605,20 +573,21 @@ public class Bot implements EventListener, ClassUtilities {
             return 1;
         }
 
-        ShardUtil shardUtil = new ShardUtil(shardCount, config);
-        JDABuilder builder = new JDABuilder(AccountType.BOT).setToken(token).setAudioEnabled(true)
-                .setAutoReconnect(true).setWebsocketFactory(new WebSocketFactory().setConnectionTimeout(120000))
-                .setBulkDeleteSplittingEnabled(false).setStatus(OnlineStatus.IDLE).setCorePoolSize(5)
-                .setEnableShutdownHook(true)
-                .setHttpClientBuilder(new OkHttpClient.Builder().retryOnConnectionFailure(true))
-                .setGame(Game.playing("something"));
+        threadExecutor.configure(config.optString("command_executor", "auto"),
+                config.optInt("guild_command_limit", 4), config.optInt("command_parallelism", 16));
 
-        if ((System.getProperty("os.arch").startsWith("x86") || System.getProperty("os.arch").equals("amd64"))
-                && (SystemUtils.IS_OS_WINDOWS || SystemUtils.IS_OS_LINUX))
-            builder.setAudioSendFactory(new NativeAudioSendFactory());
+        ShardUtil shardUtil = new ShardUtil(shardCount, config);
+        ShardLauncher launcher = new ShardLauncher(shardCount, config.optInt("identify_concurrency", 1));
+        // shared by every shard's builder, but only read by them
+        OkHttpClient.Builder httpBuilder = new OkHttpClient.Builder().retryOnConnectionFailure(true)
+                .addInterceptor(new HttpMetrics("bot.rest"));
+        final IAudioSendFactory audioSendFactory =
+                (System.getProperty("os.arch").startsWith("x86") || System.getProperty("os.arch").equals("amd64"))
+                        && (SystemUtils.IS_OS_WINDOWS || SystemUtils.IS_OS_LINUX) ? new NativeAudioSendFactory() : null;
 
         loadPatreonData();
 
+        // building only queues the shard with the launcher, which decides when it actually connects
         for (int i = 0; i < shardCount; i++) {
             final int shardId = i;
 
@@ -626,6 +595,7 @@ public class Bot implements EventListener, ClassUtilities {
                 final Logger logger = LoggerFactory.getLogger("ShardMonitor " + shardId);
 
                 while (true) {
+                    JDABuilder builder = newBuilder(token, shardUtil, launcher, httpBuilder, audioSendFactory);
                     if (shardCount != 1) {
                         builder.useSharding(shardId, shardCount);
                     }
@@ -668,15 +638,28 @@ public class Bot implements EventListener, ClassUtilities {
 
             Thread monThread = new Thread(monitor, "Bot Shard-" + shardId + " Monitor Thread");
             monThread.start();
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException ignored) {
-            }
         }
 
         return 0;
     }
 
+    private static JDABuilder newBuilder(String token, ShardUtil shardUtil, ShardLauncher launcher,
+                                         OkHttpClient.Builder httpBuilder, IAudioSendFactory audioSendFactory) {
+        JDABuilder builder = new JDABuilder(AccountType.BOT).setToken(token).setAudioEnabled(true)
+                .setAutoReconnect(true).setWebsocketFactory(new WebSocketFactory().setConnectionTimeout(120000))
+                .setBulkDeleteSplittingEnabled(false).setStatus(OnlineStatus.IDLE).setCorePoolSize(5)
+                .setEnableShutdownHook(true)
+                .setHttpClientBuilder(httpBuilder)
+                .setSessionController(launcher)
+                .setGame(Game.playing("something"))
+                .addEventListener(shardUtil.getStats(), launcher);
+
+        if (audioSendFactory != null)
+            builder.setAudioSendFactory(audioSendFactory);
+
+        return builder;
+    }
+
     private static void ensureUnsafe() {
         if (unsafe == null) {
             try {
@@ -0,0 +1,122 @@
+package com.kdrag0n.bluestone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folds bursts of items for the same key, like a wave of joins, into batches.
+ *
+ * While items arrive slowly, each one is passed on right away, on its own. Once more than the threshold
+ * arrive within one window, the rest are held back and passed on together at the end of the window.
+ * A window starts with the first item for a key, and the key is forgotten once a window ends with nothing held back.
+ * @param <T> the item type
+ */
+public class BurstCoalescer<T> {
+    private static final Logger logger = LoggerFactory.getLogger(BurstCoalescer.class);
+
+    private final long window;
+    private final int threshold;
+    private final Sink<T> sink;
+    private final Map<Long, Burst<T>> bursts = new ConcurrentHashMap<>();
+
+    /**
+     * @param window the length of a window, in milliseconds
+     * @param threshold how many items to pass on individually in each window
+     * @param sink what to do with items
+     */
+    public BurstCoalescer(long window, int threshold, Sink<T> sink) {
+        this.window = window;
+        this.threshold = threshold;
+        this.sink = sink;
+    }
+
+    /**
+     * Submit an item.
+     * @param key the key to group items by
+     * @param item the item
+     */
+    public void submit(long key, T item) {
+        while (true) {
+            Burst<T> burst = bursts.computeIfAbsent(key, k -> new Burst<>());
+            boolean passNow = false;
+            boolean openWindow = false;
+
+            synchronized (burst) {
+                // window ended with nothing held back and removed since we looked it up
+                if (burst.dead)
+                    continue;
+
+                if (!burst.windowOpen) {
+                    burst.windowOpen = true;
+                    openWindow = true;
+                }
+
+                // keep order: once items are held back, everything after them waits too
+                if (++burst.count <= threshold && burst.pending.isEmpty())
+                    passNow = true;
+                else
+                    burst.pending.add(item);
+            }
+
+            if (openWindow)
+                scheduleEnd(key, burst);
+            if (passNow)
+                pass(key, Collections.singletonList(item));
+            return;
+        }
+    }
+
+    private void scheduleEnd(long key, Burst<T> burst) {
+        Bot.scheduledExecutor.schedule(() -> endWindow(key, burst), window, TimeUnit.MILLISECONDS);
+    }
+
+    private void endWindow(long key, Burst<T> burst) {
+        List<T> items;
+        synchronized (burst) {
+            if (burst.pending.isEmpty()) {
+                burst.dead = true;
+                bursts.remove(key, burst);
+                return;
+            }
+
+            // pass on what was held back and start the next window right away
+            items = new ArrayList<>(burst.pending);
+            burst.pending.clear();
+            burst.count = 0;
+        }
+
+        scheduleEnd(key, burst);
+        pass(key, items);
+    }
+
+    private void pass(long key, List<T> items) {
+        try {
+            sink.accept(key, items);
+        } catch (Exception e) {
+            logger.error("Error passing on batch of {} for {}", items.size(), key, e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Sink<T> {
+        /**
+         * @param key the key the items were submitted for
+         * @param items the items, in the order they were submitted
+         */
+        void accept(long key, List<T> items);
+    }
+
+    private static final class Burst<T> {
+        private final List<T> pending = new ArrayList<>();
+        private int count = 0;
+        private boolean windowOpen = false;
+        private boolean dead = false;
+    }
+}
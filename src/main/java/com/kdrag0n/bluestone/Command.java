@@ -4,6 +4,7 @@ import com.kdrag0n.bluestone.errors.GuildOnlyError;
 import com.kdrag0n.bluestone.errors.PassException;
 import com.kdrag0n.bluestone.errors.PermissionError;
 import com.kdrag0n.bluestone.util.ArrayListView;
+import com.kdrag0n.bluestone.util.LatencyHistogram;
 import com.kdrag0n.bluestone.util.Strings;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.MessageChannel;
@@ -13,28 +14,41 @@ import net.dv8tion.jda.core.exceptions.PermissionException;
 import org.apache.commons.lang3.ArrayUtils;
 import org.json.JSONException;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import static java.lang.String.format;
 
 public class Command {
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, Context.class);
     public final String name;
     public final String description;
     public final String usage;
     public final boolean hidden;
     private final Permission[] permsRequired;
+    // checking these looks up the database, so it's left for the executor
+    private final boolean permsNeedDatabase;
     private final boolean guildOnly;
     public final String[] aliases;
     private final boolean needThread;
     public final boolean requiresOwner;
-    private final Method func;
+    private final Invoker func;
     public final Cog cog;
+    private final CooldownBucket cooldown;
+    // shared with the same command on other shards
+    private final LatencyHistogram latency;
+    private final LongAdder errors;
 
     public Command(String name, String desc, String usage, boolean hidden,
                    Permission[] permsRequired, boolean guildOnly, String[] aliases,
-                   Method func, Cog cogInstance, boolean needThread, boolean reportErrors) {
+                   Method func, Cog cogInstance, boolean needThread, boolean reportErrors, CooldownBucket cooldown) {
         this.name = name;
         this.description = desc;
         this.usage = usage;
@@ -42,102 +56,164 @@ public class Command {
         this.permsRequired = permsRequired;
         this.guildOnly = guildOnly;
         this.aliases = aliases;
-        this.func = func;
+        this.func = createInvoker(func, cogInstance);
         this.cog = cogInstance;
         this.needThread = needThread;
         this.requiresOwner = ArrayUtils.contains(permsRequired, Permissions.BOT_OWNER);
+        this.cooldown = cooldown;
+        permsNeedDatabase = needsDatabase(permsRequired);
+
+        String metric = "bot.commands.by_name." + Metrics.segment(name);
+        latency = Metrics.timer(metric + ".latency");
+        errors = Metrics.counter(metric + ".errors");
     }
 
-    private void invoke(Bot bot, MessageReceivedEvent event, ArrayListView args,
-                        String prefix, String invoker) throws IllegalAccessException, InvocationTargetException {
-        Context ctx = new Context(bot, event, args, prefix, invoker);
+    private static boolean needsDatabase(Permission[] perms) {
+        for (Permission perm : perms) {
+            if (perm == Permissions.BOT_ADMIN)
+                return true;
 
-        if (guildOnly && ctx.guild == null) {
-            throw new GuildOnlyError("Command only works in a guild");
+            Permission[] compound = Permissions.compoundMap.get(perm);
+            if (compound != null && ArrayUtils.contains(compound, Permissions.BOT_ADMIN))
+                return true;
+        }
+
+        return false;
+    }
+
+    private void invoke(Context ctx) throws Throwable {
+        if (permsNeedDatabase && !Permissions.check(ctx, permsRequired)) {
+            // the cooldown was taken before this check, so don't count a command that never ran
+            if (cooldown != null)
+                cooldown.release(ctx.event);
+
+            throw new PermissionError("Sender missing permissions for command " + name)
+                    .setPerms(permsRequired);
         }
 
-        if (permsRequired.length > 0) {
-            checkPerms(ctx);
+        func.invoke(ctx);
+    }
+
+    /**
+     * Bind a command method to its cog as a directly callable {@link Invoker}, so calls can be inlined
+     * and exceptions propagate without being wrapped.
+     * @param method the command method
+     * @param cog the cog instance to bind to
+     * @return the invoker
+     */
+    static Invoker createInvoker(Method method, Cog cog) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Command method " + method + " is not public", e);
         }
 
-        func.invoke(cog, ctx);
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                    MethodType.methodType(Invoker.class, method.getDeclaringClass()), INVOKER_TYPE,
+                    handle, INVOKER_TYPE);
+
+            return (Invoker) site.getTarget().invoke(cog);
+        } catch (Throwable e) {
+            // classes from other loaders can't be linked into a lambda; a bound handle is still fast
+            MethodHandle bound = handle.bindTo(cog).asType(INVOKER_TYPE);
+            return ctx -> {
+                bound.invokeExact(ctx);
+            };
+        }
     }
 
     public void simpleInvoke(Bot bot, MessageReceivedEvent event, ArrayListView args,
                              String prefix, String invoker) {
+        Context ctx = new Context(bot, event, args, prefix, invoker);
+
+        // cheap checks first, so commands that can't run don't use up the cooldown
+        if (guildOnly && ctx.guild == null) {
+            ctx.channel.sendMessage(Emotes.getFailure() + " That command only works in a server.").queue();
+            return;
+        } else if (permsRequired.length > 0 && !permsNeedDatabase && !Permissions.check(ctx, permsRequired)) {
+            sendMissingPerms(ctx.channel, invoker, PermissionError.getFriendlyPerms(permsRequired));
+            return;
+        }
+
+        // throttled calls never take up an executor slot
+        if (cooldown != null) {
+            long wait = cooldown.tryAcquire(event);
+
+            if (wait > 0) {
+                if (cooldown.shouldNotify(event, wait)) {
+                    ctx.channel.sendMessage(format("⏳ Slow down! Try `%s` again in **%.1f** seconds.",
+                            invoker, wait / 1e9)).queue();
+                }
+                return;
+            }
+        }
+
         if (needThread) {
-            Runnable task = () -> invokeWithHandling(bot, event, args, prefix, invoker);
+            Runnable task = () -> invokeWithHandling(ctx);
+            long laneId = event.getGuild() == null ? event.getChannel().getIdLong() : event.getGuild().getIdLong();
 
-            if (Bot.threadExecutor.getActiveCount() >= Bot.threadExecutor.getMaximumPoolSize()) {
+            if (!Bot.threadExecutor.execute(laneId, task)) {
                 event.getChannel().sendMessage(
                         "⌛ Your command has been queued.").queue();
             }
-            Bot.threadExecutor.execute(task);
         } else {
-            invokeWithHandling(bot, event, args, prefix, invoker);
+            invokeWithHandling(ctx);
         }
     }
 
-    private void invokeWithHandling(Bot bot, MessageReceivedEvent event, ArrayListView args,
-                                    String prefix, String invoker) {
-        MessageChannel channel = event.getChannel();
+    private static void sendMissingPerms(MessageChannel channel, String invoker, List<String> perms) {
+        channel.sendMessage(format("You can't use `%s` because **%s** is required.",
+                invoker, Strings.smartJoin(perms, "or"))).queue();
+    }
+
+    private void invokeWithHandling(Context ctx) {
+        Bot bot = ctx.bot;
+        MessageChannel channel = ctx.channel;
+        String invoker = ctx.invoker;
+        long start = System.nanoTime();
 
         try {
             try {
-                invoke(bot, event, args, prefix, invoker);
-            } catch (IllegalAccessException e) {
-                bot.logger.error("Severe command ({}) invocation error:", invoker, e);
-                channel.sendMessage(Emotes.getFailure() + " An internal error occurred.").queue();
-            } catch (InvocationTargetException e) {
-                Throwable cause = e.getCause();
-
-                if (cause == null) {
-                    bot.logger.error("Unknown command ({}) invocation error:", invoker, e);
-                    channel.sendMessage(Emotes.getFailure() + " An unknown internal error occurred.").queue();
-                } else //noinspection StatementWithEmptyBody
-                    if (cause instanceof PassException) {
-                    // assume error has already been sent
-                } else if (cause instanceof PermissionError) {
-                    channel.sendMessage(format("You can't use `%s` because **%s** is required.",
-                            invoker, Strings.smartJoin(((PermissionError) cause).getFriendlyPerms(), "or"))).queue();
-                } else if (cause instanceof PermissionException) {
-                    channel.sendMessage(Emotes.getFailure() + " I need the **" +
-                            ((PermissionException) cause).getPermission().getName() + "** permission.").queue();
-                } else if (cause instanceof ErrorResponseException) {
-                    if (((ErrorResponseException) cause).getErrorCode() == 50013) {
-                        channel.sendMessage(Emotes.getFailure() + " I don't have the permission to do that.").queue();
-                    } else {
-                        bot.logger.error("Command ({}) invocation error:", invoker, cause);
-                        channel.sendMessage(format(Emotes.getFailure() + " An error occurred. `%s`",
-                                cause.getClass().getSimpleName())).queue();
-                    }
-                } else if (cause instanceof SQLException) {
-                    bot.logger.error("SQL error in command {}:", invoker, cause);
-                    channel.sendMessage(Emotes.getFailure() + " A database error occurred.").queue();
-                } else if (cause instanceof JSONException) {
-                    bot.logger.error("Command {}: Invalid JSON received", invoker);
-                    channel.sendMessage(Emotes.getFailure() + " The service provided invalid data. Try again later.").queue();
-                } else {
-                    bot.logger.error("Command ({}) invocation error:", invoker, cause);
-                    channel.sendMessage(format(Emotes.getFailure() + " An error occurred. `%s`",
-                            cause.getClass().getSimpleName())).queue();
-                }
+                invoke(ctx);
+            } catch (PassException ignored) {
+                // assume error has already been sent
             } catch (PermissionError e) {
-                channel.sendMessage(format("You can't use `%s` because **%s** is required.",
-                        invoker, Strings.smartJoin(e.getFriendlyPerms(), "or"))).queue();
+                sendMissingPerms(channel, invoker, e.getFriendlyPerms());
             } catch (GuildOnlyError e) {
                 channel.sendMessage(Emotes.getFailure() + " That command only works in a server.").queue();
-            } catch (Exception e) {
-                bot.logger.error("Unknown command ({}) error:", invoker, e);
-                channel.sendMessage(Emotes.getFailure() + " An internal error occurred.").queue();
+            } catch (PermissionException e) {
+                channel.sendMessage(Emotes.getFailure() + " I need the **" +
+                        e.getPermission().getName() + "** permission.").queue();
+            } catch (ErrorResponseException e) {
+                if (e.getErrorCode() == 50013) {
+                    channel.sendMessage(Emotes.getFailure() + " I don't have the permission to do that.").queue();
+                } else {
+                    errors.increment();
+                    bot.logger.error("Command ({}) invocation error:", invoker, e);
+                    channel.sendMessage(format(Emotes.getFailure() + " An error occurred. `%s`",
+                            e.getClass().getSimpleName())).queue();
+                }
+            } catch (SQLException e) {
+                errors.increment();
+                bot.logger.error("SQL error in command {}:", invoker, e);
+                channel.sendMessage(Emotes.getFailure() + " A database error occurred.").queue();
+            } catch (JSONException e) {
+                errors.increment();
+                bot.logger.error("Command {}: Invalid JSON received", invoker);
+                channel.sendMessage(Emotes.getFailure() + " The service provided invalid data. Try again later.").queue();
+            } catch (Throwable e) {
+                errors.increment();
+                bot.logger.error("Command ({}) invocation error:", invoker, e);
+                channel.sendMessage(format(Emotes.getFailure() + " An error occurred. `%s`",
+                        e.getClass().getSimpleName())).queue();
             }
-        } catch (PermissionException ignored) {}
-    }
-
-    private void checkPerms(Context ctx) throws PermissionError {
-        if (!Permissions.check(ctx, permsRequired))
-            throw new PermissionError("Sender missing permissions for command " + name)
-                   .setPerms(permsRequired);
+        } catch (PermissionException ignored) {
+        } finally {
+            latency.recordSince(start);
+        }
     }
 
     public static void checkPerms(Context ctx, Permission[] permsRequired) {
@@ -145,4 +221,9 @@ public class Command {
             throw new PermissionError("Sender missing permissions")
                     .setPerms(permsRequired);
     }
-}
\ No newline at end of file
+
+    @FunctionalInterface
+    interface Invoker {
+        void invoke(Context ctx) throws Throwable;
+    }
+}
@@ -0,0 +1,282 @@
+package com.kdrag0n.bluestone;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kdrag0n.bluestone.handlers.RejectedExecHandlerImpl;
+import com.kdrag0n.bluestone.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@code thread = true} commands, and other blocking work that used to go to a fixed thread pool.
+ *
+ * Three backends are available, chosen with the {@code command_executor} config key:
+ * <ul>
+ *     <li>{@code virtual} - one virtual thread per task (JDK 19+)</li>
+ *     <li>{@code forkjoin} - a work-stealing pool that adds threads while tasks block, up to twice its
+ *     parallelism</li>
+ *     <li>{@code pool} - the old bounded thread pool</li>
+ * </ul>
+ * The default, {@code auto}, uses virtual threads when available and fork-join otherwise.
+ *
+ * Commands from a single guild are capped at {@code guild_command_limit} at once, so one guild
+ * can't starve the rest. Excess commands wait in a per-guild queue.
+ */
+public class CommandExecutor implements Executor {
+    private static final Logger logger = LoggerFactory.getLogger(CommandExecutor.class);
+    private static final int DEFAULT_GUILD_LIMIT = 4;
+    private static final int DEFAULT_PARALLELISM = 16;
+
+    private volatile ExecutorService backend;
+    // tasks that may still make the fork-join pool add a thread while they block, set before the backend
+    private volatile Semaphore compensation;
+    private volatile String backendName;
+    private volatile int guildLimit = DEFAULT_GUILD_LIMIT;
+    private final Map<Long, GuildLane> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    public final LatencyHistogram waitTime = Metrics.timer("bot.commands.wait");
+
+    /**
+     * Set up the backend. Must be called before any shard starts.
+     * @param mode the backend to use: auto, virtual, forkjoin or pool
+     * @param guildLimit the maximum number of commands each guild may run at once
+     * @param parallelism the number of threads to keep available, and of extra ones to add while tasks block, for the
+     *                    fork-join backend
+     */
+    synchronized void configure(String mode, int guildLimit, int parallelism) {
+        this.guildLimit = Math.max(1, guildLimit);
+
+        ExecutorService newBackend = null;
+        String name = mode;
+        if ("auto".equals(mode) || "virtual".equals(mode)) {
+            newBackend = createVirtual();
+            name = "virtual";
+
+            if (newBackend == null) {
+                if ("virtual".equals(mode))
+                    logger.warn("Virtual threads aren't available on this JVM, using fork-join");
+
+                mode = "forkjoin";
+            }
+        }
+
+        if ("forkjoin".equals(mode)) {
+            compensation = new Semaphore(Math.max(1, parallelism));
+            newBackend = new ForkJoinPool(Math.max(1, parallelism), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Bot Command-Exec FJ Thread " + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, true);
+            name = "forkjoin";
+        } else if (newBackend == null) {
+            newBackend = createPool();
+            name = "pool";
+        }
+
+        ExecutorService old = backend;
+        backend = newBackend;
+        backendName = name;
+        if (old != null)
+            old.shutdown();
+
+        logger.info("Using {} backend for commands, {} per guild", name, this.guildLimit);
+    }
+
+    private static ExecutorService createVirtual() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // pre-19 JDK, or preview features disabled
+            return null;
+        }
+    }
+
+    private ExecutorService createPool() {
+        RejectedExecHandlerImpl logHandler = new RejectedExecHandlerImpl("Command-Exec");
+
+        return new ThreadPoolExecutor(4, 85, 10, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(72),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Bot Command-Exec Pool Thread %d").build(),
+                (r, executor) -> {
+                    logHandler.rejectedExecution(r, executor);
+
+                    if (r instanceof Task)
+                        ((Task) r).reject();
+                });
+    }
+
+    private ExecutorService backend() {
+        ExecutorService b = backend;
+        if (b == null) {
+            synchronized (this) {
+                if (backend == null)
+                    configure("auto", DEFAULT_GUILD_LIMIT, DEFAULT_PARALLELISM);
+                b = backend;
+            }
+        }
+
+        return b;
+    }
+
+    /**
+     * Run a task with no per-guild limit.
+     * @param task the task to run
+     */
+    @Override
+    public void execute(Runnable task) {
+        dispatch(new Task(task, 0L));
+    }
+
+    /**
+     * Run a task for a guild, queueing it if the guild is already at its limit.
+     * @param guildId the ID of the guild (or channel, outside of guilds)
+     * @param task the task to run
+     * @return false if the task was queued behind others from the same guild
+     */
+    boolean execute(long guildId, Runnable task) {
+        Task t = new Task(task, guildId);
+        boolean[] runNow = {false};
+
+        lanes.compute(guildId, (k, lane) -> {
+            if (lane == null)
+                lane = new GuildLane();
+
+            if (lane.running < guildLimit) {
+                lane.running++;
+                runNow[0] = true;
+            } else {
+                lane.pending.add(t);
+            }
+
+            return lane;
+        });
+
+        queued.incrementAndGet();
+        if (runNow[0])
+            submit(t);
+
+        return runNow[0];
+    }
+
+    private void dispatch(Task task) {
+        queued.incrementAndGet();
+        submit(task);
+    }
+
+    private void submit(Task task) {
+        ExecutorService b = backend();
+
+        if (b instanceof ForkJoinPool) {
+            Semaphore permits = compensation;
+            b.execute(() -> {
+                // past the cap, tasks just hold on to their worker, so a burst can't add threads without limit
+                if (!permits.tryAcquire()) {
+                    task.run();
+                    return;
+                }
+
+                try {
+                    // lets the pool add a thread while this one is blocked on I/O
+                    ForkJoinPool.managedBlock(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    permits.release();
+                }
+            });
+        } else {
+            b.execute(task);
+        }
+    }
+
+    private void finish(Task task) {
+        if (task.guildId == 0L)
+            return;
+
+        Task[] next = {null};
+        lanes.computeIfPresent(task.guildId, (k, lane) -> {
+            next[0] = lane.pending.poll();
+            if (next[0] != null)
+                return lane;
+
+            lane.running--;
+            return lane.running == 0 ? null : lane;
+        });
+
+        if (next[0] != null)
+            submit(next[0]);
+    }
+
+    public String getBackendName() {
+        return backendName;
+    }
+
+    /**
+     * @return the number of tasks waiting to start, including those held back by guild limits
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    private static final class GuildLane {
+        private int running = 0;
+        private final ArrayDeque<Task> pending = new ArrayDeque<>();
+    }
+
+    private final class Task implements Runnable, ForkJoinPool.ManagedBlocker {
+        private final Runnable task;
+        private final long guildId;
+        private final long submitTime = System.nanoTime();
+        private boolean done = false;
+
+        private Task(Runnable task, long guildId) {
+            this.task = task;
+            this.guildId = guildId;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            waitTime.recordSince(submitTime);
+
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.error("Uncaught error in task", e);
+            } finally {
+                active.decrementAndGet();
+                finish(this);
+            }
+        }
+
+        private void reject() {
+            queued.decrementAndGet();
+            finish(this);
+        }
+
+        @Override
+        public boolean block() {
+            run();
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.kdrag0n.bluestone;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An immutable, case-insensitive char trie over command names and aliases.
+ * Lookups walk the raw message content in place, so messages that aren't commands never allocate.
+ */
+class CommandTrie {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    static final CommandTrie EMPTY = new CommandTrie();
+
+    private final Node root = new Node();
+
+    private CommandTrie() {}
+
+    /**
+     * Build a new trie from the given name to command map.
+     * @param commands the map of names (and aliases) to commands
+     * @return the new trie
+     */
+    static CommandTrie build(Map<String, Command> commands) {
+        CommandTrie trie = new CommandTrie();
+
+        for (Map.Entry<String, Command> entry : commands.entrySet()) {
+            trie.insert(entry.getKey().toLowerCase(), entry.getValue());
+        }
+
+        return trie;
+    }
+
+    private void insert(String name, Command command) {
+        Node node = root;
+
+        for (int i = 0; i < name.length(); i++) {
+            node = node.childOrCreate(name.charAt(i));
+        }
+
+        node.name = name;
+        node.command = command;
+    }
+
+    /**
+     * Find the node of the command whose name starts at {@literal offset} in {@literal content}.
+     * The name must be followed by whitespace or the end of the content to match.
+     * @param content the raw message content
+     * @param offset the index the command name starts at
+     * @return the matching node, or null if there is none
+     */
+    Node match(String content, int offset) {
+        final int length = content.length();
+        Node node = root;
+        int i = offset;
+
+        while (i < length) {
+            char c = content.charAt(i);
+            if (isWhitespace(c))
+                break;
+
+            node = node.child(Character.toLowerCase(c));
+            if (node == null)
+                return null;
+
+            i++;
+        }
+
+        return node.command == null ? null : node;
+    }
+
+    /**
+     * Whitespace as understood by the argument splitter: the same characters as {@code \s} in a regex.
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    static final class Node {
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        String name;
+        Command command;
+
+        private Node child(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            return idx < 0 ? null : children[idx];
+        }
+
+        private Node childOrCreate(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            if (idx >= 0)
+                return children[idx];
+
+            idx = -(idx + 1);
+            Node node = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+
+            System.arraycopy(keys, 0, newKeys, 0, idx);
+            System.arraycopy(children, 0, newChildren, 0, idx);
+            newKeys[idx] = c;
+            newChildren[idx] = node;
+            System.arraycopy(keys, idx, newKeys, idx + 1, keys.length - idx);
+            System.arraycopy(children, idx, newChildren, idx + 1, children.length - idx);
+
+            keys = newKeys;
+            children = newChildren;
+            return node;
+        }
+    }
+}
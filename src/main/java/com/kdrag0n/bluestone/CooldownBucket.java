@@ -0,0 +1,287 @@
+package com.kdrag0n.bluestone;
+
+import com.kdrag0n.bluestone.annotations.Cooldown;
+import com.kdrag0n.bluestone.enums.BucketType;
+import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free rate limiting for a command with a {@link Cooldown}.
+ *
+ * Each key (user, channel or guild ID) gets a token bucket stored as a single "theoretical arrival time",
+ * so a check is one lookup and one CAS. Buckets refill lazily, and expired ones are dropped by periodic sweeps.
+ * Throttled users are only told so once per wait, so spamming a command doesn't make the bot spam back.
+ * State is shared by all shards, since users and the global bucket span them.
+ */
+class CooldownBucket {
+    private static final Map<String, CooldownBucket> buckets = new ConcurrentHashMap<>();
+    private static final long EPOCH = System.nanoTime() - 1;
+    private static final long EMPTY_KEY = 0L;
+    private static final long GLOBAL_KEY = 1L;
+    private static final long FROZEN = Long.MIN_VALUE;
+    private static final int SEGMENTS = 16;
+    private static final int MIN_CAPACITY = 16;
+
+    private final BucketType scope;
+    private final long interval;
+    private final long tolerance;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    // when each throttled user's last notice runs out
+    private final ConcurrentMap<Long, Long> notices = new ConcurrentHashMap<>();
+
+    static {
+        Bot.scheduledExecutor.scheduleWithFixedDelay(CooldownBucket::sweepAll, 1, 1, TimeUnit.MINUTES);
+    }
+
+    private CooldownBucket(Cooldown cooldown) {
+        scope = cooldown.scope();
+
+        int invocations = Math.max(1, cooldown.invocations());
+        long period = (long) (cooldown.delay() * 1e9);
+        interval = period / invocations;
+        tolerance = period - interval;
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(MIN_CAPACITY);
+        }
+    }
+
+    /**
+     * Get the shared bucket for a command.
+     * @param command the name of the command
+     * @param cooldown the cooldown of the command
+     * @return the bucket
+     */
+    static CooldownBucket forCommand(String command, Cooldown cooldown) {
+        return buckets.computeIfAbsent(command, k -> new CooldownBucket(cooldown));
+    }
+
+    private static void sweepAll() {
+        long now = now();
+
+        for (CooldownBucket bucket : buckets.values()) {
+            for (Segment segment : bucket.segments) {
+                segment.rehash(segment.table, now);
+            }
+
+            bucket.notices.values().removeIf(until -> until <= now);
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() - EPOCH;
+    }
+
+    private long keyFor(MessageReceivedEvent event) {
+        switch (scope) {
+            case USER:
+                return event.getAuthor().getIdLong();
+            case CHANNEL:
+                return event.getChannel().getIdLong();
+            case GUILD:
+                return event.getGuild() == null ? event.getChannel().getIdLong() : event.getGuild().getIdLong();
+            default:
+                return GLOBAL_KEY;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Try to take a token for the invoker of a command.
+     * @param event the event that invoked the command
+     * @return 0 if the command may run, otherwise the number of nanoseconds until it may
+     */
+    long tryAcquire(MessageReceivedEvent event) {
+        return tryAcquire(keyFor(event));
+    }
+
+    /**
+     * Try to take a token for a key.
+     * @param key the user, channel or guild ID, depending on the scope
+     * @return 0 if the command may run, otherwise the number of nanoseconds until it may
+     */
+    long tryAcquire(long key) {
+        int hash = mix(key);
+        Segment segment = segments[hash & (SEGMENTS - 1)];
+
+        while (true) {
+            Table table = segment.table;
+            int slot = table.slotFor(key, hash >>> 4);
+            if (slot < 0) {
+                segment.rehash(table, now());
+                continue;
+            }
+
+            long stored = table.values.get(slot);
+            if (stored == FROZEN) {
+                // being copied to a new table, wait for it
+                Thread.yield();
+                continue;
+            }
+
+            long now = now();
+            long arrival = Math.max(stored, now);
+            if (arrival - now > tolerance)
+                return arrival - now - tolerance;
+
+            if (table.values.compareAndSet(slot, stored, arrival + interval))
+                return 0;
+        }
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire(MessageReceivedEvent)}, for a command that didn't run after all.
+     * @param event the event that invoked the command
+     */
+    void release(MessageReceivedEvent event) {
+        release(keyFor(event));
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire(long)}.
+     * @param key the user, channel or guild ID, depending on the scope
+     */
+    void release(long key) {
+        int hash = mix(key);
+        Segment segment = segments[hash & (SEGMENTS - 1)];
+
+        while (true) {
+            Table table = segment.table;
+            int slot = table.slotFor(key, hash >>> 4);
+            if (slot < 0) {
+                segment.rehash(table, now());
+                continue;
+            }
+
+            long stored = table.values.get(slot);
+            if (stored == FROZEN) {
+                Thread.yield();
+                continue;
+            }
+
+            // already refilled, or swept since
+            if (stored <= now())
+                return;
+
+            if (table.values.compareAndSet(slot, stored, stored - interval))
+                return;
+        }
+    }
+
+    /**
+     * Decide whether to tell a throttled user so, which is done once until they may use the command again.
+     * @param event the event that was throttled
+     * @param wait the number of nanoseconds until it may run, from {@link #tryAcquire(MessageReceivedEvent)}
+     * @return whether to send a notice
+     */
+    boolean shouldNotify(MessageReceivedEvent event, long wait) {
+        Long user = event.getAuthor().getIdLong();
+        long now = now();
+        long until = now + wait;
+
+        while (true) {
+            Long previous = notices.putIfAbsent(user, until);
+            if (previous == null)
+                return true;
+            if (previous > now)
+                return false;
+            if (notices.replace(user, previous, until))
+                return true;
+        }
+    }
+
+    private static final class Segment {
+        private volatile Table table;
+
+        private Segment(int capacity) {
+            table = new Table(capacity);
+        }
+
+        /**
+         * Copy live entries into a new table, sized for them. Values in the old table are frozen first,
+         * so writers that raced with the copy fail their CAS and retry on the new table.
+         */
+        private synchronized void rehash(Table old, long now) {
+            if (table != old)
+                return;
+
+            int length = old.keys.length();
+            long[] liveKeys = new long[length];
+            long[] liveValues = new long[length];
+            int live = 0;
+
+            for (int i = 0; i < length; i++) {
+                long value = old.values.getAndSet(i, FROZEN);
+                long key = old.keys.get(i);
+
+                if (key != EMPTY_KEY && value > now) {
+                    liveKeys[live] = key;
+                    liveValues[live] = value;
+                    live++;
+                }
+            }
+
+            Table fresh = new Table(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, live)) << 2));
+            for (int i = 0; i < live; i++) {
+                int slot = fresh.slotFor(liveKeys[i], mix(liveKeys[i]) >>> 4);
+                fresh.values.set(slot, liveValues[i]);
+            }
+
+            table = fresh;
+        }
+    }
+
+    private static final class Table {
+        private final AtomicLongArray keys;
+        private final AtomicLongArray values;
+        private final AtomicInteger used = new AtomicInteger();
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicLongArray(capacity);
+            mask = capacity - 1;
+        }
+
+        /**
+         * Find or claim the slot for a key, with linear probing.
+         * @return the slot, or -1 if the table is too full
+         */
+        private int slotFor(long key, int hash) {
+            int idx = hash & mask;
+
+            for (int probe = 0; probe <= mask; probe++) {
+                long existing = keys.get(idx);
+
+                if (existing == key)
+                    return idx;
+
+                if (existing == EMPTY_KEY) {
+                    if (used.get() * 2 > mask)
+                        return -1;
+
+                    if (keys.compareAndSet(idx, EMPTY_KEY, key)) {
+                        used.incrementAndGet();
+                        return idx;
+                    } else if (keys.get(idx) == key) {
+                        return idx;
+                    }
+                }
+
+                idx = (idx + 1) & mask;
+            }
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.kdrag0n.bluestone;
+
+import com.kdrag0n.bluestone.util.LatencyHistogram;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports HikariCP pool usage to {@link Metrics}: how long it takes to get a connection, how long connections are
+ * held, timeouts, and the state of the pool.
+ */
+class DatabaseMetrics implements MetricsTrackerFactory {
+    private final String prefix;
+
+    /**
+     * @param prefix the metric name prefix
+     */
+    DatabaseMetrics(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats stats) {
+        Metrics.gauge(prefix + ".connections.active", stats::getActiveConnections);
+        Metrics.gauge(prefix + ".connections.idle", stats::getIdleConnections);
+        Metrics.gauge(prefix + ".connections.total", stats::getTotalConnections);
+        Metrics.gauge(prefix + ".connections.waiting", stats::getPendingThreads);
+
+        return new Tracker(prefix);
+    }
+
+    private static final class Tracker implements IMetricsTracker {
+        private final String prefix;
+        private final LatencyHistogram acquire;
+        private final LatencyHistogram usage;
+        private final LatencyHistogram create;
+        private final LongAdder timeouts;
+
+        private Tracker(String prefix) {
+            this.prefix = prefix;
+            acquire = Metrics.timer(prefix + ".acquire");
+            usage = Metrics.timer(prefix + ".usage");
+            create = Metrics.timer(prefix + ".create");
+            timeouts = Metrics.counter(prefix + ".timeouts");
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquire.record(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+            usage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+        }
+
+        @Override
+        public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+            create.record(TimeUnit.MILLISECONDS.toNanos(connectionCreatedMillis));
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+        }
+
+        @Override
+        public void close() {
+            Metrics.removeGauge(prefix + ".connections.active");
+            Metrics.removeGauge(prefix + ".connections.idle");
+            Metrics.removeGauge(prefix + ".connections.total");
+            Metrics.removeGauge(prefix + ".connections.waiting");
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.kdrag0n.bluestone;
+
+import com.kdrag0n.bluestone.enums.EventOverflow;
+import com.kdrag0n.bluestone.util.LatencyHistogram;
+import net.dv8tion.jda.core.events.Event;
+import org.slf4j.Logger;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes JDA events to cog {@link com.kdrag0n.bluestone.annotations.EventHandler} methods.
+ * The handlers for each concrete event class are resolved once and cached, and are called through
+ * generated call sites rather than reflection.
+ */
+public class EventBus {
+    private static final ExtraEvent[] NO_HANDLERS = new ExtraEvent[0];
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, Cog.class, Event.class);
+    // shared by all shards, so each handler method has one set of stats
+    private static final ConcurrentMap<Method, HandlerStats> stats = new ConcurrentHashMap<>();
+    private final Logger logger;
+    private final EventScheduler scheduler;
+    private final List<ExtraEvent> handlers = new ArrayList<>();
+    private volatile ClassValue<ExtraEvent[]> routes = newRoutes(NO_HANDLERS);
+
+    EventBus(Logger logger, EventScheduler scheduler) {
+        this.logger = logger;
+        this.scheduler = scheduler;
+    }
+
+    private static ClassValue<ExtraEvent[]> newRoutes(ExtraEvent[] all) {
+        return new ClassValue<ExtraEvent[]>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            protected ExtraEvent[] computeValue(Class<?> type) {
+                List<ExtraEvent> matching = new ArrayList<>();
+
+                for (ExtraEvent handler : all) {
+                    if (handler.handles((Class<? extends Event>) type))
+                        matching.add(handler);
+                }
+
+                return matching.isEmpty() ? NO_HANDLERS : matching.toArray(NO_HANDLERS);
+            }
+        };
+    }
+
+    void register(Cog cog, Method method, boolean threaded, EventOverflow overflow) {
+        Invoker invoker;
+        try {
+            invoker = createInvoker(method);
+        } catch (IllegalAccessException e) {
+            logger.error("Error registering {} - handler not public", method, e);
+            return;
+        }
+
+        HandlerStats handlerStats = stats.computeIfAbsent(method, HandlerStats::new);
+
+        synchronized (handlers) {
+            handlers.add(new ExtraEvent(method, threaded, overflow, cog, invoker, handlerStats));
+            routes = newRoutes(handlers.toArray(NO_HANDLERS));
+        }
+    }
+
+    void unregister(Cog cog) {
+        synchronized (handlers) {
+            handlers.removeIf(h -> h.getParent() == cog);
+            routes = newRoutes(handlers.toArray(NO_HANDLERS));
+        }
+    }
+
+    void dispatch(Event event) {
+        for (ExtraEvent handler : routes.get(event.getClass())) {
+            if (handler.isThreaded())
+                scheduler.submit(this, handler, event);
+            else
+                invoke(handler, event);
+        }
+    }
+
+    void invoke(ExtraEvent handler, Event event) {
+        HandlerStats handlerStats = handler.getStats();
+        long start = System.nanoTime();
+
+        try {
+            handler.invoke(event);
+        } catch (Throwable e) {
+            handlerStats.errors.increment();
+            logger.error("{} error handling {}", handler.getMethod().getDeclaringClass().getName(),
+                    event.getClass().getSimpleName(), e);
+        } finally {
+            handlerStats.latency.recordSince(start);
+        }
+    }
+
+    private static Invoker createInvoker(Method method) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle = lookup.unreflect(method);
+
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(Invoker.class),
+                    INVOKER_TYPE, handle, handle.type().changeReturnType(void.class));
+
+            return (Invoker) site.getTarget().invoke();
+        } catch (Throwable e) {
+            // classes from other loaders can't be linked into a lambda; a plain handle is still fast
+            MethodHandle generic = handle.asType(INVOKER_TYPE);
+            return (cog, event) -> {
+                generic.invokeExact(cog, event);
+            };
+        }
+    }
+
+    /**
+     * @return the stats of every handler method that has been registered
+     */
+    public static Collection<HandlerStats> getStats() {
+        return Collections.unmodifiableCollection(stats.values());
+    }
+
+    @FunctionalInterface
+    interface Invoker {
+        void invoke(Cog cog, Event event) throws Throwable;
+    }
+
+    public static class HandlerStats {
+        public final String name;
+        public final LatencyHistogram latency;
+        private final LongAdder errors;
+        final LongAdder drops;
+        final LongAdder coalesced = new LongAdder();
+
+        private HandlerStats(Method method) {
+            name = method.getDeclaringClass().getSimpleName() + '.' + method.getName();
+
+            String metric = "bot.events.handlers." + Metrics.segment(name);
+            latency = Metrics.timer(metric + ".latency");
+            errors = Metrics.counter(metric + ".errors");
+            drops = Metrics.counter(metric + ".drops");
+        }
+
+        public long getInvocations() {
+            return latency.getCount();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return the number of events dropped because the guild's queue was full
+         */
+        public long getDrops() {
+            return drops.sum();
+        }
+
+        /**
+         * @return the number of events merged into one already queued for the same message or member
+         */
+        public long getCoalesced() {
+            return coalesced.sum();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.kdrag0n.bluestone;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kdrag0n.bluestone.util.LatencyHistogram;
+import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.events.channel.text.GenericTextChannelEvent;
+import net.dv8tion.jda.core.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.core.events.guild.member.GenericGuildMemberEvent;
+import net.dv8tion.jda.core.events.message.GenericMessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs threaded cog event handlers, fairly across guilds.
+ *
+ * Each guild gets its own bounded queue, and workers take turns between guilds with pending events,
+ * starting one event per turn. A guild flooding events only fills its own queue, and what happens then
+ * is up to the handler's {@link com.kdrag0n.bluestone.enums.EventOverflow} policy.
+ *
+ * A few events of the same guild can run at once, so one slow handler doesn't hold up the rest of the guild.
+ * Events not tied to a guild share one lane, which can use every worker.
+ * Events of a guild start in the order they arrived. Events about the same message or member run one at a time,
+ * in that order, even across handlers, and so do a handler's events that aren't about either.
+ */
+public class EventScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(EventScheduler.class);
+    private static final long NO_SUBJECT = -1L;
+    private static final long BLOCK_TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+    // how far into a lane's queue to look for an event that can run next to the running ones
+    private static final int SCAN_LIMIT = 64;
+
+    private final int workers;
+    private final int laneCapacity;
+    private final int laneParallelism;
+    private final Map<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final BlockingQueue<Lane> ready = new LinkedBlockingQueue<>();
+    // since the last report, so it only holds guilds that dropped something lately
+    private volatile Map<Long, LongAdder> dropsByGuild = new ConcurrentHashMap<>();
+    private final LongAdder drops = new LongAdder();
+    private final AtomicInteger queued = new AtomicInteger();
+    public final LatencyHistogram waitTime = Metrics.timer("bot.events.wait");
+
+    /**
+     * @param workers the number of worker threads
+     * @param laneCapacity the number of events a guild can have queued before its handlers' overflow policies apply
+     * @param laneParallelism the number of events of a guild that can run at once
+     */
+    EventScheduler(int workers, int laneCapacity, int laneParallelism) {
+        this.workers = workers;
+        this.laneCapacity = laneCapacity;
+        this.laneParallelism = laneParallelism;
+
+        ThreadFactory factory = new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("Bot Cog-Event Pool Thread %d").build();
+        for (int i = 0; i < workers; i++) {
+            factory.newThread(this::work).start();
+        }
+    }
+
+    private static long laneOf(Event event) {
+        if (event instanceof GenericGuildEvent)
+            return ((GenericGuildEvent) event).getGuild().getIdLong();
+        if (event instanceof GenericTextChannelEvent)
+            return ((GenericTextChannelEvent) event).getGuild().getIdLong();
+
+        if (event instanceof GenericMessageEvent) {
+            GenericMessageEvent messageEvent = (GenericMessageEvent) event;
+            return messageEvent.getGuild() == null ? messageEvent.getChannel().getIdLong()
+                    : messageEvent.getGuild().getIdLong();
+        }
+
+        // everything else shares one lane
+        return 0L;
+    }
+
+    private static long subjectOf(Event event) {
+        if (event instanceof GenericMessageEvent)
+            return ((GenericMessageEvent) event).getMessageIdLong();
+        if (event instanceof GenericGuildMemberEvent)
+            return ((GenericGuildMemberEvent) event).getMember().getUser().getIdLong();
+
+        return NO_SUBJECT;
+    }
+
+    /**
+     * Queue an event for a handler.
+     * @param bus the event bus of the shard the event came from
+     * @param handler the handler to run
+     * @param event the event
+     */
+    void submit(EventBus bus, ExtraEvent handler, Event event) {
+        long laneId = laneOf(event);
+        Entry entry = new Entry(bus, handler, event);
+        long deadline = 0L;
+
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(laneId, this::newLane);
+
+            synchronized (lane) {
+                // emptied and removed by a worker since we looked it up
+                if (lane.dead)
+                    continue;
+
+                if (lane.pending.size() >= laneCapacity) {
+                    switch (handler.getOverflow()) {
+                        case KEEP:
+                            break;
+                        case COALESCE:
+                            if (coalesce(lane, entry))
+                                return;
+                            // fall through
+                        case DROP_OLDEST:
+                            Entry oldest = removeOldest(lane, handler);
+                            if (oldest == null) {
+                                // only other handlers' events are queued, and those aren't ours to drop
+                                drop(entry, laneId);
+                                return;
+                            }
+
+                            drop(oldest, laneId);
+                            break;
+                        case DROP_NEWEST:
+                            drop(entry, laneId);
+                            return;
+                        case BLOCK:
+                            long now = System.nanoTime();
+                            if (deadline == 0L)
+                                deadline = now + BLOCK_TIMEOUT;
+
+                            if (now - deadline >= 0) {
+                                drop(entry, laneId);
+                                return;
+                            }
+
+                            try {
+                                TimeUnit.NANOSECONDS.timedWait(lane, deadline - now);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                drop(entry, laneId);
+                                return;
+                            }
+                            continue;
+                    }
+                }
+
+                lane.pending.add(entry);
+                entry.queued = true;
+                queued.incrementAndGet();
+                schedule(lane);
+                return;
+            }
+        }
+    }
+
+    private Lane newLane(long id) {
+        // not tied to a guild, so there's no guild to be fair to
+        return new Lane(id, id == 0L ? workers : laneParallelism);
+    }
+
+    /**
+     * Give a lane a turn, unless it already has one coming or is running as much as it may.
+     * Must hold the lane's lock.
+     */
+    private void schedule(Lane lane) {
+        if (!lane.scheduled && lane.running.size() < lane.parallelism) {
+            lane.scheduled = true;
+            ready.add(lane);
+        }
+    }
+
+    private static Entry removeOldest(Lane lane, ExtraEvent handler) {
+        Iterator<Entry> iter = lane.pending.iterator();
+        while (iter.hasNext()) {
+            Entry pending = iter.next();
+
+            if (pending.handler == handler) {
+                iter.remove();
+                return pending;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean coalesce(Lane lane, Entry entry) {
+        if (entry.subject == NO_SUBJECT)
+            return false;
+
+        Iterator<Entry> iter = lane.pending.descendingIterator();
+        while (iter.hasNext()) {
+            Entry pending = iter.next();
+
+            if (pending.handler == entry.handler && pending.event.getClass() == entry.event.getClass()
+                    && pending.subject == entry.subject) {
+                pending.event = entry.event;
+                entry.handler.getStats().coalesced.increment();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void drop(Entry entry, long laneId) {
+        if (entry == null)
+            return;
+
+        if (entry.queued)
+            queued.decrementAndGet();
+
+        entry.handler.getStats().drops.increment();
+        drops.increment();
+        dropsByGuild.computeIfAbsent(laneId, k -> new LongAdder()).increment();
+
+        if (logger.isDebugEnabled())
+            logger.debug("Dropped {} for {} in {}", entry.event.getClass().getSimpleName(),
+                    entry.handler.getStats().name, laneId);
+    }
+
+    private void work() {
+        while (true) {
+            Lane lane;
+            try {
+                lane = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Entry entry;
+            synchronized (lane) {
+                lane.scheduled = false;
+                entry = lane.next();
+
+                if (entry == null) {
+                    // everything queued waits for a running event, whose worker schedules the lane again
+                    retireIfIdle(lane);
+                    continue;
+                }
+
+                lane.running.add(entry);
+                lane.notifyAll();
+                // another worker can start the lane's next event in the meantime
+                if (!lane.pending.isEmpty())
+                    schedule(lane);
+            }
+
+            queued.decrementAndGet();
+            waitTime.recordSince(entry.queuedAt);
+            entry.bus.invoke(entry.handler, entry.event);
+
+            synchronized (lane) {
+                lane.running.remove(entry);
+
+                if (lane.pending.isEmpty()) {
+                    retireIfIdle(lane);
+                } else {
+                    // back of the line, so other guilds get a turn
+                    schedule(lane);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a lane that has nothing queued or running. Must hold the lane's lock.
+     */
+    private void retireIfIdle(Lane lane) {
+        if (lane.pending.isEmpty() && lane.running.isEmpty() && !lane.scheduled) {
+            lane.dead = true;
+            lanes.remove(lane.id, lane);
+        }
+    }
+
+    /**
+     * @return the number of events waiting to be handled
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of events dropped because their guild's queue was full
+     */
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    /**
+     * Get the number of dropped events by guild (or channel, outside of guilds) since the last call, and start
+     * counting again.
+     * @return the number of dropped events, by guild
+     */
+    public Map<Long, LongAdder> drainDropsByGuild() {
+        Map<Long, LongAdder> drained = dropsByGuild;
+        dropsByGuild = new ConcurrentHashMap<>();
+        return Collections.unmodifiableMap(drained);
+    }
+
+    private static final class Lane {
+        private final long id;
+        private final int parallelism;
+        private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+        private final List<Entry> running = new ArrayList<>();
+        private boolean scheduled = false;
+        private boolean dead = false;
+
+        private Lane(long id, int parallelism) {
+            this.id = id;
+            this.parallelism = parallelism;
+        }
+
+        /**
+         * Take the first queued event that can run now, meaning it doesn't have to wait for a running event or
+         * an earlier queued one.
+         * @return the event, or null if every event looked at has to wait
+         */
+        private Entry next() {
+            List<Entry> skipped = null;
+            Iterator<Entry> iter = pending.iterator();
+
+            for (int i = 0; i < SCAN_LIMIT && iter.hasNext(); i++) {
+                Entry candidate = iter.next();
+
+                if (!candidate.conflictsWithAny(running)
+                        && (skipped == null || !candidate.conflictsWithAny(skipped))) {
+                    iter.remove();
+                    return candidate;
+                }
+
+                if (skipped == null)
+                    skipped = new ArrayList<>();
+                skipped.add(candidate);
+            }
+
+            return null;
+        }
+    }
+
+    private static final class Entry {
+        private final EventBus bus;
+        private final ExtraEvent handler;
+        private Event event;
+        private final long subject;
+        private boolean queued = false;
+        private final long queuedAt = System.nanoTime();
+
+        private Entry(EventBus bus, ExtraEvent handler, Event event) {
+            this.bus = bus;
+            this.handler = handler;
+            this.event = event;
+            subject = subjectOf(event);
+        }
+
+        /**
+         * @return whether this event has to wait for the other one to run
+         */
+        private boolean conflictsWith(Entry other) {
+            if (subject != NO_SUBJECT && subject == other.subject)
+                return true;
+
+            return handler == other.handler && (subject == NO_SUBJECT || other.subject == NO_SUBJECT);
+        }
+
+        private boolean conflictsWithAny(List<Entry> others) {
+            for (Entry other : others) {
+                if (conflictsWith(other))
+                    return true;
+            }
+
+            return false;
+        }
+    }
+}
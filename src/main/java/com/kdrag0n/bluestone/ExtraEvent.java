@@ -1,16 +1,27 @@
 package com.kdrag0n.bluestone;
 
+import com.kdrag0n.bluestone.enums.EventOverflow;
+import net.dv8tion.jda.core.events.Event;
+
 import java.lang.reflect.Method;
 
 class ExtraEvent {
     private Method method;
     private boolean threaded;
+    private final EventOverflow overflow;
     private Cog parent;
+    private final Class<?> eventClass;
+    private final EventBus.Invoker invoker;
+    private final EventBus.HandlerStats stats;
 
-    ExtraEvent(Method method, boolean needsThread, Cog parent) {
+    ExtraEvent(Method method, boolean needsThread, EventOverflow overflow, Cog parent, EventBus.Invoker invoker, EventBus.HandlerStats stats) {
         this.method = method;
         this.threaded = needsThread;
+        this.overflow = overflow;
         this.parent = parent;
+        this.eventClass = method.getParameterTypes()[0];
+        this.invoker = invoker;
+        this.stats = stats;
     }
 
     public Method getMethod() {
@@ -21,7 +32,23 @@ class ExtraEvent {
         return threaded;
     }
 
+    EventOverflow getOverflow() {
+        return overflow;
+    }
+
     public Cog getParent() {
         return parent;
     }
+
+    boolean handles(Class<? extends Event> type) {
+        return eventClass.isAssignableFrom(type);
+    }
+
+    void invoke(Event event) throws Throwable {
+        invoker.invoke(parent, event);
+    }
+
+    EventBus.HandlerStats getStats() {
+        return stats;
+    }
 }
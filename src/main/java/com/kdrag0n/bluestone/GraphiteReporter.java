@@ -0,0 +1,347 @@
+package com.kdrag0n.bluestone;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ships datapoints to Graphite over one persistent connection.
+ *
+ * Recording a datapoint only copies it into a ring buffer, so it never blocks on the network. The buffer is sent in
+ * batches, using either the plaintext or the pickle protocol, when enough datapoints have piled up or the flush
+ * interval passes. If the connection fails, datapoints stay buffered and reconnects back off exponentially. When the
+ * buffer fills up, the oldest datapoints are dropped.
+ */
+public class GraphiteReporter {
+    private static final Logger logger = LoggerFactory.getLogger(GraphiteReporter.class);
+    private static final long CONNECT_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+    private static final long WRITE_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+    private static final long MIN_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_BACKOFF = TimeUnit.MINUTES.toNanos(2);
+
+    public enum Protocol {
+        /** {@code name value timestamp} lines, usually on port 2003 */
+        PLAINTEXT,
+        /** length-prefixed pickled lists of datapoints, usually on port 2004 */
+        PICKLE
+    }
+
+    private final String host;
+    private final int port;
+    private final Protocol protocol;
+    private final int batchSize;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+    // ring buffer, guarded by this. head and tail are sequence numbers that only grow, so the slot of a datapoint
+    // is its sequence modulo the capacity, and a flush can tell which of the datapoints it sent were overwritten
+    private final String[] names;
+    private final double[] values;
+    private final long[] timestamps;
+    private long head = 0L; // sequence of the next datapoint
+    private long tail = 0L; // sequence of the oldest unsent datapoint
+    private long writing = 0L; // sequence after the batch being written, which was copied out already
+    private long dropped = 0L;
+
+    // only touched by the executor thread
+    private SocketChannel channel;
+    private Selector selector;
+    private long backoff = MIN_BACKOFF;
+    private long nextConnect = 0L;
+    private volatile long sent = 0L;
+
+    /**
+     * @param host the Graphite host
+     * @param port the Graphite port for the protocol
+     * @param protocol the protocol to send datapoints with
+     * @param capacity how many datapoints to buffer at most
+     * @param batchSize how many datapoints to send at once, and to trigger a flush early
+     * @param flushInterval how often to flush, in milliseconds
+     */
+    public GraphiteReporter(String host, int port, Protocol protocol, int capacity, int batchSize,
+                            long flushInterval) {
+        this.host = host;
+        this.port = port;
+        this.protocol = protocol;
+        this.batchSize = Math.min(batchSize, capacity);
+
+        names = new String[capacity];
+        values = new double[capacity];
+        timestamps = new long[capacity];
+
+        executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Graphite Reporter Thread %d").build());
+        executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record a datapoint with the current time.
+     * @param name the metric name
+     * @param value the value
+     */
+    public void record(String name, double value) {
+        record(name, value, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Record a datapoint.
+     * @param name the metric name
+     * @param value the value
+     * @param timestamp the time of the datapoint, in seconds since the epoch
+     */
+    public void record(String name, double value, long timestamp) {
+        boolean full;
+
+        synchronized (this) {
+            if (head - tail == names.length) {
+                // the oldest datapoint is only lost if it isn't part of the batch being written
+                if (tail >= writing)
+                    dropped++;
+                tail++;
+            }
+
+            int slot = slot(head++);
+            names[slot] = name;
+            values[slot] = value;
+            timestamps[slot] = timestamp;
+
+            full = head - tail >= batchSize;
+        }
+
+        if (full && flushQueued.compareAndSet(false, true))
+            executor.execute(this::flush);
+    }
+
+    private void flush() {
+        flushQueued.set(false);
+
+        try {
+            while (true) {
+                ByteBuffer batch;
+                long start;
+                long end;
+
+                synchronized (this) {
+                    if (head == tail)
+                        return;
+
+                    start = tail;
+                    end = start + Math.min(head - tail, batchSize);
+                    batch = encode(start, (int) (end - start));
+                    writing = end;
+                }
+
+                boolean written = false;
+                try {
+                    if (!ensureConnected())
+                        return;
+
+                    write(batch);
+                    written = true;
+                } catch (IOException e) {
+                    logger.warn("Error sending datapoints to Graphite at {}:{}: {}", host, port, e.toString());
+                    disconnect();
+                    return;
+                } finally {
+                    synchronized (this) {
+                        // the buffer may have wrapped around while we were writing. The overwritten part of the
+                        // batch was sent anyway, unless the write failed, and newer datapoints are still unsent
+                        if (written)
+                            tail = Math.max(tail, end);
+                        else
+                            dropped += Math.max(0L, Math.min(tail, end) - start);
+
+                        writing = 0L;
+                    }
+                }
+
+                sent += end - start;
+            }
+        } catch (Exception e) {
+            logger.error("Error flushing datapoints to Graphite", e);
+        }
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % names.length);
+    }
+
+    private ByteBuffer encode(long start, int count) {
+        StringBuilder text = new StringBuilder(count * 64);
+
+        if (protocol == Protocol.PICKLE) {
+            // protocol 0 opcodes, as Graphite's own clients send: MARK LIST, then APPEND one tuple per datapoint
+            text.append("(l");
+            for (int i = 0; i < count; i++) {
+                int slot = slot(start + i);
+                text.append("(S'").append(sanitize(names[slot])).append("'\n(L").append(timestamps[slot])
+                        .append("L\nS'").append(values[slot]).append("'\ntta");
+            }
+            text.append('.');
+
+            byte[] payload = text.toString().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(4 + payload.length);
+            buffer.putInt(payload.length).put(payload);
+            buffer.flip();
+            return buffer;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int slot = slot(start + i);
+            text.append(sanitize(names[slot])).append(' ').append(values[slot]).append(' ')
+                    .append(timestamps[slot]).append('\n');
+        }
+
+        return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder result = null;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c == '\'' || c == '\\') {
+                if (result == null)
+                    result = new StringBuilder(name);
+                result.setCharAt(i, '_');
+            }
+        }
+
+        return result == null ? name : result.toString();
+    }
+
+    private boolean ensureConnected() {
+        if (channel != null) {
+            // Graphite never talks back, so anything readable means the connection was closed
+            try {
+                if (channel.read(ByteBuffer.allocate(64)) < 0) {
+                    disconnect();
+                } else {
+                    return true;
+                }
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+
+        long now = System.nanoTime();
+        if (now - nextConnect < 0)
+            return false;
+
+        try {
+            selector = Selector.open();
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setKeepAlive(true);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_CONNECT);
+
+            if (!channel.connect(new InetSocketAddress(host, port))) {
+                long deadline = now + CONNECT_TIMEOUT;
+                while (!channel.finishConnect()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        throw new IOException("Connect timed out");
+
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                }
+            }
+
+            channel.keyFor(selector).interestOps(0);
+            backoff = MIN_BACKOFF;
+            logger.info("Connected to Graphite at {}:{}", host, port);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to connect to Graphite at {}:{}, retrying in {} s: {}", host, port,
+                    TimeUnit.NANOSECONDS.toSeconds(backoff), e.toString());
+            disconnect();
+
+            nextConnect = now + backoff;
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            return false;
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        long deadline = System.nanoTime() + WRITE_TIMEOUT;
+        SelectionKey key = channel.keyFor(selector);
+
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) > 0)
+                continue;
+
+            // socket buffer is full, wait for Graphite to catch up
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                throw new IOException("Write timed out");
+
+            key.interestOps(SelectionKey.OP_WRITE);
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            selector.selectedKeys().clear();
+            key.interestOps(0);
+        }
+    }
+
+    private void disconnect() {
+        try {
+            if (channel != null)
+                channel.close();
+            if (selector != null)
+                selector.close();
+        } catch (IOException ignored) {
+        }
+
+        channel = null;
+        selector = null;
+    }
+
+    /**
+     * Send everything still buffered and close the connection.
+     */
+    public void close() {
+        executor.execute(() -> {
+            flush();
+            disconnect();
+        });
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(WRITE_TIMEOUT, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of datapoints waiting to be sent
+     */
+    public synchronized int getBuffered() {
+        return (int) (head - tail);
+    }
+
+    /**
+     * @return the number of datapoints dropped because the buffer was full
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of datapoints sent
+     */
+    public long getSent() {
+        return sent;
+    }
+}
@@ -0,0 +1,300 @@
+package com.kdrag0n.bluestone;
+
+import net.dv8tion.jda.core.OnlineStatus;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.impl.GuildImpl;
+import net.dv8tion.jda.core.entities.impl.JDAImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Computes distribution statistics over every guild of every shard.
+ *
+ * All metrics are gathered in a single pass, split across the common fork-join pool by shard and then by ranges
+ * of guilds, and stored in primitive arrays. A guild that can't be read, even on a second try, is left out rather
+ * than counted as all zeros. The result is a {@link Snapshot} that's reused for a short time, and callers asking
+ * while one is being computed share it.
+ */
+public class GuildStats {
+    private static final Logger logger = LoggerFactory.getLogger(GuildStats.class);
+    private static final int SPLIT_THRESHOLD = 256;
+    private static final Guild[] NO_GUILDS = new Guild[0];
+
+    public enum Metric {
+        MEMBERS, ONLINE_MEMBERS, TEXT_CHANNELS, VOICE_CHANNELS, CATEGORIES, ROLES, EMOTES
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+    // indices in the counts gathered by GuildRange
+    private static final int ONLY_BOT = 0;
+    private static final int BIG = 1;
+    private static final int PARTNERED = 2;
+
+    private final ShardUtil shardUtil;
+    private final long ttl;
+    private Snapshot snapshot; // guarded by this
+    private CompletableFuture<Snapshot> pending; // guarded by this
+
+    /**
+     * @param shardUtil the shards to gather statistics from
+     * @param ttl how long to reuse a snapshot for, in milliseconds
+     */
+    GuildStats(ShardUtil shardUtil, long ttl) {
+        this.shardUtil = shardUtil;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Get a recent snapshot, computing a new one in the background if the last one is too old.
+     * @return the snapshot
+     */
+    public synchronized CompletableFuture<Snapshot> get() {
+        if (snapshot != null && System.nanoTime() - snapshot.takenAt < ttl)
+            return CompletableFuture.completedFuture(snapshot);
+        if (pending != null)
+            return pending;
+
+        CompletableFuture<Snapshot> future = CompletableFuture.supplyAsync(this::compute, ForkJoinPool.commonPool());
+        pending = future;
+        future.whenComplete((result, e) -> {
+            synchronized (this) {
+                if (result != null)
+                    snapshot = result;
+                pending = null;
+            }
+        });
+
+        return future;
+    }
+
+    private Snapshot compute() {
+        long start = System.nanoTime();
+
+        // copy out each shard's guilds first, so the ranges below have a fixed size
+        List<Guild[]> shards = new ArrayList<>();
+        int total = 0;
+        for (Bot shard : shardUtil.getShards()) {
+            Guild[] guilds = ((JDAImpl) shard.jda).getGuildMap().values(NO_GUILDS);
+            shards.add(guilds);
+            total += guilds.length;
+        }
+
+        int[][] values = new int[METRICS.length][total];
+        boolean[] read = new boolean[total];
+        AtomicIntegerArray counts = new AtomicIntegerArray(3);
+        List<RecursiveAction> tasks = new ArrayList<>(shards.size());
+
+        int offset = 0;
+        for (Guild[] guilds : shards) {
+            tasks.add(new GuildRange(guilds, 0, guilds.length, offset, values, read, counts));
+            offset += guilds.length;
+        }
+        RecursiveAction.invokeAll(tasks);
+
+        int valid = compact(values, read);
+        if (valid < total)
+            logger.debug("Left {} unreadable guilds out of stats", total - valid);
+
+        Snapshot result = new Snapshot(valid, values, counts.get(ONLY_BOT), counts.get(BIG),
+                counts.get(PARTNERED));
+        logger.debug("Computed stats for {} guilds in {} ms", total,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Move the slots of guilds that were read to the front, and cut off the rest.
+     * @return the number of guilds that were read
+     */
+    private static int compact(int[][] values, boolean[] read) {
+        int valid = 0;
+        for (int i = 0; i < read.length; i++) {
+            if (!read[i])
+                continue;
+
+            for (int[] metric : values) {
+                metric[valid] = metric[i];
+            }
+            valid++;
+        }
+
+        if (valid < read.length) {
+            for (int m = 0; m < values.length; m++) {
+                values[m] = Arrays.copyOf(values[m], valid);
+            }
+        }
+
+        return valid;
+    }
+
+    private static final class GuildRange extends RecursiveAction {
+        private final Guild[] guilds;
+        private final int from;
+        private final int to;
+        private final int offset;
+        private final int[][] values;
+        private final boolean[] read;
+        private final AtomicIntegerArray counts;
+
+        private GuildRange(Guild[] guilds, int from, int to, int offset, int[][] values, boolean[] read,
+                           AtomicIntegerArray counts) {
+            this.guilds = guilds;
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+            this.values = values;
+            this.read = read;
+            this.counts = counts;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new GuildRange(guilds, from, mid, offset, values, read, counts),
+                        new GuildRange(guilds, mid, to, offset, values, read, counts));
+                return;
+            }
+
+            int onlyBot = 0;
+            int big = 0;
+            int partnered = 0;
+
+            for (int i = from; i < to; i++) {
+                GuildImpl guild = (GuildImpl) guilds[i];
+                int slot = offset + i;
+
+                // the gateway may change the guild while we're reading it, which usually works the second time
+                for (int attempt = 0; attempt < 2 && !read[slot]; attempt++) {
+                    try {
+                        int online = 0;
+                        int bots = 0;
+                        // one walk over the members for everything that needs them
+                        for (Member member : guild.getMembersMap().valueCollection()) {
+                            if (member.getOnlineStatus() == OnlineStatus.ONLINE)
+                                online++;
+                            if (member.getUser().isBot())
+                                bots++;
+                        }
+
+                        int members = guild.getMembersMap().size();
+                        values[Metric.MEMBERS.ordinal()][slot] = members;
+                        values[Metric.ONLINE_MEMBERS.ordinal()][slot] = online;
+                        values[Metric.TEXT_CHANNELS.ordinal()][slot] = guild.getTextChannelsMap().size();
+                        values[Metric.VOICE_CHANNELS.ordinal()][slot] = guild.getVoiceChannelsMap().size();
+                        values[Metric.CATEGORIES.ordinal()][slot] = guild.getCategoriesMap().size();
+                        values[Metric.ROLES.ordinal()][slot] = guild.getRolesMap().size();
+                        values[Metric.EMOTES.ordinal()][slot] = guild.getEmoteMap().size();
+                        boolean vip = guild.getSplashUrl() != null || guild.getRegion().isVip();
+
+                        read[slot] = true;
+                        if (bots < 2)
+                            onlyBot++;
+                        if (members >= 250)
+                            big++;
+                        if (vip)
+                            partnered++;
+                    } catch (RuntimeException e) {
+                        logger.debug("Error reading stats of guild {}", guild.getIdLong(), e);
+                    }
+                }
+            }
+
+            counts.addAndGet(ONLY_BOT, onlyBot);
+            counts.addAndGet(BIG, big);
+            counts.addAndGet(PARTNERED, partnered);
+        }
+    }
+
+    public static final class Snapshot {
+        private final long takenAt = System.nanoTime();
+        private final int guildCount;
+        private final int[][] values;
+        private final int onlyBot;
+        private final int big;
+        private final int partnered;
+
+        private Snapshot(int guildCount, int[][] values, int onlyBot, int big, int partnered) {
+            this.guildCount = guildCount;
+            this.values = values;
+            this.onlyBot = onlyBot;
+            this.big = big;
+            this.partnered = partnered;
+        }
+
+        /**
+         * @return the number of guilds the statistics cover
+         */
+        public int getGuildCount() {
+            return guildCount;
+        }
+
+        /**
+         * @param metric the metric
+         * @return the value of the metric for every guild, which must not be modified
+         */
+        public int[] getValues(Metric metric) {
+            return values[metric.ordinal()];
+        }
+
+        public int getMin(Metric metric) {
+            int min = Integer.MAX_VALUE;
+            for (int value : getValues(metric)) {
+                if (value < min)
+                    min = value;
+            }
+
+            return guildCount == 0 ? 0 : min;
+        }
+
+        public int getMax(Metric metric) {
+            int max = 0;
+            for (int value : getValues(metric)) {
+                if (value > max)
+                    max = value;
+            }
+
+            return max;
+        }
+
+        public double getAverage(Metric metric) {
+            long sum = 0L;
+            for (int value : getValues(metric)) {
+                sum += value;
+            }
+
+            return guildCount == 0 ? 0.0 : (double) sum / guildCount;
+        }
+
+        /**
+         * @return the number of guilds where we're the only bot
+         */
+        public int getOnlyBot() {
+            return onlyBot;
+        }
+
+        /**
+         * @return the number of guilds with at least 250 members
+         */
+        public int getBig() {
+            return big;
+        }
+
+        /**
+         * @return the number of partnered guilds
+         */
+        public int getPartnered() {
+            return partnered;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.kdrag0n.bluestone;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * Times OkHttp calls per host and counts the ones that fail, in {@link Metrics}. Calls are timed until the response
+ * headers arrive, so reading the body isn't included.
+ */
+class HttpMetrics implements Interceptor {
+    private final String prefix;
+
+    /**
+     * @param prefix the metric name prefix
+     */
+    HttpMetrics(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Nonnull
+    @Override
+    public Response intercept(@Nonnull Chain chain) throws IOException {
+        String metric = prefix + '.' + Metrics.segment(chain.request().url().host());
+        long start = System.nanoTime();
+
+        try {
+            Response response = chain.proceed(chain.request());
+            if (!response.isSuccessful())
+                Metrics.counter(metric + ".errors").increment();
+
+            return response;
+        } catch (IOException | RuntimeException e) {
+            Metrics.counter(metric + ".errors").increment();
+            throw e;
+        } finally {
+            Metrics.timer(metric + ".latency").recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.kdrag0n.bluestone;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.kdrag0n.bluestone.util.LongLruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Caches rendered images, like profile cards and QR codes, by a hash of everything that went into them.
+ *
+ * A small LRU cache on the heap sits in front of a directory of files that survives restarts. Since keys change
+ * whenever the inputs do, entries never need to be invalidated: stale ones just stop being used and are trimmed
+ * from the disk, least recently used first, once it's over its size limit.
+ */
+public class ImageCache {
+    private static final Logger logger = LoggerFactory.getLogger(ImageCache.class);
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    // bump when the way images are stored changes, so files written by older versions are never read back
+    private static final int FORMAT_VERSION = 1;
+    // temp files younger than this may still be being written
+    private static final long TEMP_FILE_GRACE = TimeUnit.MINUTES.toMillis(10);
+
+    private final Path dir;
+    private final long maxDiskBytes;
+    private final LongLruCache<Entry> heap;
+    private final Map<HashCode, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicBoolean trimScheduled = new AtomicBoolean();
+    private final LongAdder heapHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param dir the directory to store images in
+     * @param heapEntries how many images to keep on the heap
+     * @param maxDiskBytes how much disk space to use, in bytes
+     */
+    public ImageCache(File dir, int heapEntries, long maxDiskBytes) {
+        this.dir = dir.toPath();
+        this.maxDiskBytes = maxDiskBytes;
+        heap = new LongLruCache<>(heapEntries, 4);
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            logger.error("Failed to create image cache directory {}", dir);
+
+        trimScheduled.set(true);
+        Bot.scheduledExecutor.execute(this::trim);
+    }
+
+    /**
+     * Hash the inputs of an image into a key.
+     * @param kind the kind of image, so different kinds with the same inputs don't collide
+     * @param version the version of the code creating this kind of image, to be bumped whenever its output changes
+     * @param inputs everything the image depends on, compared by {@link String#valueOf(Object)}
+     * @return the key
+     */
+    public static HashCode key(String kind, int version, Object... inputs) {
+        Hasher hasher = HASH.newHasher();
+        hasher.putInt(FORMAT_VERSION).putString(kind, StandardCharsets.UTF_8).putInt(version);
+
+        for (Object input : inputs) {
+            String value = String.valueOf(input);
+            // length prefix so ("ab", "c") and ("a", "bc") differ
+            hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+        }
+
+        return hasher.hash();
+    }
+
+    /**
+     * Get an image, creating it if it isn't cached. Concurrent requests for the same image share one load.
+     * @param key the key of the image
+     * @param loader creates the image
+     * @return the image
+     * @throws Exception if the loader fails
+     */
+    public byte[] get(HashCode key, Callable<byte[]> loader) throws Exception {
+        byte[] data = getCached(key);
+        if (data != null)
+            return data;
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        try {
+            // may have finished loading between our lookup and claiming the load
+            data = getCached(key);
+            if (data == null) {
+                misses.increment();
+                data = loader.call();
+                heap.put(key.asLong(), new Entry(key, data));
+            }
+
+            future.complete(data);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+
+        write(key, data);
+        return data;
+    }
+
+    private byte[] getCached(HashCode key) {
+        Entry entry = heap.get(key.asLong());
+        if (entry != null && entry.key.equals(key)) {
+            heapHits.increment();
+            return entry.data;
+        }
+
+        Path file = fileFor(key);
+        try {
+            byte[] data = Files.readAllBytes(file);
+            // for LRU trimming
+            file.toFile().setLastModified(System.currentTimeMillis());
+
+            diskHits.increment();
+            heap.put(key.asLong(), new Entry(key, data));
+            return data;
+        } catch (NoSuchFileException ignored) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Error reading cached image {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Drop an image from the cache.
+     * @param key the key of the image
+     */
+    public void remove(HashCode key) {
+        heap.remove(key.asLong());
+
+        Path file = fileFor(key);
+        try {
+            long size = Files.size(file);
+            if (Files.deleteIfExists(file))
+                diskBytes.addAndGet(-size);
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            logger.warn("Error deleting cached image {}", file, e);
+        }
+    }
+
+    private Path fileFor(HashCode key) {
+        String name = key.toString();
+        return dir.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private void write(HashCode key, byte[] data) {
+        Path file = fileFor(key);
+        if (Files.exists(file))
+            return;
+
+        try {
+            Files.createDirectories(file.getParent());
+
+            // write fully before moving into place, so readers never see a partial file
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(temp, data);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Error writing cached image {}", file, e);
+            return;
+        }
+
+        if (diskBytes.addAndGet(data.length) > maxDiskBytes && trimScheduled.compareAndSet(false, true))
+            Bot.scheduledExecutor.schedule(this::trim, 1, TimeUnit.MINUTES);
+    }
+
+    private void trim() {
+        try {
+            List<File> files = new ArrayList<>();
+            long total = 0L;
+            long tempCutoff = System.currentTimeMillis() - TEMP_FILE_GRACE;
+
+            try (Stream<Path> paths = Files.walk(dir)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    File file = path.toFile();
+                    if (!file.isFile())
+                        continue;
+
+                    if (file.getName().endsWith(".tmp")) {
+                        // left over from an interrupted write, unless it's recent enough to still be in progress
+                        if (file.lastModified() < tempCutoff)
+                            file.delete();
+                        continue;
+                    }
+
+                    files.add(file);
+                    total += file.length();
+                }
+            }
+
+            if (total > maxDiskBytes) {
+                files.sort(Comparator.comparingLong(File::lastModified));
+                long target = maxDiskBytes * 3 / 4;
+
+                for (File file : files) {
+                    if (total <= target)
+                        break;
+
+                    long size = file.length();
+                    if (file.delete())
+                        total -= size;
+                }
+            }
+
+            diskBytes.set(total);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error trimming image cache", e);
+        } finally {
+            trimScheduled.set(false);
+        }
+    }
+
+    /**
+     * @return the number of lookups served from the heap
+     */
+    public long getHeapHits() {
+        return heapHits.sum();
+    }
+
+    /**
+     * @return the number of lookups served from the disk
+     */
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    /**
+     * @return the number of images that had to be created
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the approximate disk space used, in bytes
+     */
+    public long getDiskBytes() {
+        return diskBytes.get();
+    }
+
+    private static final class Entry {
+        private final HashCode key;
+        private final byte[] data;
+
+        private Entry(HashCode key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+    }
+}
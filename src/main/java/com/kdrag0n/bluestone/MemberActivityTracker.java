@@ -0,0 +1,337 @@
+package com.kdrag0n.bluestone;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.PreparedUpdate;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.kdrag0n.bluestone.sql.GuildMemberActions;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps member message activity in memory and writes it to the DB in batches.
+ *
+ * A member's row is read once, when they're first seen, and changes are flushed every few seconds,
+ * or sooner once enough have piled up. Members that haven't been seen in a while are dropped after
+ * their changes are written. Guilds are spread over stripes with their own locks, so messages in different
+ * guilds don't contend, and only one flush runs at a time so batches are written in order.
+ */
+public class MemberActivityTracker {
+    private static final Logger logger = LoggerFactory.getLogger(MemberActivityTracker.class);
+    private static final short MAX_MESSAGES = 100;
+    private static final long IDLE_TIME = TimeUnit.MINUTES.toMillis(10);
+    private static final int STRIPES = 32;
+
+    private final Dao<GuildMemberActions, Integer> dao;
+    private final int batchSize;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicInteger dirtyCount = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+    // held from taking a batch until it's written, and guards the update query
+    private final Object flushLock = new Object();
+    private final ScheduledFuture<?> flushTask;
+
+    private final SelectArg queryUserId = new SelectArg();
+    private final SelectArg queryGuildId = new SelectArg();
+    private final PreparedQuery<GuildMemberActions> selectQuery;
+    private final SelectArg updateMessages = new SelectArg();
+    private final SelectArg updateMentioned = new SelectArg();
+    private final SelectArg updateMentionedOther = new SelectArg();
+    private final SelectArg updateUserId = new SelectArg();
+    private final SelectArg updateGuildId = new SelectArg();
+    private final PreparedUpdate<GuildMemberActions> updateQuery;
+
+    /**
+     * @param dao the DAO for member actions
+     * @param interval how often to write changes, in seconds
+     * @param batchSize how many changed members to allow before writing early
+     */
+    public MemberActivityTracker(Dao<GuildMemberActions, Integer> dao, int interval, int batchSize)
+            throws SQLException {
+        this.dao = dao;
+        this.batchSize = batchSize;
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        QueryBuilder<GuildMemberActions, Integer> query = dao.queryBuilder();
+        query.where().eq("userId", queryUserId).and().eq("guildId", queryGuildId);
+        selectQuery = query.prepare();
+
+        UpdateBuilder<GuildMemberActions, Integer> update = dao.updateBuilder();
+        update.updateColumnValue("messagesSent", updateMessages)
+                .updateColumnValue("hasBeenMentioned", updateMentioned)
+                .updateColumnValue("hasMentionedOther", updateMentionedOther);
+        update.where().eq("userId", updateUserId).and().eq("guildId", updateGuildId);
+        updateQuery = update.prepare();
+
+        flushTask = Bot.scheduledExecutor.scheduleWithFixedDelay(this::flushQuietly, interval, interval,
+                TimeUnit.SECONDS);
+    }
+
+    private Stripe stripeOf(long guildId) {
+        long h = guildId * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 32) & (STRIPES - 1)];
+    }
+
+    /**
+     * Record a message sent by a member.
+     * @param guildId the guild ID
+     * @param userId the author's user ID
+     * @param mentionedOther whether the message mentions another user
+     */
+    public void recordMessage(long guildId, long userId, boolean mentionedOther) throws SQLException {
+        Activity activity = getActivity(guildId, userId);
+        Stripe stripe = stripeOf(guildId);
+        boolean queueFlush = false;
+
+        synchronized (stripe) {
+            // dropped as idle by a flush since we looked it up
+            if (stripe.find(guildId, userId) != activity)
+                stripe.attach(guildId, userId, activity);
+            activity.lastSeen = System.currentTimeMillis();
+
+            boolean changed = false;
+            if (activity.messagesSent < MAX_MESSAGES) {
+                activity.messagesSent++;
+                changed = true;
+            }
+            if (mentionedOther && !activity.hasMentionedOther) {
+                activity.hasMentionedOther = true;
+                changed = true;
+            }
+
+            if (changed && !activity.dirty) {
+                activity.dirty = true;
+                queueFlush = dirtyCount.incrementAndGet() >= batchSize;
+            }
+        }
+
+        if (queueFlush && flushQueued.compareAndSet(false, true))
+            Bot.scheduledExecutor.execute(this::flushQuietly);
+    }
+
+    /**
+     * Get the current activity of a member, including changes that haven't been written yet.
+     * @param guildId the guild ID
+     * @param userId the user ID
+     * @return a snapshot of the member's activity
+     */
+    public GuildMemberActions get(long guildId, long userId) throws SQLException {
+        Activity activity = getActivity(guildId, userId);
+
+        synchronized (stripeOf(guildId)) {
+            activity.lastSeen = System.currentTimeMillis();
+            return new GuildMemberActions(userId, guildId, activity.messagesSent, activity.hasBeenMentioned,
+                    activity.hasMentionedOther);
+        }
+    }
+
+    private Activity getActivity(long guildId, long userId) throws SQLException {
+        Stripe stripe = stripeOf(guildId);
+        synchronized (stripe) {
+            Activity activity = stripe.find(guildId, userId);
+            if (activity != null)
+                return activity;
+        }
+
+        GuildMemberActions stored;
+        synchronized (selectQuery) {
+            queryUserId.setValue(userId);
+            queryGuildId.setValue(guildId);
+            stored = dao.queryForFirst(selectQuery);
+        }
+
+        synchronized (stripe) {
+            // someone else may have loaded it in the meantime
+            Activity activity = stripe.find(guildId, userId);
+            if (activity != null)
+                return activity;
+
+            activity = stored == null ? new Activity() : new Activity(stored);
+            stripe.attach(guildId, userId, activity);
+            return activity;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Throwable e) {
+            logger.error("Error writing member activity", e);
+        }
+    }
+
+    /**
+     * Write all pending changes to the DB now.
+     */
+    public void flush() throws Exception {
+        synchronized (flushLock) {
+            flushQueued.set(false);
+            List<Pending> batch = new ArrayList<>();
+            long idleSince = System.currentTimeMillis() - IDLE_TIME;
+
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.takeDirty(batch, idleSince);
+                }
+            }
+
+            if (batch.isEmpty())
+                return;
+            dirtyCount.addAndGet(-batch.size());
+
+            try {
+                dao.callBatchTasks(() -> {
+                    for (Pending pending : batch) {
+                        updateMessages.setValue(pending.messagesSent);
+                        updateMentioned.setValue(pending.hasBeenMentioned);
+                        updateMentionedOther.setValue(pending.hasMentionedOther);
+                        updateUserId.setValue(pending.userId);
+                        updateGuildId.setValue(pending.guildId);
+
+                        if (dao.update(updateQuery) == 0) {
+                            dao.create(new GuildMemberActions(pending.userId, pending.guildId, pending.messagesSent,
+                                    pending.hasBeenMentioned, pending.hasMentionedOther));
+                        }
+                    }
+
+                    return null;
+                });
+            } catch (Exception e) {
+                // try again next time
+                for (Pending pending : batch) {
+                    requeue(pending);
+                }
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Mark the changes of a failed write as pending again, putting the member back if they were dropped.
+     */
+    private void requeue(Pending pending) {
+        Stripe stripe = stripeOf(pending.guildId);
+
+        synchronized (stripe) {
+            Activity activity = stripe.find(pending.guildId, pending.userId);
+            if (activity == null) {
+                activity = pending.activity;
+                stripe.attach(pending.guildId, pending.userId, activity);
+            } else if (activity != pending.activity) {
+                // loaded again from the DB, which doesn't have these changes
+                activity.messagesSent = (short) Math.max(activity.messagesSent, pending.messagesSent);
+                activity.hasBeenMentioned |= pending.hasBeenMentioned;
+                activity.hasMentionedOther |= pending.hasMentionedOther;
+            }
+
+            if (!activity.dirty) {
+                activity.dirty = true;
+                dirtyCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stop the periodic flush and write pending changes.
+     */
+    public void close() {
+        flushTask.cancel(false);
+        flushQuietly();
+    }
+
+    private static final class Stripe {
+        private final TLongObjectHashMap<TLongObjectHashMap<Activity>> guilds = new TLongObjectHashMap<>();
+
+        private void attach(long guildId, long userId, Activity activity) {
+            TLongObjectHashMap<Activity> members = guilds.get(guildId);
+            if (members == null) {
+                members = new TLongObjectHashMap<>();
+                guilds.put(guildId, members);
+            }
+
+            members.put(userId, activity);
+        }
+
+        private Activity find(long guildId, long userId) {
+            TLongObjectHashMap<Activity> members = guilds.get(guildId);
+            return members == null ? null : members.get(userId);
+        }
+
+        /**
+         * Move the changes of dirty members into a batch, and drop members that are idle and written.
+         */
+        private void takeDirty(List<Pending> batch, long idleSince) {
+            TLongObjectIterator<TLongObjectHashMap<Activity>> guildIter = guilds.iterator();
+            while (guildIter.hasNext()) {
+                guildIter.advance();
+
+                TLongObjectIterator<Activity> memberIter = guildIter.value().iterator();
+                while (memberIter.hasNext()) {
+                    memberIter.advance();
+                    Activity activity = memberIter.value();
+
+                    if (activity.dirty) {
+                        batch.add(new Pending(guildIter.key(), memberIter.key(), activity));
+                        activity.dirty = false;
+                    } else if (activity.lastSeen < idleSince) {
+                        memberIter.remove();
+                    }
+                }
+
+                if (guildIter.value().isEmpty())
+                    guildIter.remove();
+            }
+        }
+    }
+
+    private static final class Activity {
+        private short messagesSent = 0;
+        private boolean hasBeenMentioned = false;
+        private boolean hasMentionedOther = false;
+        private boolean dirty = false;
+        private long lastSeen = System.currentTimeMillis();
+
+        private Activity() {
+        }
+
+        private Activity(GuildMemberActions stored) {
+            messagesSent = stored.messagesSent;
+            hasBeenMentioned = stored.hasBeenMentioned;
+            hasMentionedOther = stored.hasMentionedOther;
+        }
+    }
+
+    private static final class Pending {
+        private final long guildId;
+        private final long userId;
+        private final Activity activity;
+        private final short messagesSent;
+        private final boolean hasBeenMentioned;
+        private final boolean hasMentionedOther;
+
+        private Pending(long guildId, long userId, Activity activity) {
+            this.guildId = guildId;
+            this.userId = userId;
+            this.activity = activity;
+            messagesSent = activity.messagesSent;
+            hasBeenMentioned = activity.hasBeenMentioned;
+            hasMentionedOther = activity.hasMentionedOther;
+        }
+    }
+}
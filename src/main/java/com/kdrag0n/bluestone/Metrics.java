@@ -0,0 +1,153 @@
+package com.kdrag0n.bluestone;
+
+import com.kdrag0n.bluestone.util.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide registry of named metrics, shared by all shards.
+ *
+ * There are three kinds: timers are {@link LatencyHistogram}s, counters are {@link LongAdder}s, and gauges are
+ * read when reported. Timers and counters are created on first use and then kept, so hot paths should look them
+ * up once and hold on to them. Names are dotted Graphite paths.
+ */
+public final class Metrics {
+    private static final Map<String, LatencyHistogram> timers = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+    // ConcurrentSkipListMap.computeIfAbsent isn't atomic, so creation is locked
+    private static final Object createLock = new Object();
+
+    private Metrics() {}
+
+    /**
+     * Get or create a timer.
+     * @param name the metric name
+     * @return the timer
+     */
+    public static LatencyHistogram timer(String name) {
+        LatencyHistogram timer = timers.get(name);
+        if (timer != null)
+            return timer;
+
+        synchronized (createLock) {
+            return timers.computeIfAbsent(name, k -> new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Get or create a counter.
+     * @param name the metric name
+     * @return the counter
+     */
+    public static LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter != null)
+            return counter;
+
+        synchronized (createLock) {
+            return counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+    }
+
+    /**
+     * Register a gauge, replacing any existing one with the same name.
+     * @param name the metric name
+     * @param gauge reads the current value
+     */
+    public static void gauge(String name, DoubleSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Remove a gauge, e.g. when whatever it reads is closed.
+     * @param name the metric name
+     */
+    public static void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * @return all timers, sorted by name
+     */
+    public static Map<String, LatencyHistogram> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+
+    /**
+     * @return all counters, sorted by name
+     */
+    public static Map<String, LongAdder> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * @return all gauges, sorted by name
+     */
+    public static Map<String, DoubleSupplier> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * Record the current value of every metric. Counters and the counts of timers are reported as their running
+     * total, for Graphite to derive rates from. The p50, p99 and max of timers, in milliseconds, only cover the
+     * values recorded since the last report, so each datapoint shows that interval's latency.
+     * @param reporter the reporter to record to
+     * @param timestamp the time of the datapoints, in seconds since the epoch
+     */
+    public static void report(GraphiteReporter reporter, long timestamp) {
+        for (Map.Entry<String, DoubleSupplier> gauge : gauges.entrySet()) {
+            double value;
+            try {
+                value = gauge.getValue().getAsDouble();
+            } catch (RuntimeException e) {
+                // the thing being measured isn't ready yet or is gone
+                continue;
+            }
+
+            reporter.record(gauge.getKey(), value, timestamp);
+        }
+
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            reporter.record(counter.getKey(), counter.getValue().sum(), timestamp);
+        }
+
+        for (Map.Entry<String, LatencyHistogram> timer : timers.entrySet()) {
+            String name = timer.getKey();
+            LatencyHistogram histogram = timer.getValue();
+            LatencyHistogram.Interval interval = histogram.interval();
+
+            reporter.record(name + ".count", histogram.getCount(), timestamp);
+            // nothing to report for an idle interval, rather than a misleading zero latency
+            if (interval.getCount() == 0)
+                continue;
+
+            reporter.record(name + ".p50_ms", interval.getValueAtPercentile(50, TimeUnit.MICROSECONDS) / 1000.0,
+                    timestamp);
+            reporter.record(name + ".p99_ms", interval.getValueAtPercentile(99, TimeUnit.MICROSECONDS) / 1000.0,
+                    timestamp);
+            reporter.record(name + ".max_ms", interval.getMax(TimeUnit.MICROSECONDS) / 1000.0, timestamp);
+        }
+    }
+
+    /**
+     * Turn an arbitrary string, like a host name, into a single metric path segment.
+     * @param segment the string
+     * @return the segment
+     */
+    public static String segment(String segment) {
+        StringBuilder result = new StringBuilder(segment.length());
+
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            result.append(Character.isLetterOrDigit(c) || c == '-' ? c : '_');
+        }
+
+        return result.toString();
+    }
+}
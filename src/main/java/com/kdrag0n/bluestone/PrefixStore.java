@@ -1,47 +1,129 @@
 package com.kdrag0n.bluestone;
 
+import com.kdrag0n.bluestone.util.LongLruCache;
 import com.zaxxer.hikari.HikariDataSource;
-import gnu.trove.map.TLongObjectMap;
-import gnu.trove.map.hash.TLongObjectHashMap;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PrefixStore {
     private static final Logger logger = LoggerFactory.getLogger(PrefixStore.class);
+    private static final String SELECT_ONE = "SELECT prefix FROM guild_prefixes WHERE guildId = ?";
+    private static final String SELECT_ALL = "SELECT guildId, prefix FROM guild_prefixes";
     public final String defaultPrefix;
     private final HikariDataSource pool;
-    public final TLongObjectMap<String> cache = new TLongObjectHashMap<>();
+    private final int capacity;
+    private final LongLruCache<String> cache;
+    private boolean loaded = false;
+    private boolean complete = false;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
 
-    PrefixStore(HikariDataSource pool, String defaultPrefix) {
+    PrefixStore(HikariDataSource pool, String defaultPrefix, int capacity) {
         this.pool = pool;
         this.defaultPrefix = defaultPrefix;
+        this.capacity = capacity;
+        cache = new LongLruCache<>(capacity);
     }
 
     public String getPrefix(long guildId) {
         String prefix = cache.get(guildId);
 
         if (prefix != null) {
+            hits.increment();
             return prefix;
-        } else {
-            try (Connection conn = pool.getConnection()) {
-                ResultSet result = conn.createStatement()
-                        .executeQuery("SELECT prefix FROM guild_prefixes WHERE guildId = " + guildId + ';');
-                if (result.first()) {
-                    prefix = result.getString(1);
-                    cache.put(guildId, prefix);
-                    return prefix;
-                }
+        }
+
+        misses.increment();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_ONE)) {
+            stmt.setLong(1, guildId);
+
+            try (ResultSet result = stmt.executeQuery()) {
+                // guilds without a row are cached too, so they don't hit the DB on every message
+                prefix = result.next() ? result.getString(1) : defaultPrefix;
+            }
+
+            cache.putIfAbsent(guildId, prefix);
+            return prefix;
+        } catch (SQLException | NullPointerException e) {
+            logger.error("Error getting prefix from DB", e);
+            return defaultPrefix;
+        }
+    }
+
+    /**
+     * Update the cached prefix of a guild after it has been written to the DB.
+     * @param guildId the guild ID
+     * @param prefix the new prefix
+     */
+    public void update(long guildId, String prefix) {
+        cache.put(guildId, prefix);
+    }
+
+    /**
+     * Drop the cached prefix of a guild, so the next lookup reads it from the DB.
+     * @param guildId the guild ID
+     */
+    public void invalidate(long guildId) {
+        cache.remove(guildId);
+    }
 
-                cache.put(guildId, defaultPrefix);
-                return defaultPrefix;
-            } catch (SQLException | NullPointerException e) {
-                logger.error("Error getting prefix from DB", e);
-                return defaultPrefix;
+    /**
+     * Fill the cache ahead of time. The first call loads every stored prefix in one query,
+     * then the given guilds that don't have a stored prefix are cached with the default.
+     * @param guildIds the IDs of the guilds that are about to be served
+     */
+    synchronized void warmup(long[] guildIds) {
+        if (!loaded) {
+            int count = 0;
+            boolean more;
+
+            try (Connection conn = pool.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                stmt.setFetchSize(1000);
+
+                try (ResultSet result = stmt.executeQuery(SELECT_ALL)) {
+                    while ((more = result.next()) && count < capacity) {
+                        // don't overwrite anything that was changed while we were loading
+                        cache.putIfAbsent(result.getLong(1), result.getString(2));
+                        count++;
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Error bulk loading prefixes from DB", e);
+                return;
             }
+
+            loaded = true;
+            complete = !more;
+            logger.info("Loaded {} prefixes", count);
+        }
+
+        // only safe if every stored prefix made it into the cache
+        if (!complete)
+            return;
+
+        for (long guildId : guildIds) {
+            cache.putIfAbsent(guildId, defaultPrefix);
         }
     }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
 }
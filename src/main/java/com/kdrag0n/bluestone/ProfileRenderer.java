@@ -0,0 +1,305 @@
+package com.kdrag0n.bluestone;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kdrag0n.bluestone.enums.ProfileFlags;
+import com.kdrag0n.bluestone.util.LatencyHistogram;
+import gnu.trove.list.TIntList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.text.WordUtils;
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.font.TextAttribute;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders profile cards.
+ *
+ * Assets and fonts are decoded once and shared by all renders. The avatar is downloaded and decoded in the
+ * background while the rest of the card is drawn, and is added once both are done, so render threads never wait
+ * on the network. Drawing and PNG encoding run on a bounded pool of render threads.
+ */
+public class ProfileRenderer {
+    private static final Logger logger = LoggerFactory.getLogger(ProfileRenderer.class);
+
+    /**
+     * Bump whenever the look of the card changes, so cached cards are rendered again.
+     */
+    public static final int VERSION = 1;
+    public static final int WIDTH = 1600;
+    public static final int HEIGHT = 1000;
+    private static final String FONT = "Lato";
+    private static final Font NAME_FONT = new Font(FONT, Font.BOLD, 64);
+    private static final Font TAG_FONT = new Font(FONT, Font.PLAIN, 36);
+    private static final Font ANSWER_FONT = new Font(FONT, Font.PLAIN, 24);
+    private static final Font ERROR_FONT = new Font(FONT, Font.BOLD, 84);
+    private static final Font NOT_SET_UP_FONT = new Font(FONT, Font.BOLD, 80);
+    private static final Color INFO_SHADOW_COLOR = new Color(255, 255, 255, 224);
+    private static final Color INFO_COLOR = new Color(255, 255, 255, 255);
+    private static final Color AVATAR_BORDER_COLOR = new Color(80, 80, 80, 255);
+    private static final Color TEXT_COLOR = new Color(74, 144, 226, 255);
+    private static final Color BOTTOM_BOX_COLOR = new Color(255, 255, 255, 218);
+    private static final Color ERROR_COLOR = new Color(244, 10, 1, 255);
+
+    // bold and fallback variants of the fonts above, created on first use
+    private static final Map<Font, Font> boldFonts = new ConcurrentHashMap<>();
+    private static final Map<Font, Font> fallbackFonts = new ConcurrentHashMap<>();
+
+    private final BufferedImage defaultBackground;
+    private final TIntObjectMap<BufferedImage> flagIcons = new TIntObjectHashMap<>();
+    private final BufferedImage unknownFlagIcon;
+    private final ThreadPoolExecutor renderPool;
+    private final float compressionQuality;
+    public final LatencyHistogram latency = Metrics.timer("bot.profiles.render");
+
+    /**
+     * @param threads the number of render threads
+     * @param compressionQuality the PNG compression quality, from 0 (smallest) to 1 (fastest), or -1 for the
+     *                           encoder's default
+     */
+    public ProfileRenderer(int threads, float compressionQuality) throws IOException {
+        this.compressionQuality = compressionQuality;
+
+        defaultBackground = readAsset("default_profile_bg.png");
+        flagIcons.put(ProfileFlags.BOT_OWNER, readAsset("owner.png"));
+        flagIcons.put(ProfileFlags.BOT_ADMIN, readAsset("key.png"));
+        flagIcons.put(ProfileFlags.PATREON_SUPPORTER, readAsset("patreon.png"));
+        unknownFlagIcon = readAsset("unknown.png");
+
+        renderPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 8),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Profile Render Thread %d").build(),
+                // too many queued, render on the command thread instead
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        Metrics.gauge("bot.profiles.queued", this::getQueueDepth);
+    }
+
+    private static BufferedImage readAsset(String name) throws IOException {
+        try (InputStream stream = ProfileRenderer.class.getResourceAsStream("/assets/" + name)) {
+            return ImageIO.read(stream);
+        }
+    }
+
+    /**
+     * Render a profile card.
+     * @param avatarUrl the URL of the user's avatar
+     * @param name the user's name
+     * @param tag the user's tag
+     * @param flags the user's profile flags
+     * @param questionValues the user's answers to profile questions as JSON, or null if they haven't set up a profile
+     * @param backgroundFile the user's custom background, which may not exist
+     * @return the card as PNG
+     */
+    public CompletableFuture<byte[]> render(String avatarUrl, String name, String tag, TIntList flags,
+                                            String questionValues, File backgroundFile) {
+        long startTime = System.nanoTime();
+        CompletableFuture<BufferedImage> avatar = fetchAvatar(avatarUrl);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                BufferedImage background = backgroundFile.exists() ? ImageIO.read(backgroundFile) : defaultBackground;
+                return draw(background, name, tag, flags, questionValues);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, renderPool).thenCombineAsync(avatar, (card, avatarImage) -> {
+            // nothing else overlaps the avatar, so it can go on last
+            Graphics2D g2d = card.createGraphics();
+            g2d.drawImage(avatarImage, 124, 124, 256, 256, null);
+            g2d.dispose();
+
+            try {
+                return encode(card);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, renderPool).whenComplete((data, e) -> latency.recordSince(startTime));
+    }
+
+    private static CompletableFuture<BufferedImage> fetchAvatar(String url) {
+        CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+
+        Bot.http.newCall(new Request.Builder().get().url(url + "?size=256").build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(@Nonnull Call call, @Nonnull IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(@Nonnull Call call, @Nonnull Response response) {
+                try (ResponseBody body = response.body()) {
+                    future.complete(ImageIO.read(body.byteStream()));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        return future;
+    }
+
+    private BufferedImage draw(BufferedImage background, String name, String tag, TIntList flags,
+                               String questionValues) {
+        BufferedImage card = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = card.createGraphics();
+
+        // Everything here is layered
+        g2d.drawImage(background, 0, 0, null); // user background
+
+        // Info box top
+        g2d.setColor(INFO_SHADOW_COLOR);
+        g2d.fillRoundRect(400, 120, 1080, 262, 24, 24);
+
+        g2d.setColor(INFO_COLOR);
+        g2d.fillRoundRect(400, 100, 1080, 168, 24, 24);
+
+        // Avatar box
+        g2d.setColor(AVATAR_BORDER_COLOR);
+        g2d.fillRoundRect(118, 118, 268, 268, 8, 8);
+
+        // Font rendering hints
+        g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB);
+
+        // Profile info
+        g2d.setColor(TEXT_COLOR);
+        g2d.drawString(fstr(name, NAME_FONT), 420, 192);
+        g2d.drawString(fstr('@' + tag, TAG_FONT), 420, 248);
+
+        // Flags
+        int startx = (540 - (60 * flags.size())) / 2;
+        for (int i = 0; i < flags.size(); i++) {
+            BufferedImage icon = flagIcons.get(flags.get(i));
+            g2d.drawImage(icon == null ? unknownFlagIcon : icon, 674 + startx + (60 * i), 292, null);
+        }
+
+        // Info box bottom
+        g2d.setColor(BOTTOM_BOX_COLOR);
+        g2d.fillRoundRect(120, 400, 1360, 500, 32, 32);
+
+        // render text
+        g2d.setColor(TEXT_COLOR);
+        if (questionValues != null) {
+            try {
+                JSONArray pairs = new JSONArray(questionValues);
+                g2d.setFont(ANSWER_FONT);
+
+                for (int i = 0; i < pairs.length(); i++) {
+                    JSONArray pairData = pairs.getJSONArray(i);
+                    int x = i < 5 ? 136 : 850;
+                    int iMinusN = i < 5 ? 1 : 6;
+
+                    drawMLString(g2d,
+                            "[B]" + WordUtils.wrap(pairData.getString(0), 50, "\n", true) + "[/B]\n"
+                                    + WordUtils.wrap(pairData.getString(1), 55, "\n", true),
+                            x, 504 + ((i - iMinusN) * 96));
+                }
+            } catch (Throwable e) {
+                logger.error("Error drawing user profile questions", e);
+                g2d.setFont(ERROR_FONT);
+                g2d.setColor(ERROR_COLOR);
+                drawMLString(g2d, "An error occurred rendering\nor loading this section!", 160, 440);
+            }
+        } else {
+            g2d.setFont(NOT_SET_UP_FONT);
+            drawMLString(g2d, "This user hasn't set up their\nprofile yet!\n(╯°□°）╯︵ ┻━─┬\uFEFF ノ( ゜-゜ノ)",
+                    160, 440);
+        }
+
+        g2d.dispose();
+        return card;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        // only supported by the built-in encoder on Java 9 and newer
+        if (compressionQuality >= 0 && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(compressionQuality);
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(512 * 1024);
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(stream)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        return stream.toByteArray();
+    }
+
+    private static AttributedCharacterIterator fstr(String text, Font font) {
+        int textLength = text.length();
+
+        if (text.startsWith("[B]") && text.endsWith("[/B]")) {
+            text = text.substring(3, textLength - 4);
+            textLength -= 7;
+            font = boldFonts.computeIfAbsent(font, f -> new Font(f.getName(), Font.BOLD, f.getSize()));
+        }
+
+        AttributedString result = new AttributedString(text);
+        result.addAttribute(TextAttribute.FONT, font, 0, textLength);
+
+        boolean fallback = false;
+        int fallbackBegin = 0;
+        for (int i = 0; i < text.length(); i++) {
+            boolean curFallback = !font.canDisplay(text.charAt(i));
+
+            if (curFallback != fallback) {
+                fallback = curFallback;
+
+                if (fallback) {
+                    fallbackBegin = i;
+                } else {
+                    result.addAttribute(TextAttribute.FONT, fallbackFonts.computeIfAbsent(font,
+                            f -> new Font("SansSerif", f.getStyle(), f.getSize())), fallbackBegin, i);
+                }
+            }
+        }
+
+        return result.getIterator();
+    }
+
+    private static void drawMLString(Graphics2D g2d, String text, int x, int y) {
+        for (String line : StringUtils.split(text, '\n'))
+            g2d.drawString(fstr(line, g2d.getFont()), x, y += g2d.getFontMetrics().getHeight());
+    }
+
+    /**
+     * @return the number of renders waiting for a render thread
+     */
+    public int getQueueDepth() {
+        return renderPool.getQueue().size();
+    }
+}
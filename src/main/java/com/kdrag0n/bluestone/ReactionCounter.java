@@ -0,0 +1,190 @@
+package com.kdrag0n.bluestone;
+
+import com.kdrag0n.bluestone.util.LongLruCache;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+/**
+ * Counts the users that reacted to messages, updated from reaction events.
+ *
+ * The full list of reactors is only fetched once per message, the first time it's seen, and without blocking.
+ * Adds and removes that arrive while it's being fetched are replayed on top of it, so none are lost.
+ * After that, adds and removes just update a set of user IDs. Reactions by the author of the
+ * message aren't counted.
+ */
+public class ReactionCounter {
+    private final LongLruCache<Reactors> messages;
+
+    /**
+     * @param capacity the maximum number of messages to remember
+     */
+    public ReactionCounter(int capacity) {
+        messages = new LongLruCache<>(capacity);
+    }
+
+    private Reactors reactors(long messageId, Loader loader) {
+        Reactors reactors = messages.get(messageId);
+        if (reactors != null)
+            return reactors;
+
+        Reactors created = new Reactors();
+        if (messages.putIfAbsent(messageId, created)) {
+            loader.load();
+            return created;
+        }
+
+        // seen by someone else in the meantime
+        reactors = messages.get(messageId);
+        return reactors == null ? created : reactors;
+    }
+
+    /**
+     * Record a reaction.
+     * @param messageId the message ID
+     * @param userId the ID of the user that reacted
+     * @param loader starts fetching the current reactors, if the message hasn't been seen before
+     * @return the number of users that have reacted excluding the author, or -1 if they're still being fetched
+     */
+    public int add(long messageId, long userId, Loader loader) {
+        Reactors reactors = reactors(messageId, loader);
+
+        synchronized (reactors) {
+            if (reactors.changes != null) {
+                reactors.changes.add(userId);
+                return -1;
+            }
+
+            if (userId != reactors.authorId)
+                reactors.users.add(userId);
+
+            return reactors.users.size();
+        }
+    }
+
+    /**
+     * Record the removal of a reaction.
+     * @param messageId the message ID
+     * @param userId the ID of the user whose reaction was removed
+     * @param loader starts fetching the current reactors, if the message hasn't been seen before
+     * @return the number of users that have reacted excluding the author, or -1 if they're still being fetched
+     */
+    public int remove(long messageId, long userId, Loader loader) {
+        Reactors reactors = reactors(messageId, loader);
+
+        synchronized (reactors) {
+            if (reactors.changes != null) {
+                // IDs are positive, so a complement marks a removal
+                reactors.changes.add(~userId);
+                return -1;
+            }
+
+            reactors.users.remove(userId);
+            return reactors.users.size();
+        }
+    }
+
+    /**
+     * Set the fetched reactors of a message, and replay the changes that arrived in the meantime.
+     * @param messageId the message ID
+     * @param authorId the ID of the message's author
+     * @param reactorIds the IDs of the users that had reacted when fetched
+     * @return the number of users that have reacted excluding the author, or -1 if the message was forgotten
+     */
+    public int loaded(long messageId, long authorId, long[] reactorIds) {
+        Reactors reactors = messages.get(messageId);
+        if (reactors == null)
+            return -1;
+
+        synchronized (reactors) {
+            if (reactors.changes == null)
+                return reactors.users.size();
+
+            reactors.authorId = authorId;
+            reactors.users.ensureCapacity(reactorIds.length);
+            for (long id : reactorIds) {
+                if (id != authorId)
+                    reactors.users.add(id);
+            }
+
+            for (int i = 0; i < reactors.changes.size(); i++) {
+                long change = reactors.changes.get(i);
+
+                if (change < 0)
+                    reactors.users.remove(~change);
+                else if (change != authorId)
+                    reactors.users.add(change);
+            }
+
+            reactors.changes = null;
+            return reactors.users.size();
+        }
+    }
+
+    /**
+     * Give up on a message whose reactors couldn't be fetched. They're fetched again the next time it's seen.
+     * @param messageId the message ID
+     */
+    public void failed(long messageId) {
+        Reactors reactors = messages.get(messageId);
+        if (reactors == null)
+            return;
+
+        synchronized (reactors) {
+            if (reactors.changes != null)
+                messages.remove(messageId);
+        }
+    }
+
+    /**
+     * Get the last known reaction count of a message.
+     * @param messageId the message ID
+     * @return the number of users that have reacted excluding the author, or -1 if the message isn't known yet
+     */
+    public int get(long messageId) {
+        Reactors reactors = messages.get(messageId);
+        if (reactors == null)
+            return -1;
+
+        synchronized (reactors) {
+            return reactors.changes == null ? reactors.users.size() : -1;
+        }
+    }
+
+    /**
+     * Get the users that reacted to a message.
+     * @param messageId the message ID
+     * @return the IDs of the users that have reacted excluding the author, or null if the message isn't known yet
+     */
+    public long[] getUsers(long messageId) {
+        Reactors reactors = messages.get(messageId);
+        if (reactors == null)
+            return null;
+
+        synchronized (reactors) {
+            return reactors.changes == null ? reactors.users.toArray() : null;
+        }
+    }
+
+    /**
+     * Forget a message, after its reactions have been cleared or it has been deleted.
+     * @param messageId the message ID
+     */
+    public void forget(long messageId) {
+        messages.remove(messageId);
+    }
+
+    public interface Loader {
+        /**
+         * Start fetching the author and current reactors of the message, without blocking.
+         * Pass them to {@link ReactionCounter#loaded} once fetched, or call {@link ReactionCounter#failed}.
+         */
+        void load();
+    }
+
+    private static final class Reactors {
+        private long authorId;
+        private final TLongHashSet users = new TLongHashSet(4);
+        // changes that arrived before the reactors were fetched, null once they have been
+        private TLongArrayList changes = new TLongArrayList(4);
+    }
+}
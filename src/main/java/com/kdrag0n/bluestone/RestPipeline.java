@@ -0,0 +1,130 @@
+package com.kdrag0n.bluestone;
+
+import net.dv8tion.jda.core.requests.RestAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Paces REST requests that share a rate limit bucket, like role changes in one guild.
+ *
+ * Only a few requests per key are handed to JDA at a time, and the next one is only created once one of them
+ * completes. A burst of requests waits here instead of piling up in JDA's rate limiter, and requests can be
+ * skipped if they're no longer needed by the time their turn comes.
+ */
+public class RestPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(RestPipeline.class);
+    // shared by the pipelines of all shards, so each name is reported once
+    private static final Map<String, AtomicInteger> queuedByName = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final int maxInFlight;
+    private final Map<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger queued;
+
+    /**
+     * @param name the name of the requests, for logging and the {@code bot.pipelines.<name>.queued} gauge
+     * @param maxInFlight how many requests per key to have running at once
+     */
+    public RestPipeline(String name, int maxInFlight) {
+        this.name = name;
+        this.maxInFlight = maxInFlight;
+
+        queued = queuedByName.computeIfAbsent(name, k -> {
+            AtomicInteger count = new AtomicInteger();
+            Metrics.gauge("bot.pipelines." + Metrics.segment(k.toLowerCase()) + ".queued", count::get);
+            return count;
+        });
+    }
+
+    /**
+     * Queue a request.
+     * @param key the key of the rate limit bucket, e.g. a guild ID
+     * @param action creates the request when its turn comes, or returns null to skip it
+     */
+    public void submit(long key, Supplier<RestAction<?>> action) {
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(key, Lane::new);
+
+            synchronized (lane) {
+                // emptied and removed since we looked it up
+                if (lane.dead)
+                    continue;
+
+                if (lane.inFlight >= maxInFlight) {
+                    lane.pending.add(action);
+                    queued.incrementAndGet();
+                    return;
+                }
+
+                lane.inFlight++;
+            }
+
+            run(lane, action);
+            return;
+        }
+    }
+
+    private void run(Lane lane, Supplier<RestAction<?>> action) {
+        while (true) {
+            RestAction<?> request = null;
+            try {
+                request = action.get();
+            } catch (Exception e) {
+                logger.error("Error creating {} request", name, e);
+            }
+
+            if (request != null) {
+                request.queue(r -> complete(lane), e -> {
+                    logger.warn("{} request failed in {}", name, lane.id, e);
+                    complete(lane);
+                });
+                return;
+            }
+
+            // skipped, go straight to the next one
+            action = next(lane);
+            if (action == null)
+                return;
+        }
+    }
+
+    private void complete(Lane lane) {
+        Supplier<RestAction<?>> action = next(lane);
+        if (action != null)
+            run(lane, action);
+    }
+
+    private Supplier<RestAction<?>> next(Lane lane) {
+        synchronized (lane) {
+            Supplier<RestAction<?>> action = lane.pending.poll();
+            if (action != null) {
+                queued.decrementAndGet();
+                return action;
+            }
+
+            if (--lane.inFlight == 0) {
+                lane.dead = true;
+                lanes.remove(lane.id, lane);
+            }
+
+            return null;
+        }
+    }
+
+    private static final class Lane {
+        private final long id;
+        private final ArrayDeque<Supplier<RestAction<?>>> pending = new ArrayDeque<>();
+        private int inFlight = 0;
+        private boolean dead = false;
+
+        private Lane(long id) {
+            this.id = id;
+        }
+    }
+}
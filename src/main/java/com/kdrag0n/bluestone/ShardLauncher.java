@@ -0,0 +1,215 @@
+package com.kdrag0n.bluestone;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kdrag0n.bluestone.util.LatencyHistogram;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.JDA.ShardInfo;
+import net.dv8tion.jda.core.events.DisconnectEvent;
+import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.events.ReadyEvent;
+import net.dv8tion.jda.core.events.ReconnectedEvent;
+import net.dv8tion.jda.core.events.ResumedEvent;
+import net.dv8tion.jda.core.events.ShutdownEvent;
+import net.dv8tion.jda.core.hooks.EventListener;
+import net.dv8tion.jda.core.utils.SessionController;
+import net.dv8tion.jda.core.utils.SessionControllerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when each shard may identify with the gateway, and tracks which shards are ready.
+ *
+ * The gateway allows one identify every 5 seconds per bucket, where a shard's bucket is its ID modulo the allowed
+ * concurrency. Each bucket has its own queue and worker, so shards in different buckets connect in parallel and a
+ * bucket only waits when it has to. Reconnecting shards are let in before ones starting for the first time, since
+ * they were serving users a moment ago.
+ */
+public class ShardLauncher extends SessionControllerAdapter implements EventListener {
+    private static final Logger logger = LoggerFactory.getLogger(ShardLauncher.class);
+    private static final long IDENTIFY_INTERVAL = TimeUnit.SECONDS.toNanos(SessionController.IDENTIFY_DELAY);
+
+    private final int shardCount;
+    private final PriorityQueue<Pending>[] queues;
+    private final AtomicIntegerArray ready;
+    private final AtomicInteger readyCount = new AtomicInteger();
+    private final LatencyHistogram identifyWait = Metrics.timer("bot.shards.identify_wait");
+    private final long startedAt = System.nanoTime();
+    private final AtomicLong sequence = new AtomicLong();
+    private boolean allReady; // guarded by this
+
+    /**
+     * @param shardCount the number of shards
+     * @param concurrency how many shards may identify at the same time
+     */
+    @SuppressWarnings("unchecked")
+    ShardLauncher(int shardCount, int concurrency) {
+        this.shardCount = shardCount;
+        ready = new AtomicIntegerArray(shardCount);
+        queues = new PriorityQueue[Math.max(1, Math.min(concurrency, shardCount))];
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("Bot Identify Thread %d").build();
+        for (int i = 0; i < queues.length; i++) {
+            PriorityQueue<Pending> queue = new PriorityQueue<>();
+            queues[i] = queue;
+            threadFactory.newThread(() -> work(queue)).start();
+        }
+
+        Metrics.gauge("bot.shards.ready", readyCount::get);
+        Metrics.gauge("bot.shards.identify_queued", this::getQueuedCount);
+    }
+
+    private static int shardOf(ShardInfo info) {
+        return info == null ? 0 : info.getShardId();
+    }
+
+    @Override
+    public void appendSession(SessionConnectNode node) {
+        int shard = shardOf(node.getShardInfo());
+        PriorityQueue<Pending> queue = queues[shard % queues.length];
+
+        synchronized (queue) {
+            // a node that's appended again moves to the back instead of identifying twice
+            queue.removeIf(pending -> pending.node == node);
+            queue.add(new Pending(node, shard, sequence.getAndIncrement()));
+            queue.notify();
+        }
+    }
+
+    @Override
+    public void removeSession(SessionConnectNode node) {
+        for (PriorityQueue<Pending> queue : queues) {
+            synchronized (queue) {
+                queue.removeIf(pending -> pending.node == node);
+            }
+        }
+    }
+
+    private void work(PriorityQueue<Pending> queue) {
+        long nextIdentify = 0L;
+
+        while (true) {
+            try {
+                synchronized (queue) {
+                    while (queue.isEmpty())
+                        queue.wait();
+                }
+
+                // wait before choosing, so a reconnect queued in the meantime still goes first
+                long delay = nextIdentify - System.nanoTime();
+                if (delay > 0)
+                    TimeUnit.NANOSECONDS.sleep(delay);
+
+                Pending pending;
+                boolean last;
+                synchronized (queue) {
+                    pending = queue.poll();
+                    last = queue.isEmpty();
+                }
+                if (pending == null)
+                    continue;
+
+                identifyWait.recordSince(pending.queuedAt);
+                logger.debug("Identifying shard {}{}", pending.shard, pending.reconnect ? " (reconnect)" : "");
+
+                try {
+                    // blocks until the gateway has accepted the identify, unless it's the last one for now
+                    pending.node.run(last);
+                } catch (RuntimeException e) {
+                    logger.error("Error connecting shard {}", pending.shard, e);
+                }
+
+                nextIdentify = System.nanoTime() + IDENTIFY_INTERVAL;
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (event instanceof ReadyEvent || event instanceof ReconnectedEvent || event instanceof ResumedEvent) {
+            setReady(event.getJDA(), true);
+        } else if (event instanceof DisconnectEvent || event instanceof ShutdownEvent) {
+            setReady(event.getJDA(), false);
+        }
+    }
+
+    private void setReady(JDA jda, boolean isReady) {
+        int shard = shardOf(jda.getShardInfo());
+        if (ready.getAndSet(shard, isReady ? 1 : 0) == (isReady ? 1 : 0))
+            return;
+
+        int count = isReady ? readyCount.incrementAndGet() : readyCount.decrementAndGet();
+        if (isReady)
+            logger.info("Shard {} ready, {}/{} shards ready", shard, count, shardCount);
+        else
+            logger.info("Shard {} disconnected, {}/{} shards ready", shard, count, shardCount);
+
+        synchronized (this) {
+            if (count == shardCount && !allReady) {
+                allReady = true;
+                logger.info("All {} shards ready in {} seconds", shardCount,
+                        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt));
+            }
+        }
+    }
+
+    /**
+     * @param shard the shard ID
+     * @return whether the shard is connected and has received its guilds
+     */
+    public boolean isReady(int shard) {
+        return ready.get(shard) != 0;
+    }
+
+    public int getReadyCount() {
+        return readyCount.get();
+    }
+
+    /**
+     * @return the number of shards waiting to identify
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        for (PriorityQueue<Pending> queue : queues) {
+            synchronized (queue) {
+                count += queue.size();
+            }
+        }
+
+        return count;
+    }
+
+    private static final class Pending implements Comparable<Pending> {
+        private final SessionConnectNode node;
+        private final int shard;
+        private final boolean reconnect;
+        private final long order;
+        private final long queuedAt = System.nanoTime();
+
+        private Pending(SessionConnectNode node, int shard, long order) {
+            this.node = node;
+            this.shard = shard;
+            this.order = order;
+            reconnect = node.isReconnect();
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            if (reconnect != other.reconnect)
+                return reconnect ? -1 : 1;
+            if (shard != other.shard)
+                return Integer.compare(shard, other.shard);
+
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.kdrag0n.bluestone;
+
+import com.kdrag0n.bluestone.cogs.MusicCog;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.JDA.ShardInfo;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.impl.JDAImpl;
+import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.events.ReadyEvent;
+import net.dv8tion.jda.core.events.ReconnectedEvent;
+import net.dv8tion.jda.core.events.ShutdownEvent;
+import net.dv8tion.jda.core.events.channel.text.TextChannelCreateEvent;
+import net.dv8tion.jda.core.events.channel.text.TextChannelDeleteEvent;
+import net.dv8tion.jda.core.events.channel.voice.VoiceChannelCreateEvent;
+import net.dv8tion.jda.core.events.channel.voice.VoiceChannelDeleteEvent;
+import net.dv8tion.jda.core.events.emote.EmoteAddedEvent;
+import net.dv8tion.jda.core.events.emote.EmoteRemovedEvent;
+import net.dv8tion.jda.core.events.guild.GuildAvailableEvent;
+import net.dv8tion.jda.core.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.GuildUnavailableEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.core.hooks.EventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate counts across all shards, kept up to date by events so reading them is O(1).
+ *
+ * JDA's maps already know their own sizes, so for guilds, channels and users each shard's last seen size is kept
+ * and only the difference is added to the total when a lifecycle event changes it. Emotes aren't in a map of their
+ * own, so they're counted from the events themselves, as are music tracks and streams, which each track scheduler
+ * reports as they change. Everything is recounted from scratch every now and then to correct any drift; music is
+ * recounted by each scheduler against what it last reported, so updates racing with the recount aren't lost.
+ */
+public class ShardStats implements EventListener {
+    private static final Logger logger = LoggerFactory.getLogger(ShardStats.class);
+
+    private final LongAdder guilds = new LongAdder();
+    private final LongAdder textChannels = new LongAdder();
+    private final LongAdder voiceChannels = new LongAdder();
+    private final LongAdder users = new LongAdder();
+    private final LongAdder emotes = new LongAdder();
+    private final LongAdder tracks = new LongAdder();
+    private final LongAdder streams = new LongAdder();
+
+    // last counts seen for each shard
+    private final AtomicIntegerArray shardGuilds;
+    private final AtomicIntegerArray shardTextChannels;
+    private final AtomicIntegerArray shardVoiceChannels;
+    private final AtomicIntegerArray shardUsers;
+    private final AtomicIntegerArray shardEmotes;
+    // emotes counted for guilds that are unavailable, whose emotes may have changed by the time they're back
+    private final Map<Long, Integer> unavailableEmotes = new ConcurrentHashMap<>();
+
+    /**
+     * @param shardCount the number of shards
+     * @param reconcileInterval how often to recount everything, in minutes
+     * @param shardUtil the shards to recount
+     */
+    ShardStats(int shardCount, long reconcileInterval, ShardUtil shardUtil) {
+        shardGuilds = new AtomicIntegerArray(shardCount);
+        shardTextChannels = new AtomicIntegerArray(shardCount);
+        shardVoiceChannels = new AtomicIntegerArray(shardCount);
+        shardUsers = new AtomicIntegerArray(shardCount);
+        shardEmotes = new AtomicIntegerArray(shardCount);
+
+        Bot.scheduledExecutor.scheduleWithFixedDelay(() -> reconcile(shardUtil), reconcileInterval,
+                reconcileInterval, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        int shard = shardOf(event.getJDA());
+
+        if (event instanceof GuildJoinEvent) {
+            refresh(shard, event.getJDA());
+            addEmotes(shard, ((GuildJoinEvent) event).getGuild().getEmoteCache().size());
+        } else if (event instanceof GuildLeaveEvent) {
+            Guild guild = ((GuildLeaveEvent) event).getGuild();
+            refresh(shard, event.getJDA());
+
+            Integer counted = unavailableEmotes.remove(guild.getIdLong());
+            addEmotes(shard, -(counted == null ? guild.getEmoteCache().size() : counted));
+        } else if (event instanceof EmoteAddedEvent) {
+            addEmotes(shard, 1);
+        } else if (event instanceof EmoteRemovedEvent) {
+            addEmotes(shard, -1);
+        } else if (event instanceof GuildAvailableEvent) {
+            Guild guild = ((GuildAvailableEvent) event).getGuild();
+            refresh(shard, event.getJDA());
+
+            // the guild was rebuilt with its current emotes
+            Integer counted = unavailableEmotes.remove(guild.getIdLong());
+            addEmotes(shard, guild.getEmoteCache().size() - (counted == null ? 0 : counted));
+        } else if (event instanceof GuildUnavailableEvent) {
+            Guild guild = ((GuildUnavailableEvent) event).getGuild();
+            refresh(shard, event.getJDA());
+            unavailableEmotes.put(guild.getIdLong(), guild.getEmoteCache().size());
+        } else if (event instanceof GuildMemberJoinEvent || event instanceof GuildMemberLeaveEvent
+                || event instanceof TextChannelCreateEvent || event instanceof TextChannelDeleteEvent
+                || event instanceof VoiceChannelCreateEvent || event instanceof VoiceChannelDeleteEvent) {
+            refresh(shard, event.getJDA());
+        } else if (event instanceof ReadyEvent || event instanceof ReconnectedEvent) {
+            // the whole cache was (re)built
+            refresh(shard, event.getJDA());
+            recountEmotes(shard, event.getJDA());
+        } else if (event instanceof ShutdownEvent) {
+            clear(shard);
+        }
+    }
+
+    private static int shardOf(JDA jda) {
+        ShardInfo info = jda.getShardInfo();
+        return info == null ? 0 : info.getShardId();
+    }
+
+    private void refresh(int shard, JDA jda) {
+        JDAImpl impl = (JDAImpl) jda;
+
+        set(guilds, shardGuilds, shard, impl.getGuildMap().size());
+        set(textChannels, shardTextChannels, shard, impl.getTextChannelMap().size());
+        set(voiceChannels, shardVoiceChannels, shard, impl.getVoiceChannelMap().size());
+        set(users, shardUsers, shard, impl.getUserMap().size());
+    }
+
+    private void recountEmotes(int shard, JDA jda) {
+        int count = 0;
+        for (Guild guild : jda.getGuildCache()) {
+            int guildEmotes = guild.getEmoteCache().size();
+            count += guildEmotes;
+
+            if (guild.isAvailable())
+                unavailableEmotes.remove(guild.getIdLong());
+            else
+                unavailableEmotes.put(guild.getIdLong(), guildEmotes);
+        }
+
+        set(emotes, shardEmotes, shard, count);
+    }
+
+    private void clear(int shard) {
+        set(guilds, shardGuilds, shard, 0);
+        set(textChannels, shardTextChannels, shard, 0);
+        set(voiceChannels, shardVoiceChannels, shard, 0);
+        set(users, shardUsers, shard, 0);
+        set(emotes, shardEmotes, shard, 0);
+    }
+
+    private void addEmotes(int shard, long delta) {
+        shardEmotes.addAndGet(shard, (int) delta);
+        emotes.add(delta);
+    }
+
+    private static void set(LongAdder total, AtomicIntegerArray perShard, int shard, int count) {
+        total.add(count - perShard.getAndSet(shard, count));
+    }
+
+    /**
+     * Report a change in loaded music tracks and channels being streamed to.
+     * @param trackDelta the change in loaded tracks
+     * @param streamDelta the change in streams
+     */
+    public void addMusic(int trackDelta, int streamDelta) {
+        tracks.add(trackDelta);
+        streams.add(streamDelta);
+    }
+
+    private void reconcile(ShardUtil shardUtil) {
+        try {
+            for (Bot shard : shardUtil.getShards()) {
+                MusicCog cog = (MusicCog) shard.cogs.get("Music");
+                if (cog != null)
+                    cog.recountStats();
+
+                JDA jda = shard.jda;
+                if (jda.getStatus() == JDA.Status.CONNECTED) {
+                    int id = shardOf(jda);
+                    refresh(id, jda);
+                    recountEmotes(id, jda);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error recounting stats", e);
+        }
+    }
+
+    public int getGuilds() {
+        return guilds.intValue();
+    }
+
+    public int getTextChannels() {
+        return textChannels.intValue();
+    }
+
+    public int getVoiceChannels() {
+        return voiceChannels.intValue();
+    }
+
+    public int getUsers() {
+        return users.intValue();
+    }
+
+    public int getEmotes() {
+        return emotes.intValue();
+    }
+
+    public int getTracks() {
+        return tracks.intValue();
+    }
+
+    public int getStreams() {
+        return streams.intValue();
+    }
+}
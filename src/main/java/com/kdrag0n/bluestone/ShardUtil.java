@@ -9,44 +9,51 @@ import com.j256.ormlite.jdbc.DataSourceConnectionSource;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
-import com.kdrag0n.bluestone.cogs.MusicCog;
+import com.kdrag0n.bluestone.sql.AfkMessage;
 import com.kdrag0n.bluestone.sql.BotAdmin;
 import com.kdrag0n.bluestone.sql.GuildPrefix;
 import com.kdrag0n.bluestone.sql.MySQLDatabaseType;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.linked.TIntLinkedList;
 import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.impl.GuildImpl;
 import net.dv8tion.jda.core.entities.impl.JDAImpl;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.json.JSONObject;
 
 import javax.annotation.CheckReturnValue;
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 public class ShardUtil {
     private static final Logger logger = LoggerFactory.getLogger(ShardUtil.class);
     private static final MySQLDatabaseType mysqlDbType = new MySQLDatabaseType();
-    private final Map<Integer, Bot> shards = new LinkedHashMap<>();
+    // filled in concurrently as shards start, and read by timers while they do
+    private final Map<Integer, Bot> shards = new ConcurrentHashMap<>();
     public final Date startTime = new Date();
     private int shardCount;
     private final Dao<BotAdmin, Long> adminDao;
     private ConnectionSource dbConn;
     private HikariDataSource dataSource;
+    private final PrefixStore prefixStore;
+    private final AfkStore afkStore;
+    private final ImageCache imageCache;
+    private final ShardStats stats;
+    private final GuildStats guildStats;
     private JSONObject config;
 
     ShardUtil(int shardCount, JSONObject config) {
         this.shardCount = shardCount;
         this.config = config;
+        stats = new ShardStats(shardCount, config.optLong("stats_recount_interval", 15L), this);
+        guildStats = new GuildStats(this, config.optLong("xstats_cache_seconds", 60L) * 1000);
 
         String connectionUrl = "jdbc:" + config.optString("db_url", "h2:./database");
         HikariConfig dbConfig = new HikariConfig();
@@ -59,6 +66,7 @@ public class ShardUtil {
         dbConfig.setAllowPoolSuspension(true);
         dbConfig.setRegisterMbeans(true);
         dbConfig.setLeakDetectionThreshold(7500);
+        dbConfig.setMetricsTrackerFactory(new DatabaseMetrics("bot.db"));
 
         if (connectionUrl.startsWith("mysql://")) {
             dbConfig.addDataSourceProperty("cachePrepStmts", "true");
@@ -67,6 +75,8 @@ public class ShardUtil {
         }
 
         dataSource = new HikariDataSource(dbConfig);
+        prefixStore = new PrefixStore(dataSource, config.optString("default_prefix", "!"),
+                config.optInt("prefix_cache_size", 65536));
 
         DatabaseType dbType = DatabaseTypeUtils.createDatabaseType(connectionUrl);
         if (dbType instanceof MysqlDatabaseType)
@@ -86,6 +96,13 @@ public class ShardUtil {
         }
 
         adminDao = setupDao(BotAdmin.class);
+        afkStore = new AfkStore(setupDao(AfkMessage.class));
+        imageCache = new ImageCache(new File("data/cache/images"), config.optInt("image_cache_heap_entries", 32),
+                config.optLong("image_cache_disk_mb", 256L) * 1024 * 1024);
+        Metrics.gauge("bot.image_cache.heap_hits", imageCache::getHeapHits);
+        Metrics.gauge("bot.image_cache.disk_hits", imageCache::getDiskHits);
+        Metrics.gauge("bot.image_cache.misses", imageCache::getMisses);
+        Metrics.gauge("bot.image_cache.disk_bytes", imageCache::getDiskBytes);
 
         try {
             TableUtils.createTableIfNotExists(dbConn, GuildPrefix.class);
@@ -94,6 +111,8 @@ public class ShardUtil {
         }
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            afkStore.flush();
+
             try {
                 dbConn.close();
             } catch (IOException e) {
@@ -129,6 +148,18 @@ public class ShardUtil {
         return dataSource;
     }
 
+    public PrefixStore getPrefixStore() {
+        return prefixStore;
+    }
+
+    public AfkStore getAfkStore() {
+        return afkStore;
+    }
+
+    public ImageCache getImageCache() {
+        return imageCache;
+    }
+
     public JSONObject getConfig() {
         return config;
     }
@@ -146,110 +177,51 @@ public class ShardUtil {
     }
 
     public Collection<Bot> getShards() {
-        return shards.values();
+        return Collections.unmodifiableCollection(shards.values());
+    }
+
+    public ShardStats getStats() {
+        return stats;
+    }
+
+    public GuildStats getGuildStats() {
+        return guildStats;
     }
 
     public int getGuildCount() {
-        return sumJda(j -> j.getGuildMap().size());
+        return stats.getGuilds();
     }
 
     public int getChannelCount() {
-        return sumJda(jda -> jda.getTextChannelMap().size() + jda.getVoiceChannelMap().size());
+        return stats.getTextChannels() + stats.getVoiceChannels();
     }
 
     public int getVoiceChannelCount() {
-        return sumJda(j -> j.getVoiceChannelMap().size());
+        return stats.getVoiceChannels();
     }
 
     public int getTextChannelCount() {
-        return sumJda(j -> j.getTextChannelMap().size());
+        return stats.getTextChannels();
     }
 
     public int getUserCount() {
-        return sumJda(j -> j.getUserMap().size());
+        return stats.getUsers();
     }
 
     public int getEmoteCount() {
-        return sumJda(j -> (int) j.getEmoteCache().size());
+        return stats.getEmotes();
     }
 
     public int getTrackCount() {
-        return sumBot(b -> {
-            MusicCog cog = (MusicCog) b.cogs.get("Music");
-            if (cog == null)
-                return 0;
-
-            return cog.getTracksLoaded();
-        });
+        return stats.getTracks();
     }
 
     public int getStreamCount() {
-        return sumBot(b -> {
-            MusicCog cog = (MusicCog) b.cogs.get("Music");
-            if (cog == null)
-                return 0;
-
-            return cog.getActiveStreamCount();
-        });
+        return stats.getStreams();
     }
 
     @Deprecated
     public Stream<Guild> getGuildStream() {
         return shards.values().stream().flatMap(b -> ((JDAImpl) b.jda).getGuildMap().valueCollection().stream());
     }
-
-    private int sumBot(ObjectFunctionInt<Bot> fn) {
-        int total = 0;
-
-        for (Bot shard : shards.values()) {
-            total += fn.apply(shard);
-        }
-
-        return total;
-    }
-
-    private int sumJda(ObjectFunctionInt<JDAImpl> fn) {
-        int total = 0;
-
-        for (Bot shard : shards.values()) {
-            total += fn.apply((JDAImpl) shard.jda);
-        }
-
-        return total;
-    }
-
-    public TIntList guildNums(ObjectFunctionInt<GuildImpl> fn) {
-        TIntList l = new TIntLinkedList();
-
-        for (Bot shard : shards.values()) {
-            for (Guild guild : shard.jda.getGuildCache()) {
-                l.add(fn.apply((GuildImpl) guild));
-            }
-        }
-
-        return l;
-    }
-
-    public int guildCount(ObjectFunctionBool<GuildImpl> fn) {
-        int c = 0;
-
-        for (Bot shard : shards.values()) {
-            for (Guild guild : shard.jda.getGuildCache()) {
-                if (fn.apply((GuildImpl) guild))
-                    c++;
-            }
-        }
-
-        return c;
-    }
-
-    @FunctionalInterface
-    public interface ObjectFunctionInt<A> {
-        int apply(A value);
-    }
-
-    @FunctionalInterface
-    public interface ObjectFunctionBool<A> {
-        boolean apply(A value);
-    }
 }
@@ -0,0 +1,166 @@
+package com.kdrag0n.bluestone;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Asynchronous, deduplicated HTTP requests on top of {@link Bot#http}.
+ *
+ * Identical requests (by method and URL) that are made while one is already running share its response instead
+ * of opening another connection, and successful responses are kept for a short time chosen per endpoint. Results
+ * are {@link CompletableFuture}s, so commands don't have to block a thread while waiting for the network.
+ */
+public class SharedHttp {
+    private final OkHttpClient client;
+    private final int maxCached;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param client the client to make requests with
+     * @param maxCached the maximum number of responses to keep
+     */
+    public SharedHttp(OkHttpClient client, int maxCached) {
+        this.client = client;
+        this.maxCached = maxCached;
+
+        Bot.scheduledExecutor.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * GET a URL, sharing the response with identical requests.
+     * @param url the URL
+     * @param ttl how long to keep the response for, or 0 to only share it with requests already waiting
+     * @param unit the unit of {@literal ttl}
+     * @return the response body
+     */
+    public CompletableFuture<String> get(String url, long ttl, TimeUnit unit) {
+        return get(new Request.Builder().get().url(url).build(), ttl, unit);
+    }
+
+    /**
+     * Make a request, sharing the response with identical requests. Requests are told apart only by method and
+     * URL, so anything else that affects the response, like an API key header, must be the same for all of them.
+     * @param request the request
+     * @param ttl how long to keep the response for, or 0 to only share it with requests already waiting
+     * @param unit the unit of {@literal ttl}
+     * @return the response body
+     */
+    public CompletableFuture<String> get(Request request, long ttl, TimeUnit unit) {
+        String key = request.method() + ' ' + request.url();
+
+        Cached cached = cache.get(key);
+        if (cached != null) {
+            if (System.nanoTime() - cached.expiresAt < 0)
+                return CompletableFuture.completedFuture(cached.body);
+
+            cache.remove(key, cached);
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null)
+            return copy(existing);
+
+        long ttlNanos = unit.toNanos(ttl);
+        future.whenComplete((body, e) -> {
+            if (e == null && ttlNanos > 0 && cache.size() < maxCached)
+                cache.put(key, new Cached(body, System.nanoTime() + ttlNanos));
+
+            inFlight.remove(key, future);
+        });
+
+        enqueue(request, future);
+        return copy(future);
+    }
+
+    /**
+     * GET a URL without sharing the response, for endpoints that give a different response each time.
+     * @param url the URL
+     * @return the response body
+     */
+    public CompletableFuture<String> fetch(String url) {
+        return fetch(new Request.Builder().get().url(url).build());
+    }
+
+    /**
+     * Make a request without sharing it, for endpoints that give a different response each time.
+     * @param request the request
+     * @return the response body
+     */
+    public CompletableFuture<String> fetch(Request request) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        enqueue(request, future);
+        return future;
+    }
+
+    private void enqueue(Request request, CompletableFuture<String> future) {
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@Nonnull Call call, @Nonnull IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(@Nonnull Call call, @Nonnull Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful()) {
+                        future.completeExceptionally(new IOException(
+                                "Request unsuccessful, status " + response.code() + " " + response.message()));
+                        return;
+                    }
+
+                    future.complete(body.string());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    // so callers can't complete the shared future for everyone else
+    private static CompletableFuture<String> copy(CompletableFuture<String> future) {
+        return future.thenApply(Function.identity());
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        cache.values().removeIf(cached -> now - cached.expiresAt >= 0);
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of requests currently running
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private static final class Cached {
+        private final String body;
+        private final long expiresAt;
+
+        private Cached(String body, long expiresAt) {
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
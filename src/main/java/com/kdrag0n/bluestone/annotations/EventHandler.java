@@ -1,5 +1,7 @@
 package com.kdrag0n.bluestone.annotations;
 
+import com.kdrag0n.bluestone.enums.EventOverflow;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -9,4 +11,5 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD)
 public @interface EventHandler {
     boolean threaded() default false;
+    EventOverflow overflow() default EventOverflow.DROP_OLDEST;
 }
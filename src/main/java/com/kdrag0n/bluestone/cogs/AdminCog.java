@@ -156,7 +156,7 @@ public class AdminCog extends Cog {
 
                 GuildPrefix prefix = new GuildPrefix(ctx.guild.getIdLong(), rawPrefix);
                 prefixDao.createOrUpdate(prefix);
-                bot.prefixStore.cache.put(ctx.guild.getIdLong(), rawPrefix);
+                bot.prefixStore.update(ctx.guild.getIdLong(), rawPrefix);
 
                 ctx.success("Prefix set.");
             }
@@ -1,40 +1,25 @@
 package com.kdrag0n.bluestone.cogs;
 
-import com.censhare.db.iindex.IDSetTrie;
-import com.j256.ormlite.dao.Dao;
+import com.kdrag0n.bluestone.AfkStore;
 import com.kdrag0n.bluestone.Bot;
 import com.kdrag0n.bluestone.Cog;
 import com.kdrag0n.bluestone.Context;
 import com.kdrag0n.bluestone.annotations.Command;
 import com.kdrag0n.bluestone.annotations.EventHandler;
-import com.kdrag0n.bluestone.sql.AfkMessage;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
 import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
-import org.slf4j.LoggerFactory;
-import org.slf4j.Logger;
 
-import java.sql.SQLException;
 import java.util.List;
 
 public class AfkCog extends Cog {
-    private static final Logger logger = LoggerFactory.getLogger(AfkCog.class);
-    private static final IDSetTrie afkUsers = new IDSetTrie(48);
-    private final Dao<AfkMessage, Long> dao;
+    private final AfkStore store;
 
     public AfkCog(Bot bot) {
         super(bot);
 
-        dao = setupDao(AfkMessage.class);
-
-        try {
-            for (AfkMessage afkMessage : dao.queryForAll()) {
-                afkUsers.set(afkMessage.getUserId());
-            }
-        } catch (SQLException e) {
-            logger.error("Failed to get AFK user list!", e);
-        }
+        store = bot.shardUtil.getAfkStore();
     }
 
     public String getName() {
@@ -46,14 +31,11 @@ public class AfkCog extends Cog {
     }
 
     @EventHandler(threaded = true)
-    public void onMsg(GuildMessageReceivedEvent event) throws SQLException {
+    public void onMsg(GuildMessageReceivedEvent event) {
         if (event.getAuthor().isBot())
             return;
 
-        if (afkUsers.get(event.getAuthor().getIdLong())) {
-            afkUsers.clear(event.getAuthor().getIdLong());
-            dao.deleteById(event.getAuthor().getIdLong());
-        }
+        store.remove(event.getAuthor().getIdLong());
 
         if (event.getMessage().getMentionedUsers().size() != 0) {
             List<User> mentioned = event.getMessage().getMentionedUsers();
@@ -64,13 +46,11 @@ public class AfkCog extends Cog {
                 User user = mentioned.get(i);
                 if (user.isBot())
                     continue;
-                if (!afkUsers.get(user.getIdLong()))
-                    continue;
 
-                AfkMessage afkMessage = dao.queryForId(user.getIdLong());
+                String afkMessage = store.getMessage(user.getIdLong());
                 if (afkMessage != null && !added.contains(user.getIdLong())) {
                     message.append("**").append(event.getGuild().getMember(user).getEffectiveName())
-                            .append("** isn't available at the moment. \"").append(afkMessage.getMessage())
+                            .append("** isn't available at the moment. \"").append(afkMessage)
                             .append("\"\n");
 
                     added.add(user.getIdLong());
@@ -89,23 +69,21 @@ public class AfkCog extends Cog {
 
     @Command(name = "afk", desc = "Set an AFK message, indicating that you're currently away. Automatically removes message when you're back.", usage = "[message]", thread = true, aliases = {
             "away" })
-    public void cmdAfk(Context ctx) throws SQLException {
-        AfkMessage afkMessage = dao.queryForId(ctx.author.getIdLong());
+    public void cmdAfk(Context ctx) {
+        boolean away = store.isAway(ctx.author.getIdLong());
 
-        if (ctx.args.empty && afkMessage == null) {
+        if (ctx.args.empty && !away) {
             ctx.fail(" You must specify why you're going away!");
             return;
         } else if (ctx.rawArgs.length() > 150) {
             ctx.fail("Your AFK message can't be longer than 150 characters!");
             return;
-        } else if (afkMessage != null) {
+        } else if (away) {
             ctx.success("You're no longer away.");
             return;
         }
 
-        afkUsers.set(ctx.author.getIdLong());
-        afkMessage = new AfkMessage(ctx.author.getIdLong(), ctx.rawArgs);
-        dao.createOrUpdate(afkMessage);
+        store.set(ctx.author.getIdLong(), ctx.rawArgs);
 
         ctx.success("You're now away.");
     }
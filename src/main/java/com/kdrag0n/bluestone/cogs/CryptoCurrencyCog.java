@@ -15,8 +15,6 @@ import net.dv8tion.jda.core.entities.MessageEmbed;
 import net.dv8tion.jda.core.entities.MessageReaction;
 import net.dv8tion.jda.core.events.message.react.MessageReactionAddEvent;
 import net.dv8tion.jda.core.exceptions.PermissionException;
-import okhttp3.Request;
-import okhttp3.ResponseBody;
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -78,16 +76,14 @@ public class CryptoCurrencyCog extends Cog {
 
     private static void update() {
         try {
-            List<Cryptocurrency> data;
-            try (ResponseBody rbody = Bot.http.newCall(
-                    new Request.Builder().get().url("https://api.coinmarketcap.com/v1/ticker/?convert=EUR").build())
-                    .execute().body()) {
-                JSONArray items = new JSONArray(StringUtils.replace(rbody.string(), "null", "0"));
-                data = new ArrayList<>(items.length());
-
-                for (int i = 0; i < items.length(); i++) {
-                    data.add(new Cryptocurrency(items.getJSONObject(i)));
-                }
+            // shared with a manual update running at the same time
+            String body = Bot.sharedHttp.get("https://api.coinmarketcap.com/v1/ticker/?convert=EUR", 0,
+                    TimeUnit.SECONDS).get();
+            JSONArray items = new JSONArray(StringUtils.replace(body, "null", "0"));
+            List<Cryptocurrency> data = new ArrayList<>(items.length());
+
+            for (int i = 0; i < items.length(); i++) {
+                data.add(new Cryptocurrency(items.getJSONObject(i)));
             }
 
             Map<String, Cryptocurrency> newCurrencies = new LinkedHashMap<>(data.size());
@@ -4,6 +4,8 @@ import com.google.common.collect.ImmutableList;
 import com.kdrag0n.bluestone.*;
 import com.kdrag0n.bluestone.emotes.*;
 import com.kdrag0n.bluestone.annotations.Command;
+import com.kdrag0n.bluestone.annotations.Cooldown;
+import com.kdrag0n.bluestone.enums.BucketType;
 import com.kdrag0n.bluestone.util.Strings;
 import com.kdrag0n.bluestone.util.UnisafeString;
 import gnu.trove.map.TCharObjectMap;
@@ -16,7 +18,6 @@ import net.dv8tion.jda.core.entities.Icon;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.MessageEmbed;
 import okhttp3.FormBody;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -29,7 +30,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.awt.*;
-import java.io.IOException;
+import java.io.File;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -37,6 +38,7 @@ import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -177,7 +179,8 @@ public class FunCog extends Cog {
     private static final Color BLEACH_COLOR = new Color(51, 143, 216);
     private static final MessageEmbed BLEACH_EMBED = new EmbedBuilder().setColor(BLEACH_COLOR).setTitle("Bleach")
             .setImage("https://upload.wikimedia.org/wikipedia/commons/d/d3/Clorox_Bleach_products.jpg").build();
-    private final EmoteProviderManager emoteProviderManager = new EmoteProviderManager();
+    // shared by all shards
+    private static EmoteProviderManager emoteProviderManager;
 
     private static UnisafeString uniString(String javaString) {
         return new UnisafeString(javaString);
@@ -190,11 +193,13 @@ public class FunCog extends Cog {
     public FunCog(Bot bot) {
         super(bot);
 
-        OkHttpClient http = new OkHttpClient();
-        emoteProviderManager.addProvider(new TwitchEmoteProvider(http));
-        emoteProviderManager.addProvider(new BetterTTVEmoteProvider(http));
-        emoteProviderManager.addProvider(new FrankerFaceZEmoteProvider(http));
-        emoteProviderManager.addProvider(new DiscordEmoteProvider());
+        synchronized (FunCog.class) {
+            if (emoteProviderManager == null) {
+                emoteProviderManager = new EmoteProviderManager(Bot.http, new File("data/cache/emotes.bin"),
+                        new TwitchEmoteProvider(), new BetterTTVEmoteProvider(), new FrankerFaceZEmoteProvider());
+                emoteProviderManager.addProvider(new DiscordEmoteProvider());
+            }
+        }
     }
 
     public String getName() {
@@ -264,19 +269,18 @@ public class FunCog extends Cog {
         ctx.send(BLEACH_EMBED).queue();
     }
 
-    @Command(name = "cat", desc = "Get a random cat!", thread = true, aliases = { "randcat" })
+    @Command(name = "cat", desc = "Get a random cat!", aliases = { "randcat" })
     public void cmdCat(Context ctx) {
         ctx.channel.sendTyping().queue();
 
-        try {
-            String cat = new JSONObject(
-                    Bot.http.newCall(new Request.Builder().get().url("https://random.cat/meow").build()).execute()
-                            .body().string()).optString("file", null);
-            String fact = new JSONObject(
-                    Bot.http.newCall(new Request.Builder().get().url("https://catfact.ninja/fact").build()).execute()
-                            .body().string()).optString("fact", null);
-
-            if (cat == null || fact == null) {
+        // both are random, so they can't be shared, but they can run at the same time
+        CompletableFuture<String> cat = Bot.sharedHttp.fetch("https://random.cat/meow")
+                .thenApply(body -> new JSONObject(body).optString("file", null));
+        CompletableFuture<String> fact = Bot.sharedHttp.fetch("https://catfact.ninja/fact")
+                .thenApply(body -> new JSONObject(body).optString("fact", null));
+
+        cat.thenAcceptBoth(fact, (catUrl, factText) -> {
+            if (catUrl == null || factText == null) {
                 ctx.fail("Couldn't get a cat!");
                 return;
             }
@@ -287,27 +291,27 @@ public class FunCog extends Cog {
             else
                 color = val(ctx.member.getColor()).or(Color.WHITE);
 
-            ctx.send(new EmbedBuilder().setImage(cat).setColor(color)
+            ctx.send(new EmbedBuilder().setImage(catUrl).setColor(color)
                     .setAuthor("Random Cat", null, "https://khronodragon.com/cat.png")
-                    .addField("Did You Know?", fact, false).build()).queue();
-        } catch (IOException ignored) {
+                    .addField("Did You Know?", factText, false).build()).queue();
+        }).exceptionally(e -> {
             ctx.fail("Failed to get a cat!");
-        }
+            return null;
+        });
     }
 
-    @Command(name = "dog", desc = "Get a random dog!", thread = true, aliases = { "randdog" })
+    @Command(name = "dog", desc = "Get a random dog!", aliases = { "randdog" })
     public void cmdDog(Context ctx) {
         ctx.channel.sendTyping().queue();
 
-        try {
-            String cat = new JSONObject(
-                    Bot.http.newCall(new Request.Builder().get().url("https://dog.ceo/api/breeds/image/random").build())
-                            .execute().body().string()).optString("message", null);
-            String fact = val(new JSONObject(Bot.http
-                    .newCall(new Request.Builder().get().url("https://dog-api.kinduff.com/api/facts?number=1").build())
-                    .execute().body().string()).optJSONArray("facts")).or(JSONArray::new).optString(0, null);
-
-            if (cat == null || fact == null) {
+        CompletableFuture<String> dog = Bot.sharedHttp.fetch("https://dog.ceo/api/breeds/image/random")
+                .thenApply(body -> new JSONObject(body).optString("message", null));
+        CompletableFuture<String> fact = Bot.sharedHttp.fetch("https://dog-api.kinduff.com/api/facts?number=1")
+                .thenApply(body -> val(new JSONObject(body).optJSONArray("facts")).or(JSONArray::new)
+                        .optString(0, null));
+
+        dog.thenAcceptBoth(fact, (dogUrl, factText) -> {
+            if (dogUrl == null || factText == null) {
                 ctx.fail("Couldn't get a dog!");
                 return;
             }
@@ -318,12 +322,13 @@ public class FunCog extends Cog {
             else
                 color = val(ctx.member.getColor()).or(Color.WHITE);
 
-            ctx.send(new EmbedBuilder().setImage(cat).setColor(color)
+            ctx.send(new EmbedBuilder().setImage(dogUrl).setColor(color)
                     .setAuthor("Random Dog", null, "https://khronodragon.com/dog.png")
-                    .addField("Did You Know?", fact, false).build()).queue();
-        } catch (IOException ignored) {
+                    .addField("Did You Know?", factText, false).build()).queue();
+        }).exceptionally(e -> {
             ctx.fail("Failed to get a dog!");
-        }
+            return null;
+        });
     }
 
     @Command(name = "emote", desc = "Get an emoticon, from many sources.", usage = "[emote name]")
@@ -340,14 +345,13 @@ public class FunCog extends Cog {
             return;
         }
 
-        final String url = emoteProviderManager.getFirstUrl(eName);
-        if (url == null) {
-            ctx.fail("No such emote! Twitch, Discord (custom only), FrankerFaceZ, and BetterTTV are supported.");
+        EmoteInfo info = emoteProviderManager.find(eName);
+        if (info == null) {
+            failNoEmote(ctx, eName);
             return;
         }
-        EmoteInfo info = emoteProviderManager.getFirstInfo(eName);
 
-        Bot.http.newCall(new Request.Builder().get().url(url).build()).enqueue(Bot.callback(response -> {
+        Bot.http.newCall(new Request.Builder().get().url(info.url).build()).enqueue(Bot.callback(response -> {
             Message msg = null;
 
             if (info.description != null && info.description.length() > 0) {
@@ -358,6 +362,18 @@ public class FunCog extends Cog {
         }, e -> ctx.send(Emotes.getFailure() + " Failed to fetch emote.").queue()));
     }
 
+    private void failNoEmote(Context ctx, String name) {
+        List<String> suggestions = emoteProviderManager.suggest(name, 5);
+        if (suggestions.isEmpty()) {
+            ctx.fail("No such emote! Twitch, Discord (custom only), FrankerFaceZ, and BetterTTV are supported.");
+            return;
+        }
+
+        ctx.fail(Context.filterMessage("No such emote! Did you mean " + suggestions.stream()
+                .map(s -> '`' + s.replace("`", "") + '`')
+                .collect(Collectors.joining(", ")) + '?'));
+    }
+
     @Perm.ManageEmotes
     @Command(name = "add_emote", desc = "Add an emote to the server.", usage = "[emote name]", aliases = { "addemote",
             "emoteadd", "emote_add", "+emote", "+e" }, guildOnly = true)
@@ -376,18 +392,17 @@ public class FunCog extends Cog {
             eName = ctx.args.get(1);
         final String n = eName;
 
-        final String url = emoteProviderManager.getFirstUrl(eName);
-        if (url == null) {
-            ctx.fail("No such emote! Twitch, Discord (custom only), FrankerFaceZ, and BetterTTV are supported.");
+        EmoteInfo info = emoteProviderManager.find(eName);
+        if (info == null) {
+            failNoEmote(ctx, eName);
             return;
         }
 
         ctx.channel.sendTyping().queue();
 
-        Bot.http.newCall(new Request.Builder().get().url(url).build()).enqueue(Bot.callback(response -> {
-            final String nm = url.startsWith("https://cdn.discordapp.com/emojis/")
-                    ? emoteProviderManager.getFirstInfo(n).name
-                    : n;
+        Bot.http.newCall(new Request.Builder().get().url(info.url).build()).enqueue(Bot.callback(response -> {
+            // Discord emotes are given as mentions, use their actual name
+            final String nm = info.url.startsWith("https://cdn.discordapp.com/emojis/") ? info.name : n;
 
             InputStream is = response.body().byteStream();
             Emote emote = ctx.guild.getController().createEmote(nm, Icon.from(is))
@@ -469,6 +484,7 @@ public class FunCog extends Cog {
                 ctx.invoker, ctx.rawArgs, randomChoice(ADJECTIVES))).queue();
     }
 
+    @Cooldown(scope = BucketType.CHANNEL, invocations = 2, delay = 8)
     @Command(name = "meme", desc = "Generate a custom meme.", usage = "[meme text / [top text] | [bottom text]]")
     public void cmdMeme(Context ctx) {
         if (ctx.rawArgs.length() < 2) {
@@ -1,21 +1,15 @@
 package com.kdrag0n.bluestone.cogs;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.kdrag0n.bluestone.*;
 import com.kdrag0n.bluestone.annotations.Command;
 import com.kdrag0n.bluestone.enums.MemberStatus;
-import com.kdrag0n.bluestone.errors.PassException;
 import com.kdrag0n.bluestone.util.GraphicsUtils;
 import com.kdrag0n.bluestone.util.Paginator;
 import com.kdrag0n.bluestone.util.Strings;
 import com.kdrag0n.bluestone.util.UnisafeString;
-import gnu.trove.list.TIntList;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import net.dv8tion.jda.core.EmbedBuilder;
-import net.dv8tion.jda.core.OnlineStatus;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.impl.GuildImpl;
@@ -27,19 +21,15 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.json.JSONObject;
 
-import javax.annotation.Nonnull;
 import java.awt.*;
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.time.Instant;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static com.kdrag0n.bluestone.util.NullValueWrapper.val;
-import static com.kdrag0n.bluestone.util.Strings.statify;
 import static com.kdrag0n.bluestone.util.Strings.str;
 
 public class InfoCog extends Cog {
@@ -50,35 +40,17 @@ public class InfoCog extends Cog {
             Character.DIRECTIONALITY_LEFT_TO_RIGHT_OVERRIDE, Character.DIRECTIONALITY_RIGHT_TO_LEFT_OVERRIDE };
 
     static final String SHRUG = "¯\\_(ツ)_/¯";
-    private final LoadingCache<String, EmbedBuilder> ipInfoCache = CacheBuilder.newBuilder().maximumSize(36)
-            .expireAfterAccess(6, TimeUnit.HOURS).build(new CacheLoader<String, EmbedBuilder>() {
-                @Override
-                public EmbedBuilder load(@Nonnull String key) throws IOException {
-                    String uri = "https://freegeoip.net/json/" + key;
-                    JSONObject data = new JSONObject(
-                            Bot.http.newCall(new Request.Builder().get().url(uri).build()).execute().body().string());
-
-                    String rdns;
-                    try {
-                        rdns = InetAddress.getByName(data.getString("ip")).getCanonicalHostName();
-                    } catch (UnknownHostException e) {
-                        rdns = "Couldn't find host";
-                    }
-
-                    return new EmbedBuilder().setColor(randomColor()).addField("IP", data.getString("ip"), true)
-                            .addField("Reverse DNS", rdns, true)
-                            .addField("Country",
-                                    String.format("%s (%s)", data.getString("country_name"),
-                                            data.getString("country_code")),
-                                    true)
-                            .addField("Region", "WIP", true).addField("City", data.optString("city", SHRUG), true)
-                            .addField("ZIP Code", data.optString("zip_code", SHRUG), true)
-                            .addField("Timezone", data.optString("time_zone", SHRUG), true)
-                            .addField("Longitude", data.optString("longitude", SHRUG), true)
-                            .addField("Latitude", data.optString("latitude", SHRUG), true).addField("Metro Code",
-                                    data.optInt("metro_code") != 0 ? data.optString("metro_code") : SHRUG, true);
-                }
-            });
+    private static final Map<GuildStats.Metric, String> XSTATS_LABELS = new EnumMap<>(GuildStats.Metric.class);
+
+    static {
+        XSTATS_LABELS.put(GuildStats.Metric.MEMBERS, "Members per Server");
+        XSTATS_LABELS.put(GuildStats.Metric.ONLINE_MEMBERS, "Online Members per Server");
+        XSTATS_LABELS.put(GuildStats.Metric.TEXT_CHANNELS, "Text Channels per Server");
+        XSTATS_LABELS.put(GuildStats.Metric.VOICE_CHANNELS, "Voice Channels per Server");
+        XSTATS_LABELS.put(GuildStats.Metric.CATEGORIES, "Categories per Server");
+        XSTATS_LABELS.put(GuildStats.Metric.ROLES, "Roles per Server");
+        XSTATS_LABELS.put(GuildStats.Metric.EMOTES, "Custom Emotes per Server");
+    }
 
     public InfoCog(Bot bot) {
         super(bot);
@@ -123,58 +95,38 @@ public class InfoCog extends Cog {
         }
     }
 
-    private int mCount(GuildImpl g, ShardUtil.ObjectFunctionBool<Member> fn) {
-        int c = 0;
-
-        for (Member member : g.getMembersMap().valueCollection()) {
-            if (fn.apply(member))
-                c++;
-        }
-
-        return c;
-    }
-
     @Command(name = "xstats", desc = "Get a lot of extended statistics about me.", aliases = { "xstatistics", "xinfo" })
     public void cmdXInfo(Context ctx) {
         ctx.channel.sendTyping().queue();
         ShardUtil shardUtil = bot.shardUtil;
 
-        Map<String, TIntList> stats = new LinkedHashMap<String, TIntList>() {
-            {
-                put("Members per Server", shardUtil.guildNums(g -> g.getMembersMap().size()));
-                put("Online Members per Server",
-                        shardUtil.guildNums(g -> mCount(g, m -> m.getOnlineStatus() == OnlineStatus.ONLINE)));
-                put("Text Channels per Server", shardUtil.guildNums(g -> g.getTextChannelsMap().size()));
-                put("Voice Channels per Server", shardUtil.guildNums(g -> g.getVoiceChannelsMap().size()));
-                put("Categories per Server", shardUtil.guildNums(g -> g.getCategoriesMap().size()));
-                put("Roles per Server", shardUtil.guildNums(g -> g.getRolesMap().size()));
-                put("Custom Emotes per Server", shardUtil.guildNums(g -> g.getEmoteMap().size()));
-            }
-        };
-
-        EmbedBuilder emb = newEmbedWithAuthor(ctx, "https://khronodragon.com/goldmine").setColor(randomColor())
-                .setDescription("¯\\_(ツ)_/¯").setFooter("Also try the info command!", null).setTimestamp(Instant.now());
-
-        for (Map.Entry<String, TIntList> stat : stats.entrySet()) {
-            emb.addField(stat.getKey(), statify(stat.getValue()), true);
-        }
-
-        int exclusive = shardUtil.guildCount(g -> mCount(g, m -> m.getUser().isBot()) < 2);
-        String excText = String.format("%d (%.2f%%)", exclusive,
-                ((float) exclusive / (float) shardUtil.getGuildCount()) * 100f);
-
-        int big = shardUtil.guildCount(g -> g.getMembersMap().size() >= 250);
-        String bigText = String.format("%d (%.2f%%)", big, ((float) big / (float) shardUtil.getGuildCount()) * 100f);
+        shardUtil.getGuildStats().get().thenAccept(stats -> {
+            EmbedBuilder emb = newEmbedWithAuthor(ctx, "https://khronodragon.com/goldmine").setColor(randomColor())
+                    .setDescription("¯\\_(ツ)_/¯").setFooter("Also try the info command!", null)
+                    .setTimestamp(Instant.now());
 
-        int partnered = shardUtil.guildCount(g -> g.getSplashUrl() != null || g.getRegion().isVip());
-        String partneredText = String.format("%d (%.2f%%)", partnered,
-                ((float) partnered / (float) shardUtil.getGuildCount()) * 100f);
-
-        emb.addBlankField(false).addField("Total Queue Size", str(shardUtil.getTrackCount()), true)
-                .addField("Servers where I'm the only bot", excText, true).addField("Big Servers", bigText, true)
-                .addField("Partnered Servers", partneredText, true);
+            for (Map.Entry<GuildStats.Metric, String> stat : XSTATS_LABELS.entrySet()) {
+                GuildStats.Metric metric = stat.getKey();
+                emb.addField(stat.getValue(), Strings.statify(stats.getMin(metric), stats.getAverage(metric),
+                        stats.getMax(metric)), true);
+            }
 
-        ctx.send(emb.build()).queue();
+            float guilds = stats.getGuildCount();
+            String excText = String.format("%d (%.2f%%)", stats.getOnlyBot(), (stats.getOnlyBot() / guilds) * 100f);
+            String bigText = String.format("%d (%.2f%%)", stats.getBig(), (stats.getBig() / guilds) * 100f);
+            String partneredText = String.format("%d (%.2f%%)", stats.getPartnered(),
+                    (stats.getPartnered() / guilds) * 100f);
+
+            emb.addBlankField(false).addField("Total Queue Size", str(shardUtil.getTrackCount()), true)
+                    .addField("Servers where I'm the only bot", excText, true).addField("Big Servers", bigText, true)
+                    .addField("Partnered Servers", partneredText, true);
+
+            ctx.send(emb.build()).queue();
+        }).exceptionally(e -> {
+            logger.error("Error computing guild stats", e);
+            ctx.fail("Failed to gather statistics!");
+            return null;
+        });
     }
 
     @Command(name = "serverinfo", desc = "Get loads of info about this server.", guildOnly = true, aliases = { "sinfo",
@@ -216,8 +168,8 @@ public class InfoCog extends Cog {
         ctx.send(emb.build()).queue();
     }
 
-    @Command(name = "ipinfo", desc = "Get information about an IP or domain.", aliases = { "ip" }, thread = true)
-    public void cmdIpInfo(Context ctx) throws Throwable {
+    @Command(name = "ipinfo", desc = "Get information about an IP or domain.", aliases = { "ip" })
+    public void cmdIpInfo(Context ctx) {
         if (ctx.args.empty) {
             ctx.fail("I need an IP or domain!");
             return;
@@ -226,17 +178,38 @@ public class InfoCog extends Cog {
             return;
         }
 
-        try {
-            ctx.send(ipInfoCache.get(ctx.rawArgs).setTimestamp(Instant.now())
-                    .setAuthor("IP Data", null, ctx.jda.getSelfUser().getEffectiveAvatarUrl()).build()).queue();
-        } catch (ExecutionException e) {
-            if (e.getCause() instanceof IOException) {
-                logger.error("ipinfo API error", e.getCause());
-                ctx.fail("Request failed.");
-            } else {
-                throw e.getCause();
-            }
-        }
+        Bot.sharedHttp.get("https://freegeoip.net/json/" + ctx.rawArgs, 6, TimeUnit.HOURS)
+                // reverse DNS blocks
+                .thenAcceptAsync(body -> {
+                    JSONObject data = new JSONObject(body);
+
+                    String rdns;
+                    try {
+                        rdns = InetAddress.getByName(data.getString("ip")).getCanonicalHostName();
+                    } catch (UnknownHostException e) {
+                        rdns = "Couldn't find host";
+                    }
+
+                    ctx.send(new EmbedBuilder().setColor(randomColor()).addField("IP", data.getString("ip"), true)
+                            .addField("Reverse DNS", rdns, true)
+                            .addField("Country",
+                                    String.format("%s (%s)", data.getString("country_name"),
+                                            data.getString("country_code")),
+                                    true)
+                            .addField("Region", "WIP", true).addField("City", data.optString("city", SHRUG), true)
+                            .addField("ZIP Code", data.optString("zip_code", SHRUG), true)
+                            .addField("Timezone", data.optString("time_zone", SHRUG), true)
+                            .addField("Longitude", data.optString("longitude", SHRUG), true)
+                            .addField("Latitude", data.optString("latitude", SHRUG), true).addField("Metro Code",
+                                    data.optInt("metro_code") != 0 ? data.optString("metro_code") : SHRUG, true)
+                            .setTimestamp(Instant.now())
+                            .setAuthor("IP Data", null, ctx.jda.getSelfUser().getEffectiveAvatarUrl()).build())
+                            .queue();
+                }, Bot.threadExecutor).exceptionally(e -> {
+                    logger.error("ipinfo API error", e);
+                    ctx.fail("Request failed.");
+                    return null;
+                });
     }
 
     @Command(name = "weather", desc = "Get the weather for a place.", usage = "[city]")
@@ -249,16 +222,13 @@ public class InfoCog extends Cog {
             return;
         }
 
-        Bot.http.newCall(new Request.Builder().get()
+        // same API key for every request, so they can be shared
+        Bot.sharedHttp.get(new Request.Builder().get()
                 .url(Strings.buildQueryUrl("http://api.openweathermap.org/data/2.5/find", "q", ctx.rawArgs, "type",
                         "like", "units", "imperial"))
-                .header("X-API-Key", bot.getKeys().getString("openweathermap")).build())
-                .enqueue(Bot.callback(response -> {
-                    if (!response.isSuccessful()) {
-                        throw new PassException();
-                    }
-
-                    JSONObject root = new JSONObject(response.body().string());
+                .header("X-API-Key", bot.getKeys().getString("openweathermap")).build(), 10, TimeUnit.MINUTES)
+                .thenAccept(body -> {
+                    JSONObject root = new JSONObject(body);
 
                     if (root.optInt("count") > 0 && root.getJSONArray("list").length() > 0) {
                         JSONObject data = root.getJSONArray("list").getJSONObject(0);
@@ -307,6 +277,9 @@ public class InfoCog extends Cog {
 
                         ctx.send(emb.build()).queue();
                     }
-                }, e -> ctx.send(Emotes.getFailure() + " Failed to get weather for that location!").queue()));
+                }).exceptionally(e -> {
+                    ctx.send(Emotes.getFailure() + " Failed to get weather for that location!").queue();
+                    return null;
+                });
     }
 }
@@ -1,22 +1,21 @@
 package com.kdrag0n.bluestone.cogs;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.hash.HashCode;
 import com.j256.ormlite.dao.Dao;
 import com.kdrag0n.bluestone.Bot;
 import com.kdrag0n.bluestone.Cog;
 import com.kdrag0n.bluestone.Context;
+import com.kdrag0n.bluestone.ImageCache;
 import com.kdrag0n.bluestone.Perm;
+import com.kdrag0n.bluestone.ProfileRenderer;
 import com.kdrag0n.bluestone.annotations.Command;
-import com.kdrag0n.bluestone.annotations.EventHandler;
+import com.kdrag0n.bluestone.annotations.Cooldown;
+import com.kdrag0n.bluestone.enums.BucketType;
 import com.kdrag0n.bluestone.enums.ProfileFlags;
 import com.kdrag0n.bluestone.sql.UserProfile;
 import com.kdrag0n.bluestone.util.GraphicsUtils;
 import com.kdrag0n.bluestone.util.StackUtil;
 import com.kdrag0n.bluestone.util.Strings;
-import gnu.trove.iterator.TIntIterator;
 import gnu.trove.list.TIntList;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
@@ -25,34 +24,24 @@ import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.entities.impl.GuildImpl;
-import net.dv8tion.jda.core.events.user.update.UserUpdateAvatarEvent;
 import net.dv8tion.jda.core.exceptions.ErrorResponseException;
 import net.dv8tion.jda.core.utils.MiscUtil;
 import okhttp3.Request;
-import okhttp3.ResponseBody;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.text.WordUtils;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.json.JSONArray;
 
-import javax.annotation.Nonnull;
 import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.font.TextAttribute;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
-import java.text.AttributedCharacterIterator;
-import java.text.AttributedString;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -61,142 +50,33 @@ public class KewlCog extends Cog {
     private static final Pattern DATE_WEEKDAY_PATTERN = Pattern
             .compile("^The date [0-9 a-zA-Z]+ is not a ([MTWFS][a-z]+), but a ([MTWFS][a-z]+)\\.$");
 
-    private static final int PROFILE_WIDTH = 1600;
-    private static final int PROFILE_HEIGHT = 1000;
-    private static final String PROFILE_FONT = "Lato";
     private static final String[] PROFILE_QUESTIONS = { "What's your favorite color?", "What's your favorite food?",
             "What do you want people to know about you?", "What do you like to do?",
             "What are some neat things you've done?", "Tell me a little bit more about yourself." };
     private static volatile boolean hasWarmedUp = false;
-    private final LoadingCache<User, byte[]> profileCache = CacheBuilder.newBuilder().concurrencyLevel(2)
-            .initialCapacity(8).maximumSize(36).expireAfterWrite(12, TimeUnit.HOURS)
-            .build(new CacheLoader<User, byte[]>() {
-                @Override
-                public byte[] load(@Nonnull User user) throws Exception {
-                    ResponseBody imgBody = Bot.http
-                            .newCall(
-                                    new Request.Builder().get().url(user.getEffectiveAvatarUrl() + "?size=256").build())
-                            .execute().body();
-                    BufferedImage avatar = ImageIO.read(imgBody.byteStream());
-                    imgBody.close();
-
-                    BufferedImage bg;
-                    File bgFile = new File("data/profiles/bg/" + user.getIdLong() + ".png");
-                    if (bgFile.exists())
-                        bg = ImageIO.read(bgFile);
-                    else
-                        bg = ImageIO.read(FunCog.class.getResourceAsStream("/assets/default_profile_bg.png"));
-
-                    // Card image
-                    BufferedImage card = new BufferedImage(PROFILE_WIDTH, PROFILE_HEIGHT, BufferedImage.TYPE_INT_RGB);
-                    Graphics2D g2d = card.createGraphics();
-
-                    // Everything here is layered
-                    g2d.drawImage(bg, 0, 0, null); // user background
-
-                    // Info box top
-                    g2d.setColor(new Color(255, 255, 255, 224));
-                    g2d.fillRoundRect(400, 120, 1080, 262, 24, 24);
-
-                    g2d.setColor(new Color(255, 255, 255, 255));
-                    g2d.fillRoundRect(400, 100, 1080, 168, 24, 24);
-
-                    // Avatar box
-                    g2d.setColor(new Color(80, 80, 80, 255));
-                    g2d.fillRoundRect(118, 118, 268, 268, 8, 8);
-                    g2d.drawImage(avatar, 124, 124, 256, 256, null);
-
-                    // Font rendering hints
-                    g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
-                            RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-                    g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                            RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB);
-
-                    // Profile info
-                    g2d.setColor(new Color(74, 144, 226, 255));
-                    g2d.drawString(fstr(user.getName(), new Font(PROFILE_FONT, Font.BOLD, 64)), 420, 192);
-                    g2d.drawString(fstr('@' + getTag(user), new Font(PROFILE_FONT, Font.PLAIN, 36)), 420, 248);
-
-                    // Flags
-                    TIntList flags = ProfileFlags.getFlags(bot, user);
-                    TIntIterator iterator = flags.iterator();
-                    int flagI = 0;
-
-                    while (iterator.hasNext()) {
-                        int flag = iterator.next();
-                        Class<FunCog> cl = FunCog.class;
-                        int startx = (540 - (60 * flags.size())) / 2;
-                        InputStream iconStream;
-
-                        switch (flag) {
-                        case ProfileFlags.BOT_OWNER:
-                            iconStream = cl.getResourceAsStream("/assets/owner.png");
-                            break;
-                        case ProfileFlags.BOT_ADMIN:
-                            iconStream = cl.getResourceAsStream("/assets/key.png");
-                            break;
-                        case ProfileFlags.PATREON_SUPPORTER:
-                            iconStream = cl.getResourceAsStream("/assets/patreon.png");
-                            break;
-                        default:
-                            iconStream = cl.getResourceAsStream("/assets/unknown.png");
-                            break;
-                        }
-
-                        g2d.drawImage(ImageIO.read(iconStream), 674 + startx + (60 * flagI), 292, null);
-
-                        flagI++;
-                    }
-
-                    // Info box bottom
-                    g2d.setColor(new Color(255, 255, 255, 218));
-                    g2d.fillRoundRect(120, 400, 1360, 500, 32, 32);
-
-                    // render text
-                    g2d.setColor(new Color(74, 144, 226, 255));
-                    UserProfile profile = profileDao.queryForId(user.getIdLong());
-                    if (profile != null) {
-                        try {
-                            JSONArray pairs = new JSONArray(profile.getQuestionValues());
-                            g2d.setFont(new Font(PROFILE_FONT, Font.PLAIN, 24));
-
-                            for (int i = 0; i < pairs.length(); i++) {
-                                JSONArray pairData = pairs.getJSONArray(i);
-                                int x = i < 5 ? 136 : 850;
-                                int iMinusN = i < 5 ? 1 : 6;
-
-                                drawMLString(g2d,
-                                        "[B]" + WordUtils.wrap(pairData.getString(0), 50, "\n", true) + "[/B]\n"
-                                                + WordUtils.wrap(pairData.getString(1), 55, "\n", true),
-                                        x, 504 + ((i - iMinusN) * 96));
-                            }
-                        } catch (Throwable e) {
-                            logger.error("Error drawing user profile questions", e);
-                            g2d.setFont(new Font(PROFILE_FONT, Font.BOLD, 84));
-                            g2d.setColor(new Color(244, 10, 1, 255));
-                            drawMLString(g2d, "An error occurred rendering\nor loading this section!", 160, 440);
-                        }
-                    } else {
-                        g2d.setFont(new Font(PROFILE_FONT, Font.BOLD, 80));
-                        drawMLString(g2d, "This user hasn't set up their\nprofile yet!\n(╯°□°）╯︵ ┻━─┬\uFEFF ノ( ゜-゜ノ)",
-                                160, 440);
-                    }
-
-                    g2d.dispose();
-
-                    ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                    ImageIO.write(card, "png", stream);
-
-                    return stream.toByteArray();
-                }
-            });
+    private static ProfileRenderer renderer;
     private static final TLongSet profileSetupSessions = new TLongHashSet();
     private final Dao<UserProfile, Long> profileDao;
+    private final ImageCache imageCache;
 
     public KewlCog(Bot bot) {
         super(bot);
 
         profileDao = setupDao(UserProfile.class);
+        imageCache = bot.shardUtil.getImageCache();
+
+        synchronized (KewlCog.class) {
+            if (renderer == null) {
+                try {
+                    renderer = new ProfileRenderer(
+                            bot.getConfig().optInt("profile_render_threads",
+                                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                            (float) bot.getConfig().optDouble("profile_png_quality", -1));
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to load profile assets", e);
+                }
+            }
+        }
 
         if (!hasWarmedUp) {
             hasWarmedUp = true;
@@ -204,11 +84,11 @@ public class KewlCog extends Cog {
             Thread thread = new Thread(() -> {
                 User user = bot.jda.getSelfUser();
 
+                // straight to the renderer, the cache would only render once
                 for (short i = 0; i < 8; i++) {
-                    profileCache.invalidate(user);
-
                     try {
-                        profileCache.get(user);
+                        renderer.render(user.getEffectiveAvatarUrl(), user.getName(), getTag(user),
+                                ProfileFlags.getFlags(bot, user), null, backgroundFile(user.getIdLong())).get();
                     } catch (Exception ignored) {
                     }
                 }
@@ -232,6 +112,7 @@ public class KewlCog extends Cog {
         return "All the kewl extensions belong here.";
     }
 
+    @Cooldown(scope = BucketType.USER, invocations = 2, delay = 10)
     @Command(name = "profile", desc = "Display a user's profile.", usage = "[user / \"setup\" / \"bg\"]", thread = true)
     public void cmdProfile(Context ctx) throws SQLException {
         User user;
@@ -283,8 +164,8 @@ public class KewlCog extends Cog {
 
         byte[] data;
         try {
-            data = profileCache.get(user);
-        } catch (ExecutionException | UncheckedExecutionException e) {
+            data = getProfile(user);
+        } catch (Exception e) {
             logger.warn("Error rendering profile", e);
             ctx.fail("Failed to render profile!");
             return;
@@ -293,50 +174,27 @@ public class KewlCog extends Cog {
         ctx.channel.sendFile(data, "profile.png", null).queue();
     }
 
-    private static AttributedCharacterIterator fstr(String text, Font font) {
-        Font fallbackFont = null;
-
-        int textLength = text.length();
+    private byte[] getProfile(User user) throws Exception {
+        UserProfile profile = profileDao.queryForId(user.getIdLong());
+        String questionValues = profile == null ? null : profile.getQuestionValues();
+        TIntList flags = ProfileFlags.getFlags(bot, user);
 
-        if (text.startsWith("[B]") && text.endsWith("[/B]")) {
-            text = text.substring(3, textLength - 4);
-            textLength -= 7;
-            font = new Font(font.getName(), Font.BOLD, font.getSize());
-        }
-
-        AttributedString result = new AttributedString(text);
-        result.addAttribute(TextAttribute.FONT, font, 0, textLength);
-
-        boolean fallback = false;
-        int fallbackBegin = 0;
-        for (int i = 0; i < text.length(); i++) {
-            boolean curFallback = !font.canDisplay(text.charAt(i));
-
-            if (curFallback != fallback) {
-                fallback = curFallback;
-
-                if (fallback) {
-                    fallbackBegin = i;
-                } else {
-                    if (fallbackFont == null)
-                        fallbackFont = new Font("SansSerif", font.getStyle(), font.getSize());
-
-                    result.addAttribute(TextAttribute.FONT, fallbackFont, fallbackBegin, i);
-                }
-            }
-        }
-
-        return result.getIterator();
+        return imageCache.get(profileKey(user, flags, questionValues),
+                () -> renderer.render(user.getEffectiveAvatarUrl(), user.getName(), getTag(user), flags,
+                        questionValues, backgroundFile(user.getIdLong())).get());
     }
 
-    private static void drawMLString(Graphics2D g2d, String text, int x, int y) {
-        for (String line : StringUtils.split(text, '\n'))
-            g2d.drawString(fstr(line, g2d.getFont()), x, y += g2d.getFontMetrics().getHeight());
+    /**
+     * The cache key of a profile card. It covers everything shown on the card, so changes to any of it are picked
+     * up without invalidating anything.
+     */
+    private HashCode profileKey(User user, TIntList flags, String questionValues) {
+        return ImageCache.key("profile", ProfileRenderer.VERSION, user.getEffectiveAvatarUrl(), user.getName(),
+                getTag(user), flags, questionValues, backgroundFile(user.getIdLong()).lastModified());
     }
 
-    @EventHandler
-    public void onUserUpdateAvatar(UserUpdateAvatarEvent event) {
-        profileCache.invalidate(event.getUser());
+    private static File backgroundFile(long userId) {
+        return new File("data/profiles/bg/" + userId + ".png");
     }
 
     @Command(name = "profilesetup", desc = "Set up your personal user profile.", thread = true)
@@ -398,7 +256,6 @@ public class KewlCog extends Cog {
                 profile.setQuestionValues(answers.toString());
 
             profileDao.createOrUpdate(profile);
-            profileCache.invalidate(ctx.author);
 
             ctx.send(
                     "**Thank you for completing the profile setup!**\nYou may now check your profile using the `profile` command.\n**Tip**: If you want to change your profile background, use `profile bg` or `set_profile_bg`.")
@@ -415,7 +272,7 @@ public class KewlCog extends Cog {
         Message.Attachment attachment;
 
         if (a.equalsIgnoreCase("reset") || a.equalsIgnoreCase("default")) {
-            File path = new File("data/profiles/bg/" + ctx.author.getIdLong() + ".png");
+            File path = backgroundFile(ctx.author.getIdLong());
 
             if (path.exists()) {
                 if (path.delete()) {
@@ -443,10 +300,9 @@ public class KewlCog extends Cog {
                     image = newImage;
                 }
 
-                image = GraphicsUtils.resizeImage(image, PROFILE_WIDTH, PROFILE_HEIGHT);
+                image = GraphicsUtils.resizeImage(image, ProfileRenderer.WIDTH, ProfileRenderer.HEIGHT);
 
-                ImageIO.write(image, "png", new File("data/profiles/bg/" + ctx.author.getIdLong() + ".png"));
-                profileCache.invalidate(ctx.author);
+                ImageIO.write(image, "png", backgroundFile(ctx.author.getIdLong()));
 
                 ctx.success("Background set.");
             } catch (IOException | NullPointerException | IllegalArgumentException ignored) {
@@ -500,7 +356,15 @@ public class KewlCog extends Cog {
         }
 
         ctx.jda.retrieveUserById(target).queue(user -> {
-            profileCache.invalidate(user);
+            try {
+                UserProfile profile = profileDao.queryForId(target);
+                imageCache.remove(profileKey(user, ProfileFlags.getFlags(bot, user),
+                        profile == null ? null : profile.getQuestionValues()));
+            } catch (SQLException e) {
+                ctx.fail("Error looking up profile.\n```java" + StackUtil.renderStackTrace(e) + "```");
+                return;
+            }
+
             ctx.success("Invalidated cached profile for user `" + target + "`.");
         }, e -> ctx.fail("Error retrieving user.\n```java" + StackUtil.renderStackTrace(e) + "```"));
     }
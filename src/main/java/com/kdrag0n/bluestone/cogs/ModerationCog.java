@@ -4,10 +4,14 @@ import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.stmt.DeleteBuilder;
 import com.kdrag0n.bluestone.*;
 import com.kdrag0n.bluestone.annotations.Command;
+import com.kdrag0n.bluestone.annotations.Cooldown;
 import com.kdrag0n.bluestone.annotations.EventHandler;
 import com.kdrag0n.bluestone.enums.AutoroleConditions;
+import com.kdrag0n.bluestone.enums.BucketType;
+import com.kdrag0n.bluestone.enums.EventOverflow;
 import com.kdrag0n.bluestone.errors.PassException;
 import com.kdrag0n.bluestone.sql.GuildAutorole;
+import com.kdrag0n.bluestone.util.LongLruCache;
 import com.kdrag0n.bluestone.util.Strings;
 import gnu.trove.list.TLongList;
 import gnu.trove.list.linked.TLongLinkedList;
@@ -19,6 +23,7 @@ import net.dv8tion.jda.core.entities.*;
 import net.dv8tion.jda.core.events.guild.member.GuildMemberJoinEvent;
 import net.dv8tion.jda.core.exceptions.ErrorResponseException;
 import net.dv8tion.jda.core.exceptions.InsufficientPermissionException;
+import net.dv8tion.jda.core.requests.RestAction;
 import net.dv8tion.jda.core.utils.MiscUtil;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
@@ -30,8 +35,12 @@ import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -66,6 +75,8 @@ public class ModerationCog extends Cog {
     private static final Field embDescription;
     private final TLongSet archivingGuilds = new TLongHashSet();
     private final Dao<GuildAutorole, Long> autoroleDao;
+    private final LongLruCache<List<GuildAutorole>> autoroleCache = new LongLruCache<>(2048);
+    private final RestPipeline autoroleQueue = new RestPipeline("Autorole", 2);
 
     static {
         try {
@@ -93,7 +104,7 @@ public class ModerationCog extends Cog {
         return "Some handy moderation tools.";
     }
 
-    @EventHandler(threaded = true)
+    @EventHandler(threaded = true, overflow = EventOverflow.KEEP)
     public void onMemberJoin(GuildMemberJoinEvent event) throws SQLException {
         if (!event.getGuild().getSelfMember().hasPermission(Permission.MANAGE_ROLES))
             return;
@@ -116,13 +127,43 @@ public class ModerationCog extends Cog {
                 toAdd.add(role);
         }
 
-        if (toAdd.size() > 0)
-            event.getGuild().getController().addRolesToMember(event.getMember(), toAdd)
-                    .reason("Autorole: new member matched specified conditions for role(s)").queue();
+        if (toAdd.size() > 0) {
+            Guild guild = event.getGuild();
+            Member member = event.getMember();
+
+            autoroleQueue.submit(guild.getIdLong(), () -> {
+                // left before we got to them, e.g. kicked during a raid
+                if (!guild.isMember(member.getUser()))
+                    return null;
+
+                return guild.getController().addRolesToMember(member, toAdd)
+                        .reason("Autorole: new member matched specified conditions for role(s)");
+            });
+        }
     }
 
     private List<GuildAutorole> autorolesFor(long guildId) throws SQLException {
-        return autoroleDao.queryBuilder().where().eq("guildId", guildId).query();
+        List<GuildAutorole> autoroles = autoroleCache.get(guildId);
+        if (autoroles != null)
+            return autoroles;
+
+        autoroles = queryAutoroles(guildId);
+        // a command may have cached a newer list in the meantime
+        if (!autoroleCache.putIfAbsent(guildId, autoroles)) {
+            List<GuildAutorole> cached = autoroleCache.get(guildId);
+            if (cached != null)
+                return cached;
+        }
+
+        return autoroles;
+    }
+
+    private List<GuildAutorole> queryAutoroles(long guildId) throws SQLException {
+        return Collections.unmodifiableList(autoroleDao.queryBuilder().where().eq("guildId", guildId).query());
+    }
+
+    private void refreshAutoroles(long guildId) throws SQLException {
+        autoroleCache.put(guildId, queryAutoroles(guildId));
     }
 
     private String match(Pattern pattern, String input, Consumer<Matcher> func) {
@@ -143,6 +184,7 @@ public class ModerationCog extends Cog {
         return pattern.matcher(input).replaceAll(" ");
     }
 
+    @Cooldown(scope = BucketType.CHANNEL, delay = 5)
     @Perm.Combo.ManageMessagesAndReadHistory
     @Command(name = "purge", desc = "Purge messages from a channel.", guildOnly = true, aliases = { "clean", "nuke",
             "prune", "clear" }, usage = "[parameters]", thread = true)
@@ -200,73 +242,155 @@ public class ModerationCog extends Cog {
         boolean none = substrings.isEmpty() && pattern == null && userIds.isEmpty() && !bots && !embeds && !links
                 && !attachments;
 
-        String twoWeekWarn = "";
-        OffsetDateTime maxAge = ctx.message.getCreationTime().minusWeeks(2).plusMinutes(1);
-        List<Message> toDelete = new LinkedList<>();
+        Message status = null;
+        if (limit > 100)
+            status = ctx.send("⌛ Purging messages...").complete();
 
-        for (Message msg : channel.getIterableHistory()) {
-            if (toDelete.size() >= limit)
-                break;
+        Predicate<Message> filter = none ? msg -> true
+                : purgeFilter(substrings, userIds, pattern, bots, embeds, links, attachments);
+        if (status != null) {
+            long statusId = status.getIdLong();
+            filter = filter.and(msg -> msg.getIdLong() != statusId);
+        }
 
-            if (msg.getCreationTime().isBefore(maxAge)) {
-                twoWeekWarn = "\n:vertical_traffic_light: *Some messages may not have been deleted, because they were more than 2 weeks old.*";
+        String twoWeekWarn = "";
+        OffsetDateTime maxAge = ctx.message.getCreationTime().minusWeeks(2).plusMinutes(1);
+        MessageHistory history = channel.getHistory();
+        CompletableFuture<List<Message>> nextPage = fetchPurgePage(history);
+        List<Message> batch = new ArrayList<>(100);
+        List<CompletableFuture<Integer>> deletes = new ArrayList<>();
+        AtomicInteger deleted = new AtomicInteger();
+        int matched = 0;
+        int shownProgress = 0;
+
+        pages:
+        while (nextPage != null) {
+            List<Message> page;
+            try {
+                page = nextPage.join();
+            } catch (CompletionException e) {
+                logger.warn("Error fetching history for purge", e.getCause());
                 break;
             }
 
-            if (none || userIds.contains(msg.getAuthor().getIdLong()) || (bots && msg.getAuthor().isBot())
-                    || (embeds && !msg.getEmbeds().isEmpty()) || (attachments && !msg.getAttachments().isEmpty())
-                    || (links && PURGE_LINK_PATTERN.matcher(msg.getContentRaw()).find())) {
-                toDelete.add(msg);
-                continue;
-            }
+            // fetch the next page while this one is filtered and deleted
+            nextPage = page.size() < 100 ? null : fetchPurgePage(history);
 
-            if (substrings.stream().anyMatch(ss -> msg.getContentRaw().toLowerCase().contains(ss))) {
-                toDelete.add(msg);
-                continue;
+            for (Message msg : page) {
+                if (msg.getCreationTime().isBefore(maxAge)) {
+                    twoWeekWarn = "\n:vertical_traffic_light: *Some messages may not have been deleted, because they were more than 2 weeks old.*";
+                    break pages;
+                }
+
+                if (!filter.test(msg))
+                    continue;
+
+                batch.add(msg);
+                if (++matched >= limit)
+                    break pages;
+
+                if (batch.size() == 100) {
+                    deletes.add(deletePurgeBatch(channel, batch, deleted));
+                    batch = new ArrayList<>(100);
+                }
             }
 
-            if (pattern != null && pattern.matcher(msg.getContentRaw()).matches())
-                toDelete.add(msg);
+            if (status != null && deleted.get() != shownProgress) {
+                shownProgress = deleted.get();
+                status.editMessage("⌛ Purging messages... **" + shownProgress + "** deleted so far.").queue();
+            }
         }
 
-        if (toDelete.isEmpty()) {
+        if (nextPage != null)
+            nextPage.cancel(false);
+        if (!batch.isEmpty())
+            deletes.add(deletePurgeBatch(channel, batch, deleted));
+
+        if (deletes.isEmpty()) {
+            if (status != null)
+                status.delete().queue(null, exp -> {});
+
             ctx.fail("No messages match your criteria!");
             return;
         }
 
-        if (toDelete.size() == 1) {
-            try {
-                toDelete.get(0).delete().reason("Purge command - deleting a single message").complete();
-            } catch (ErrorResponseException ignored) {
-            }
-        } else if (toDelete.size() <= 100) {
-            try {
-                channel.deleteMessages(toDelete).complete();
-            } catch (ErrorResponseException ignored) {
-            }
-        } else {
-            for (int i = 0; i <= toDelete.size(); i += 99) {
-                List<Message> list = toDelete.subList(i, Math.min(i + 99, toDelete.size()));
-                if (list.isEmpty())
-                    break;
-
-                if (list.size() == 1)
-                    try {
-                        toDelete.get(0).delete().reason("Purge command - deleting a single message").complete();
-                    } catch (ErrorResponseException ignored) {
-                    }
-                else
-                    try {
-                        channel.deleteMessages(list).complete();
-                    } catch (ErrorResponseException ignored) {
-                    }
-            }
+        CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0])).join();
+
+        String k = deleted.get() == 1 ? "" : "s";
+        String result = Emotes.getSuccess() + " Deleted **" + deleted.get() + "** message" + k + '!' + twoWeekWarn;
+        Consumer<Message> deleteLater = msg -> msg.delete().queueAfter(2, TimeUnit.SECONDS, null, exp -> {
+        });
+
+        if (status == null)
+            ctx.send(result).queue(deleteLater);
+        else
+            status.editMessage(result).queue(deleteLater);
+    }
+
+    private Predicate<Message> purgeFilter(List<String> substrings, TLongList userIds, Pattern pattern, boolean bots,
+                                           boolean embeds, boolean links, boolean attachments) {
+        List<Predicate<Message>> criteria = new ArrayList<>();
+
+        if (!userIds.isEmpty()) {
+            TLongSet users = new TLongHashSet(userIds);
+            criteria.add(msg -> users.contains(msg.getAuthor().getIdLong()));
+        }
+        if (bots)
+            criteria.add(msg -> msg.getAuthor().isBot());
+        if (embeds)
+            criteria.add(msg -> !msg.getEmbeds().isEmpty());
+        if (attachments)
+            criteria.add(msg -> !msg.getAttachments().isEmpty());
+        if (links)
+            criteria.add(msg -> PURGE_LINK_PATTERN.matcher(msg.getContentRaw()).find());
+
+        if (!substrings.isEmpty()) {
+            // one case-insensitive pass over the content, instead of lowercasing it for every substring
+            StringJoiner alternatives = new StringJoiner("|");
+            for (String substring : substrings)
+                alternatives.add(Pattern.quote(substring));
+
+            Pattern substringPattern = Pattern.compile(alternatives.toString(),
+                    Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            criteria.add(msg -> substringPattern.matcher(msg.getContentRaw()).find());
         }
 
-        String k = toDelete.size() == 1 ? "" : "s";
-        ctx.send(Emotes.getSuccess() + " Deleted **" + toDelete.size() + "** message" + k + '!' + twoWeekWarn)
-                .queue(msg -> msg.delete().queueAfter(2, TimeUnit.SECONDS, null, exp -> {
-                }));
+        if (pattern != null)
+            criteria.add(msg -> pattern.matcher(msg.getContentRaw()).matches());
+
+        return msg -> {
+            for (Predicate<Message> criterion : criteria) {
+                if (criterion.test(msg))
+                    return true;
+            }
+
+            return false;
+        };
+    }
+
+    private static CompletableFuture<List<Message>> fetchPurgePage(MessageHistory history) {
+        CompletableFuture<List<Message>> page = new CompletableFuture<>();
+        history.retrievePast(100).queue(page::complete, page::completeExceptionally);
+        return page;
+    }
+
+    private static CompletableFuture<Integer> deletePurgeBatch(TextChannel channel, List<Message> batch,
+                                                              AtomicInteger deleted) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        RestAction<Void> action = batch.size() == 1
+                ? batch.get(0).delete().reason("Purge command - deleting a single message")
+                : channel.deleteMessages(batch);
+
+        action.queue(v -> {
+            deleted.addAndGet(batch.size());
+            result.complete(batch.size());
+        }, e -> {
+            if (!(e instanceof ErrorResponseException))
+                logger.warn("Error deleting messages for purge", e);
+            result.complete(0);
+        });
+
+        return result;
     }
 
     @Perm.ManageRoles
@@ -587,6 +711,7 @@ public class ModerationCog extends Cog {
 
         GuildAutorole autorole = new GuildAutorole(role.getIdLong(), ctx.guild.getIdLong(), 0, "{}");
         autoroleDao.create(autorole);
+        refreshAutoroles(ctx.guild.getIdLong());
 
         ctx.success("Role added to autoroles.");
     }
@@ -599,6 +724,7 @@ public class ModerationCog extends Cog {
         }
 
         autoroleDao.deleteById(role.getIdLong());
+        refreshAutoroles(ctx.guild.getIdLong());
 
         ctx.success("Role removed from autoroles.");
     }
@@ -607,6 +733,7 @@ public class ModerationCog extends Cog {
         DeleteBuilder builder = autoroleDao.deleteBuilder();
         builder.where().eq("guildId", ctx.guild.getIdLong());
         int deleted = builder.delete();
+        refreshAutoroles(ctx.guild.getIdLong());
 
         ctx.success("Cleared " + deleted + " autoroles.");
     }
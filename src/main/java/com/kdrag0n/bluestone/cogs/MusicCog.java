@@ -77,6 +77,10 @@ public class MusicCog extends Cog {
     }
 
     public void unload() {
+        audioStates.forEachValue(state -> {
+            state.scheduler.release();
+            return true;
+        });
         playerManager.shutdown();
         bgExecutor.shutdown();
         super.unload();
@@ -106,6 +110,19 @@ public class MusicCog extends Cog {
         return num;
     }
 
+    /**
+     * Have every scheduler correct what it has reported to the shard stats.
+     */
+    public void recountStats() {
+        for (AudioState state : audioStates.valueCollection()) {
+            state.scheduler.updateStats();
+        }
+    }
+
+    public ShardStats getStats() {
+        return bot.shardUtil.getStats();
+    }
+
     public int getActiveStreamCount() {
         int num = 0;
 
@@ -170,6 +187,7 @@ public class MusicCog extends Cog {
                 state.guild.getAudioManager().closeAudioConnection();
                 state.guild.getAudioManager().setSendingHandler(new DummySendHandler());
                 audioStates.remove(guildId);
+                state.scheduler.release();
 
                 return true;
             }
@@ -186,6 +204,7 @@ public class MusicCog extends Cog {
                 state.guild.getAudioManager().closeAudioConnection();
                 state.guild.getAudioManager().setSendingHandler(new DummySendHandler());
                 audioStates.remove(guildId);
+                state.scheduler.release();
             }
 
             return true;
@@ -450,7 +469,9 @@ public class MusicCog extends Cog {
 
         ctx.guild.getAudioManager().closeAudioConnection();
         ctx.guild.getAudioManager().setSendingHandler(new DummySendHandler());
-        audioStates.remove(ctx.guild.getIdLong());
+        AudioState state = audioStates.remove(ctx.guild.getIdLong());
+        if (state != null)
+            state.scheduler.release();
 
         if (ctx.invoker.equals("stop"))
             ctx.send("Stopped.").queue();
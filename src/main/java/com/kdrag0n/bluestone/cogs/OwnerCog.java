@@ -18,7 +18,12 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.kdrag0n.bluestone.util.NullValueWrapper.val;
 
@@ -128,11 +133,10 @@ public class OwnerCog extends Cog {
             if (!ctx.flag) {
                 ctx.flag = true;
 
-                Collection<Bot> shards = bot.shardUtil.getShards();
-                shards.remove(ctx.bot);
+                Bot self = ctx.bot;
 
-                for (Bot b : shards) {
-                    if (b.cogs.containsKey("Owner")) {
+                for (Bot b : bot.shardUtil.getShards()) {
+                    if (b != self && b.cogs.containsKey("Owner")) {
                         ctx.bot = b;
                         ctx.jda = b.jda;
                         ((OwnerCog) b.cogs.get("Owner")).cmdBroadcast(ctx);
@@ -261,4 +265,77 @@ public class OwnerCog extends Cog {
             ctx.fail("Failed to load list.");
         }
     }
+
+    @Perm.Owner
+    @Command(name = "eventstats", desc = "Show how long cog event handlers take.", aliases = { "estats" })
+    public void cmdEventStats(Context ctx) {
+        List<EventBus.HandlerStats> handlers = new ArrayList<>(EventBus.getStats());
+        handlers.sort(Comparator.comparingDouble((EventBus.HandlerStats h) ->
+                h.latency.getMean(TimeUnit.MICROSECONDS) * h.getInvocations()).reversed());
+
+        MessageBuilder result = new MessageBuilder().append("```css\n");
+        for (EventBus.HandlerStats h : handlers) {
+            result.append(h.name).append(" | Calls: ").append(h.getInvocations())
+                    .append(" | Errors: ").append(h.getErrors())
+                    .append(" | Drops: ").append(h.getDrops())
+                    .append(" | p50: ").append(h.latency.getValueAtPercentile(50, TimeUnit.MICROSECONDS))
+                    .append("us | p99: ").append(h.latency.getValueAtPercentile(99, TimeUnit.MICROSECONDS))
+                    .append("us | Max: ").append(h.latency.getMax(TimeUnit.MICROSECONDS)).append("us\n");
+        }
+
+        result.append("\nQueued: ").append(Bot.eventScheduler.getQueueDepth())
+                .append(" | Dropped: ").append(Bot.eventScheduler.getDrops())
+                .append("\nMost dropped since last check:\n");
+        Bot.eventScheduler.drainDropsByGuild().entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Long, LongAdder> e) -> e.getValue().sum()).reversed())
+                .limit(5)
+                .forEach(e -> result.append(e.getKey()).append(" | Dropped: ").append(e.getValue().sum()).append('\n'));
+        result.append("```");
+
+        ctx.send(result.build()).queue();
+    }
+
+    @Perm.Owner
+    @Command(name = "metrics", desc = "Show the bot's metrics, optionally only those starting with a prefix.",
+            usage = "{prefix}", aliases = { "mstats" })
+    public void cmdMetrics(Context ctx) {
+        String prefix = ctx.rawArgs;
+        List<String> lines = new ArrayList<>();
+
+        Metrics.getTimers().forEach((name, timer) -> {
+            if (name.startsWith(prefix) && timer.getCount() > 0)
+                lines.add(name + " | Count: " + timer.getCount()
+                        + " | p50: " + timer.getValueAtPercentile(50, TimeUnit.MICROSECONDS)
+                        + "us | p99: " + timer.getValueAtPercentile(99, TimeUnit.MICROSECONDS) + "us");
+        });
+        Metrics.getCounters().forEach((name, counter) -> {
+            if (name.startsWith(prefix))
+                lines.add(name + " | " + counter.sum());
+        });
+        Metrics.getGauges().forEach((name, gauge) -> {
+            if (name.startsWith(prefix)) {
+                try {
+                    lines.add(name + " | " + gauge.getAsDouble());
+                } catch (RuntimeException ignored) {
+                }
+            }
+        });
+
+        if (lines.isEmpty()) {
+            ctx.fail("No matching metrics.");
+            return;
+        }
+
+        // stay under the message length limit
+        StringBuilder chunk = new StringBuilder("```css\n");
+        for (String line : lines) {
+            if (chunk.length() + line.length() > 1990) {
+                ctx.send(chunk.append("```").toString()).queue();
+                chunk = new StringBuilder("```css\n");
+            }
+
+            chunk.append(line).append('\n');
+        }
+        ctx.send(chunk.append("```").toString()).queue();
+    }
 }
@@ -10,6 +10,7 @@ import com.kdrag0n.bluestone.annotations.Command;
 import com.kdrag0n.bluestone.emotes.DiscordEmoteProvider;
 import com.kdrag0n.bluestone.sql.ActivePoll;
 import com.kdrag0n.bluestone.util.RegexUtils;
+import com.kdrag0n.bluestone.util.TimerWheel;
 import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Emote;
@@ -39,6 +40,7 @@ public class PollCog extends Cog {
             Pattern.CASE_INSENSITIVE);
     private static final Pattern CONTIGUOUS_SPACE_PATTERN = Pattern.compile("\\s+");
     private final Dao<ActivePoll, Long> pollDao;
+    private final TimerWheel<ActivePoll> polls;
 
     private final Parser timeParser = new Parser();
 
@@ -46,12 +48,27 @@ public class PollCog extends Cog {
         super(bot);
 
         pollDao = setupDao(ActivePoll.class);
+        polls = new TimerWheel<>("polls", new TimerWheel.Source<ActivePoll>() {
+            @Override
+            public List<ActivePoll> load(long from, long until) throws SQLException {
+                // only polls in this shard's channels
+                return pollDao.queryBuilder().where().ge("endTime", new Date(from)).and()
+                        .lt("endTime", new Date(until)).query().stream()
+                        .filter(p -> bot.jda.getTextChannelById(p.getChannelId()) != null)
+                        .collect(Collectors.toList());
+            }
 
-        try {
-            scheduleAllPolls();
-        } catch (SQLException e) {
-            logger.warn("Error rescheduling previous polls", e);
-        }
+            @Override
+            public void delete(Collection<ActivePoll> timers) throws SQLException {
+                pollDao.delete(timers);
+            }
+        }, ActivePoll::getMessageId, p -> p.getEndTime().getTime(), this::endPoll, Bot.threadExecutor);
+        polls.start(Bot.scheduledExecutor);
+    }
+
+    public void unload() {
+        polls.stop();
+        super.unload();
     }
 
     public String getName() {
@@ -62,11 +79,6 @@ public class PollCog extends Cog {
         return "Create a public poll.";
     }
 
-    private void scheduleAllPolls() throws SQLException {
-        for (ActivePoll poll : pollDao.queryForAll())
-            schedulePoll(poll);
-    }
-
     @Command(name = "poll", desc = "Start a reaction poll.", usage = "[emotes] [question] [time]", guildOnly = true)
     public void cmdPoll(Context ctx) {
         if (ctx.args.length < 1) {
@@ -140,6 +152,7 @@ public class PollCog extends Cog {
             Bot.threadExecutor.execute(() -> {
                 try {
                     pollDao.create(poll);
+                    polls.schedule(poll);
                 } catch (SQLException e) {
                     logger.error("Error persisting poll", e);
                 }
@@ -147,77 +160,62 @@ public class PollCog extends Cog {
 
             embed.setDescription(question).appendDescription("\n\n").appendDescription("**✅ Vote!**");
 
-            schedulePoll(poll);
-
             Bot.scheduledExecutor.schedule(() -> msg.editMessage(embed.build()).queue(),
                     (unicodeEmotes.size() + customEmotes.size()) * (int) (ctx.jda.getPing() * 1.92),
                     TimeUnit.MILLISECONDS);
         });
     }
 
-    private void schedulePoll(final ActivePoll poll) {
-        long calculatedTime = poll.getEndTime().getTime() - System.currentTimeMillis();
-
-        if (bot.jda.getTextChannelById(poll.getChannelId()) == null)
-            return;
+    private void endPoll(ActivePoll poll) {
+        TextChannel channel = bot.jda.getTextChannelById(poll.getChannelId());
 
-        Bot.scheduledExecutor.schedule(() -> {
-            TextChannel channel = bot.jda.getTextChannelById(poll.getChannelId());
+        try {
+            if (channel == null)
+                return;
 
+            Message message;
             try {
-                if (channel == null)
-                    return;
-
-                Message message;
-                try {
-                    message = channel.getMessageById(poll.getMessageId()).complete();
-                } catch (Exception ignored) {
-                    return;
-                }
-
-                if (message == null)
-                    return;
-
-                long ourId = bot.jda.getSelfUser().getIdLong();
-                Map<MessageReaction.ReactionEmote, Integer> resultTable = message.getReactions().stream()
-                        .map(r -> ImmutablePair.of(r,
-                                (int) r.getUsers().complete().stream().filter(u -> u.getIdLong() != ourId).count()))
-                        .sorted(Collections
-                                .reverseOrder(Comparator.comparing(ImmutablePair<MessageReaction, Integer>::getRight)))
-                        .collect(Collectors.toMap(e -> e.getLeft().getReactionEmote(), ImmutablePair::getRight,
-                                (k, v) -> {
-                                    throw new IllegalStateException("Duplicate key " + k);
-                                }, LinkedHashMap::new));
-
-                MessageReaction.ReactionEmote winnerKey = Collections
-                        .max(resultTable.entrySet(), Map.Entry.comparingByValue()).getKey();
-                String winner = winnerKey.getEmote() == null ? winnerKey.getName()
-                        : winnerKey.getEmote().getAsMention();
-
-                List<String> orderedResultList = resultTable.entrySet().stream().map(e -> {
-                    final MessageReaction.ReactionEmote key = e.getKey();
-                    final Integer value = e.getValue();
-                    final String userKey = key.getEmote() == null ? key.getName() : key.getEmote().getAsMention();
-
-                    return userKey + ": " + value + " vote" + (value == 1 ? "" : "s");
-                }).collect(Collectors.toList());
-
-                EmbedBuilder emb = new EmbedBuilder(message.getEmbeds().get(0)).addField("Winner", winner, false);
-                emb.getDescriptionBuilder().replace(emb.getDescriptionBuilder().indexOf("**✅ Vote!**"),
-                        emb.getDescriptionBuilder().length(), "**❌ Poll ended.**");
-
-                message.editMessage(emb.build()).queue();
-                channel.sendMessage("**Poll ended!**\n" + "Winner: " + winner + "\n\n" + "Full Results:\n"
-                        + String.join("\n", orderedResultList)).queue();
-            } catch (Exception e) {
-                logger.error("Poll: error", e);
-            } finally {
-                try {
-                    pollDao.delete(poll);
-                } catch (SQLException e) {
-                    logger.error("Error deleting poll", e);
-                }
+                message = channel.getMessageById(poll.getMessageId()).complete();
+            } catch (Exception ignored) {
+                return;
             }
-        }, calculatedTime, TimeUnit.MILLISECONDS);
+
+            if (message == null)
+                return;
+
+            long ourId = bot.jda.getSelfUser().getIdLong();
+            Map<MessageReaction.ReactionEmote, Integer> resultTable = message.getReactions().stream()
+                    .map(r -> ImmutablePair.of(r,
+                            (int) r.getUsers().complete().stream().filter(u -> u.getIdLong() != ourId).count()))
+                    .sorted(Collections
+                            .reverseOrder(Comparator.comparing(ImmutablePair<MessageReaction, Integer>::getRight)))
+                    .collect(Collectors.toMap(e -> e.getLeft().getReactionEmote(), ImmutablePair::getRight,
+                            (k, v) -> {
+                                throw new IllegalStateException("Duplicate key " + k);
+                            }, LinkedHashMap::new));
+
+            MessageReaction.ReactionEmote winnerKey = Collections
+                    .max(resultTable.entrySet(), Map.Entry.comparingByValue()).getKey();
+            String winner = winnerKey.getEmote() == null ? winnerKey.getName()
+                    : winnerKey.getEmote().getAsMention();
+
+            List<String> orderedResultList = resultTable.entrySet().stream().map(e -> {
+                final MessageReaction.ReactionEmote key = e.getKey();
+                final Integer value = e.getValue();
+                final String userKey = key.getEmote() == null ? key.getName() : key.getEmote().getAsMention();
+
+                return userKey + ": " + value + " vote" + (value == 1 ? "" : "s");
+            }).collect(Collectors.toList());
+
+            EmbedBuilder emb = new EmbedBuilder(message.getEmbeds().get(0)).addField("Winner", winner, false);
+            emb.getDescriptionBuilder().replace(emb.getDescriptionBuilder().indexOf("**✅ Vote!**"),
+                    emb.getDescriptionBuilder().length(), "**❌ Poll ended.**");
+
+            message.editMessage(emb.build()).queue();
+            channel.sendMessage("**Poll ended!**\n" + "Winner: " + winner + "\n\n" + "Full Results:\n"
+                    + String.join("\n", orderedResultList)).queue();
+        } catch (Exception e) {
+            logger.error("Poll: error", e);
+        }
     }
 }
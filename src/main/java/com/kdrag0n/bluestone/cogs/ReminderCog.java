@@ -9,34 +9,31 @@ import com.kdrag0n.bluestone.Context;
 import com.kdrag0n.bluestone.Emotes;
 import com.kdrag0n.bluestone.annotations.Command;
 import com.kdrag0n.bluestone.sql.Reminder;
+import com.kdrag0n.bluestone.util.TimerWheel;
 import net.dv8tion.jda.core.EmbedBuilder;
+import net.dv8tion.jda.core.entities.User;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
 import java.sql.SQLException;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 public class ReminderCog extends Cog {
     private static final Logger logger = LoggerFactory.getLogger(ReminderCog.class);
     private final Parser timeParser = new Parser();
     private final Dao<Reminder, Integer> dao;
+    // shared by all shards, since reminders aren't tied to one
+    private static TimerWheel<Reminder> reminders = null;
 
     public ReminderCog(Bot bot) {
         super(bot);
 
         dao = setupDao(Reminder.class);
-
-        if (bot.getShardNum() == 1) {
-            try {
-                scheduleAllFromDB();
-            } catch (SQLException e) {
-                logger.warn("Failed to re-schedule all reminders from DB", e);
-            }
-        }
+        startReminders();
     }
 
     public String getName() {
@@ -47,26 +44,44 @@ public class ReminderCog extends Cog {
         return "A cog that's all about reminding you of things.";
     }
 
-    private void scheduleAllFromDB() throws SQLException {
-        for (Reminder reminder : dao.queryForAll()) {
-            schedule(reminder);
+    private void startReminders() {
+        synchronized (ReminderCog.class) {
+            if (reminders != null)
+                return;
+
+            reminders = new TimerWheel<>("reminders", new TimerWheel.Source<Reminder>() {
+                @Override
+                public List<Reminder> load(long from, long until) throws SQLException {
+                    return dao.queryBuilder().where().ge("remindAt", new Date(from)).and()
+                            .lt("remindAt", new Date(until)).query();
+                }
+
+                @Override
+                public void delete(Collection<Reminder> timers) throws SQLException {
+                    dao.delete(timers);
+                }
+            }, Reminder::getId, r -> r.getRemindAt().getTime(), this::remind, Bot.threadExecutor);
+            reminders.start(Bot.scheduledExecutor);
         }
     }
 
-    private void schedule(Reminder reminder) {
-        Bot.scheduledExecutor.schedule(() -> {
-            try {
-                dao.delete(reminder);
-            } catch (SQLException ignored) {
-            }
+    private void remind(Reminder reminder) {
+        User user = null;
+        for (Bot shard : bot.shardUtil.getShards()) {
+            user = shard.jda.getUserById(reminder.getUserId());
+            if (user != null)
+                break;
+        }
+
+        if (user == null)
+            return;
 
-            bot.jda.getUserById(reminder.getUserId()).openPrivateChannel()
-                    .queue(channel -> channel.sendMessage(new EmbedBuilder()
-                            .setAuthor("Reminder", null, bot.jda.getSelfUser().getEffectiveAvatarUrl())
-                            .setDescription(reminder.getMessage())
-                            .setFooter("You asked me to remind you of this at", null).setColor(randomColor())
-                            .setTimestamp(Instant.now()).build()).queue());
-        }, reminder.getRemindAt().getTime() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        user.openPrivateChannel()
+                .queue(channel -> channel.sendMessage(new EmbedBuilder()
+                        .setAuthor("Reminder", null, bot.jda.getSelfUser().getEffectiveAvatarUrl())
+                        .setDescription(reminder.getMessage())
+                        .setFooter("You asked me to remind you of this at", null).setColor(randomColor())
+                        .setTimestamp(Instant.now()).build()).queue());
     }
 
     @Command(name = "remindme", desc = "Schedule a reminder for you at a certain time, over DM.", usage = "[time/date] [message", aliases = {
@@ -105,7 +120,7 @@ public class ReminderCog extends Cog {
 
         Reminder reminder = new Reminder(ctx.author.getIdLong(), msg, date);
         dao.createOrUpdate(reminder);
-        schedule(reminder);
+        reminders.schedule(reminder);
 
         ctx.send(Emotes.getSuccess() + " I will remind you at " + date + '.').queue();
     }
@@ -44,13 +44,23 @@ public class RolemanCog extends Cog {
                 }
             });
     private final Dao<GuildRoleOption, Long> dao;
-    private final Dao<GuildMemberActions, Integer> profDao;
+    private final MemberActivityTracker activity;
 
     public RolemanCog(Bot bot) {
         super(bot);
 
         dao = setupDao(GuildRoleOption.class);
-        profDao = setupDao(GuildMemberActions.class);
+        Dao<GuildMemberActions, Integer> profDao = setupDao(GuildMemberActions.class);
+        try {
+            activity = new MemberActivityTracker(profDao, 5, 500);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error preparing member activity queries", e);
+        }
+    }
+
+    public void unload() {
+        activity.close();
+        super.unload();
     }
 
     public String getName() {
@@ -66,22 +76,10 @@ public class RolemanCog extends Cog {
         long guildId = event.getGuild().getIdLong();
 
         if (guildIsUsing.getUnchecked(guildId) == TRUE) {
-            long userId = event.getAuthor().getIdLong();
-
-            GuildMemberActions prof = profDao.queryBuilder().where().eq("userId", userId).eq("guildId", guildId)
-                    .queryForFirst();
-            if (prof == null)
-                prof = new GuildMemberActions(userId, guildId, (short) 0, false, false);
-
             List<User> mU = event.getMessage().getMentionedUsers();
-            if (mU.size() > 0 && mU.get(0) != event.getAuthor()) {
-                prof.hasMentionedOther = true;
-            }
+            boolean mentionedOther = mU.size() > 0 && mU.get(0) != event.getAuthor();
 
-            if (prof.messagesSent < 100)
-                prof.messagesSent++;
-
-            profDao.createOrUpdate(prof);
+            activity.recordMessage(guildId, event.getAuthor().getIdLong(), mentionedOther);
         }
     }
 
@@ -121,12 +119,7 @@ public class RolemanCog extends Cog {
 
         Role role = roles.get(0);
         GuildRoleOption option = dao.queryForId(role.getIdLong());
-        GuildMemberActions prof = profDao.queryBuilder().where().eq("userId", ctx.author.getIdLong())
-                .eq("guildId", ctx.guild.getIdLong()).queryForFirst();
-        if (prof == null) {
-            prof = new GuildMemberActions(ctx.author.getIdLong(), ctx.guild.getIdLong(), (short) 0, false, false);
-            profDao.create(prof);
-        }
+        GuildMemberActions prof = activity.get(ctx.guild.getIdLong(), ctx.author.getIdLong());
 
         if (option == null || !option.test(ctx, prof.messagesSent, prof.hasBeenMentioned, prof.hasMentionedOther)) {
             ctx.fail("You can't get that role right now!");
@@ -4,7 +4,6 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
-import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.stmt.DeleteBuilder;
 import com.joestelmach.natty.DateGroup;
@@ -13,8 +12,10 @@ import com.kdrag0n.bluestone.Bot;
 import com.kdrag0n.bluestone.Cog;
 import com.kdrag0n.bluestone.Context;
 import com.kdrag0n.bluestone.Emotes;
+import com.kdrag0n.bluestone.ReactionCounter;
 import com.kdrag0n.bluestone.annotations.Command;
 import com.kdrag0n.bluestone.annotations.EventHandler;
+import com.kdrag0n.bluestone.enums.EventOverflow;
 import com.kdrag0n.bluestone.errors.PassException;
 import com.kdrag0n.bluestone.sql.Starboard;
 import com.kdrag0n.bluestone.sql.StarboardEntry;
@@ -47,6 +48,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -56,6 +59,7 @@ import static com.kdrag0n.bluestone.util.NullValueWrapper.val;
 public class StarboardCog extends Cog {
     private static final Logger logger = LoggerFactory.getLogger(StarboardCog.class);
     private static final Permission[] MOD_PERMS = { Permission.MANAGE_SERVER, Permission.MANAGE_CHANNEL };
+    private static final long UPDATE_DELAY = 2500;
     private static final String[] TOP_3_BADGES = { "🥇", "🥈", "🥉" };
     private static final String NO_COMMAND = "🤔 **I need an action!**\n" + "The following are valid:\n"
             + "    \u2022 `create/new {channel name='starboard'}` - create a new starboard here (you may pass a different name)\n"
@@ -87,6 +91,9 @@ public class StarboardCog extends Cog {
     private final Dao<Starboard, Long> dao;
     private final Dao<StarboardEntry, Long> entryDao;
     private final Dao<Starrer, Integer> starrerDao;
+    private final ReactionCounter starCounter = new ReactionCounter(4096);
+    // messages with an update scheduled or running, and whether they changed again since it started
+    private final Map<Long, Boolean> updates = new ConcurrentHashMap<>();
 
     public StarboardCog(Bot bot) {
         super(bot);
@@ -129,177 +136,268 @@ public class StarboardCog extends Cog {
         return getStarEmoji(stars) + ' ' + starCountText + channelMention + " | Message ID: " + messageId;
     }
 
-    private int getStarCount(GenericGuildMessageReactionEvent event, int threshold) {
-        List<User> users = event.getReaction().getUsers().complete();
-        if (users.size() < threshold)
-            return 0; // fast path
-        int c = 0;
+    /**
+     * Fetch the star count of a message in the background, since the event handlers can't wait for it.
+     * Once it's known, the message is updated like after a star.
+     */
+    private ReactionCounter.Loader starLoader(GenericGuildMessageReactionEvent event) {
+        long guildId = event.getGuild().getIdLong();
+        long channelId = event.getChannel().getIdLong();
+        long messageId = event.getMessageIdLong();
+        MessageReaction reaction = event.getReaction();
+
+        return () -> event.getChannel().getMessageById(messageId).queue(message -> {
+            messageCache.put(ImmutablePair.of(channelId, messageId), message);
+
+            reaction.getUsers().queue(users -> {
+                long[] ids = new long[users.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = users.get(i).getIdLong();
+                }
 
-        long messageAuthor = messageCache
-                .getUnchecked(Pair.of(event.getChannel().getIdLong(), event.getMessageIdLong())).getAuthor()
-                .getIdLong();
+                starCounter.loaded(messageId, message.getAuthor().getIdLong(), ids);
+                scheduleUpdate(guildId, channelId, messageId);
+            }, e -> starCounter.failed(messageId));
+        }, e -> starCounter.failed(messageId));
+    }
 
-        for (User user : users) {
-            if (user.getIdLong() != messageAuthor)
-                c++;
+    /**
+     * Bring the starboard up to date with the star count of a message after a short delay: add it, update its
+     * count, or remove it. Stars added or removed in the meantime are included, so a burst of them only causes
+     * one edit. Runs in the background, so it's free to wait for Discord.
+     */
+    private void scheduleUpdate(long guildId, long channelId, long messageId) {
+        boolean[] scheduled = { false };
+        updates.compute(messageId, (id, again) -> {
+            if (again != null)
+                return true;
+
+            scheduled[0] = true;
+            return false;
+        });
+
+        if (scheduled[0]) {
+            Bot.scheduledExecutor.schedule(() -> updateEntry(guildId, channelId, messageId), UPDATE_DELAY,
+                    TimeUnit.MILLISECONDS);
         }
-
-        return c;
     }
 
-    @EventHandler
-    public void onChannelDelete(TextChannelDeleteEvent event) throws SQLException {
-        if (dao.idExists(event.getGuild().getIdLong())) {
-            dao.deleteById(event.getGuild().getIdLong());
+    private void updateEntry(long guildId, long channelId, long messageId) {
+        // changes from here on aren't seen by this update
+        updates.put(messageId, false);
 
-            DeleteBuilder builder = entryDao.deleteBuilder();
-            builder.where().eq("guildId", event.getGuild().getIdLong());
-            builder.delete();
+        try {
+            syncEntry(guildId, channelId, messageId);
+        } catch (Exception e) {
+            logger.error("Error updating starboard entry", e);
+        }
+
+        // only one update per message runs at a time, so run another one for changes made during this one
+        if (updates.compute(messageId, (id, again) -> again != null && again ? false : null) != null) {
+            Bot.scheduledExecutor.schedule(() -> updateEntry(guildId, channelId, messageId), UPDATE_DELAY,
+                    TimeUnit.MILLISECONDS);
         }
     }
 
-    @EventHandler(threaded = true)
-    public void onReactionAdd(GuildMessageReactionAddEvent event) throws SQLException, ExecutionException {
-        if (!event.getReactionEmote().getName().equals("⭐"))
-            return;
-        if (event.getUser().isBot())
+    private void syncEntry(long guildId, long channelId, long messageId) throws SQLException, ExecutionException {
+        int stars = starCounter.get(messageId);
+        // still being fetched, and the loader schedules another update once it's done
+        if (stars == -1)
             return;
 
-        Starboard starboard = dao.queryForId(event.getGuild().getIdLong());
+        Starboard starboard = dao.queryForId(guildId);
         if (starboard == null)
             return;
-        if (starboard.isLocked())
+
+        StarboardEntry entry = entryDao.queryForId(messageId);
+        if (stars < starboard.getStarThreshold()) {
+            if (entry != null)
+                messageDelete(entry);
             return;
-        if (event.getChannel().getIdLong() == starboard.getChannelId())
+        }
+
+        if (entry == null) {
+            if (!starboard.isLocked())
+                createEntry(starboard, channelId, messageId, stars);
             return;
+        }
 
-        int stars = getStarCount(event, starboard.getStarThreshold());
-        if (stars < starboard.getStarThreshold())
+        if (entry.getStars() == stars)
             return;
 
-        String renderedText = renderText(stars, event.getChannel().getAsMention(), event.getMessageId());
+        entry.setStars(stars);
+        entryDao.update(entry);
 
-        StarboardEntry entry = entryDao.queryForId(event.getMessageIdLong());
-        if (entry == null) {
-            Message origMessage = messageCache
-                    .get(ImmutablePair.of(event.getChannel().getIdLong(), event.getMessageIdLong()));
-            if (event.getUser().getIdLong() == origMessage.getAuthor().getIdLong())
-                return;
-            if (origMessage.getCreationTime()
-                    .isBefore(OffsetDateTime.now().minus(starboard.getMaxAge().getTime(), ChronoUnit.MILLIS))) {
-                return;
-            }
+        String renderedText = renderText(stars, "<#" + channelId + '>', Long.toUnsignedString(messageId));
+        Message message = messageCache.get(ImmutablePair.of(starboard.getChannelId(), entry.getBotMessageId()));
+        message.editMessage(new MessageBuilder().append(renderedText)
+                .setEmbed(new EmbedBuilder(message.getEmbeds().get(0)).setColor(starGradientColor(stars)).build())
+                .build()).queue();
+    }
+
+    private void createEntry(Starboard starboard, long channelId, long messageId, int stars)
+            throws SQLException, ExecutionException {
+        if (MiscUtil.getCreationTime(messageId)
+                .isBefore(OffsetDateTime.now().minus(starboard.getMaxAge().getTime(), ChronoUnit.MILLIS))) {
+            return;
+        }
+
+        TextChannel channel = bot.jda.getTextChannelById(starboard.getChannelId());
+        if (channel == null) {
+            deleteStarboard(starboard.getGuildId());
+            return;
+        }
+
+        Message origMessage;
+        try {
+            origMessage = messageCache.get(ImmutablePair.of(channelId, messageId));
+        } catch (CacheLoader.InvalidCacheLoadException e) {
+            // deleted in the meantime
+            return;
+        }
 
-            EmbedBuilder emb = new EmbedBuilder().setTimestamp(origMessage.getCreationTime())
-                    .setAuthor(origMessage.getMember().getEffectiveName(), null,
-                            origMessage.getAuthor().getEffectiveAvatarUrl())
-                    .setDescription(origMessage.getContentRaw()).setColor(starGradientColor(stars));
-
-            if (origMessage.getEmbeds().size() > 0) {
-                MessageEmbed data = origMessage.getEmbeds().get(0);
-                if (data.getType() == EmbedType.IMAGE) {
-                    emb.setImage(data.getUrl());
-                } else {
-                    for (MessageEmbed embed : origMessage.getEmbeds()) {
-                        String value = val(data.getTitle()).or("*No title*");
-
-                        if (data.getFields().size() > 0) {
-                            value += String.format("\n%d fields", data.getFields().size());
-                        } else {
-                            value += "\nNo fields";
-                        }
-
-                        emb.addField("Embed", value, false);
+        String renderedText = renderText(stars, "<#" + channelId + '>', Long.toUnsignedString(messageId));
+        String authorName = origMessage.getMember() == null ? origMessage.getAuthor().getName()
+                : origMessage.getMember().getEffectiveName();
+
+        EmbedBuilder emb = new EmbedBuilder().setTimestamp(origMessage.getCreationTime())
+                .setAuthor(authorName, null, origMessage.getAuthor().getEffectiveAvatarUrl())
+                .setDescription(origMessage.getContentRaw()).setColor(starGradientColor(stars));
+
+        if (origMessage.getEmbeds().size() > 0) {
+            MessageEmbed data = origMessage.getEmbeds().get(0);
+            if (data.getType() == EmbedType.IMAGE) {
+                emb.setImage(data.getUrl());
+            } else {
+                for (MessageEmbed embed : origMessage.getEmbeds()) {
+                    String value = val(data.getTitle()).or("*No title*");
+
+                    if (data.getFields().size() > 0) {
+                        value += String.format("\n%d fields", data.getFields().size());
+                    } else {
+                        value += "\nNo fields";
                     }
+
+                    emb.addField("Embed", value, false);
                 }
             }
+        }
 
-            if (origMessage.getAttachments().size() > 0) {
-                Message.Attachment attachment = origMessage.getAttachments().get(0);
-                String url = attachment.getUrl().substring(attachment.getUrl().length() - 4).toLowerCase();
-
-                if (url.endsWith("png") || url.endsWith("jpeg") || url.endsWith("jpg") || url.endsWith("bmp")
-                        || url.endsWith("gif") || url.endsWith("webp")) {
-                    emb.setImage(attachment.getUrl());
-                } else {
-                    for (Message.Attachment attached : origMessage.getAttachments()) {
-                        emb.addField("Attachment", '[' + attached.getFileName() + "](" + attached.getUrl() + ')',
-                                false);
-                    }
+        if (origMessage.getAttachments().size() > 0) {
+            Message.Attachment attachment = origMessage.getAttachments().get(0);
+            String url = attachment.getUrl().substring(attachment.getUrl().length() - 4).toLowerCase();
+
+            if (url.endsWith("png") || url.endsWith("jpeg") || url.endsWith("jpg") || url.endsWith("bmp")
+                    || url.endsWith("gif") || url.endsWith("webp")) {
+                emb.setImage(attachment.getUrl());
+            } else {
+                for (Message.Attachment attached : origMessage.getAttachments()) {
+                    emb.addField("Attachment", '[' + attached.getFileName() + "](" + attached.getUrl() + ')',
+                            false);
                 }
             }
+        }
 
-            TextChannel channel = event.getGuild().getTextChannelById(starboard.getChannelId());
-            if (channel == null)
-                onChannelDelete(new TextChannelDeleteEvent(event.getJDA(), event.getResponseNumber(), channel));
+        long botMessageId = channel
+                .sendMessage(new MessageBuilder().append(renderedText).setEmbed(emb.build()).build()).complete()
+                .getIdLong();
 
-            long botMessageId = channel
-                    .sendMessage(new MessageBuilder().append(renderedText).setEmbed(emb.build()).build()).complete()
-                    .getIdLong();
+        StarboardEntry entry = new StarboardEntry(messageId, starboard.getGuildId(), botMessageId,
+                starboard.getChannelId(), origMessage.getAuthor().getIdLong(), channelId, stars);
+        entryDao.create(entry);
 
-            entry = new StarboardEntry(event.getMessageIdLong(), event.getGuild().getIdLong(), botMessageId,
-                    starboard.getChannelId(), origMessage.getAuthor().getIdLong(), origMessage.getChannel().getIdLong(),
-                    stars);
-            Starrer starrer = new Starrer(event.getGuild().getIdLong(), event.getUser().getIdLong(),
-                    event.getMessageIdLong());
-            entryDao.create(entry);
-            starrerDao.createOrUpdate(starrer);
-        } else {
-            entry.setStars(stars);
-            entryDao.update(entry);
+        long[] starrers = starCounter.getUsers(messageId);
+        if (starrers != null) {
+            for (long userId : starrers) {
+                if (!isBot(userId))
+                    starrerDao.createOrUpdate(new Starrer(starboard.getGuildId(), userId, messageId));
+            }
+        }
+    }
+
+    private boolean isBot(long userId) {
+        User user = bot.jda.getUserById(userId);
+        return user != null && user.isBot();
+    }
+
+    private void deleteStarboard(long guildId) throws SQLException {
+        if (dao.idExists(guildId)) {
+            dao.deleteById(guildId);
+
+            DeleteBuilder builder = entryDao.deleteBuilder();
+            builder.where().eq("guildId", guildId);
+            builder.delete();
+        }
+    }
+
+    @EventHandler
+    public void onChannelDelete(TextChannelDeleteEvent event) throws SQLException {
+        deleteStarboard(event.getGuild().getIdLong());
+    }
+
+    @EventHandler(threaded = true, overflow = EventOverflow.KEEP)
+    public void onReactionAdd(GuildMessageReactionAddEvent event) throws SQLException {
+        if (!event.getReactionEmote().getName().equals("⭐"))
+            return;
 
+        Starboard starboard = dao.queryForId(event.getGuild().getIdLong());
+        if (starboard == null)
+            return;
+        if (event.getChannel().getIdLong() == starboard.getChannelId())
+            return;
+
+        // bots are still counted, like before
+        starCounter.add(event.getMessageIdLong(), event.getUser().getIdLong(), starLoader(event));
+        if (event.getUser().isBot())
+            return;
+
+        if (entryDao.idExists(event.getMessageIdLong())) {
             Starrer starrer = new Starrer(event.getGuild().getIdLong(), event.getUser().getIdLong(),
                     event.getMessageIdLong());
             starrerDao.createOrUpdate(starrer);
-
-            Message message = messageCache.get(ImmutablePair.of(starboard.getChannelId(), entry.getBotMessageId()));
-            message.editMessage(new MessageBuilder().append(renderedText)
-                    .setEmbed(new EmbedBuilder(message.getEmbeds().get(0)).setColor(starGradientColor(stars)).build())
-                    .build()).queue();
         }
+
+        scheduleUpdate(event.getGuild().getIdLong(), event.getChannel().getIdLong(), event.getMessageIdLong());
     }
 
-    @EventHandler(threaded = true)
-    public void onReactionRemove(GuildMessageReactionRemoveEvent event) throws SQLException, ExecutionException {
+    @EventHandler(threaded = true, overflow = EventOverflow.KEEP)
+    public void onReactionRemove(GuildMessageReactionRemoveEvent event) throws SQLException {
         if (!event.getReactionEmote().getName().equals("⭐"))
             return;
 
         Starboard starboard = dao.queryForId(event.getGuild().getIdLong());
         if (starboard == null)
             return;
-        int stars = getStarCount(event, starboard.getStarThreshold());
-        if (stars < starboard.getStarThreshold())
-            messageDelete(event.getMessageIdLong());
+        if (event.getChannel().getIdLong() == starboard.getChannelId())
+            return;
 
-        StarboardEntry entry = entryDao.queryForId(event.getMessageIdLong());
-        if (entry != null) {
-            entry.setStars(stars);
-            entryDao.update(entry);
+        starCounter.remove(event.getMessageIdLong(), event.getUser().getIdLong(), starLoader(event));
 
-            DeleteBuilder builder = starrerDao.deleteBuilder();
-            builder.where().eq("userId", event.getUser().getIdLong()).and().eq("messageId", entry.getMessageId());
-            builder.delete();
+        DeleteBuilder builder = starrerDao.deleteBuilder();
+        builder.where().eq("userId", event.getUser().getIdLong()).and().eq("messageId", event.getMessageIdLong());
+        builder.delete();
 
-            String renderedText = renderText(stars, event.getChannel().getAsMention(), event.getMessageId());
-            messageCache.get(ImmutablePair.of(starboard.getChannelId(), entry.getBotMessageId()))
-                    .editMessage(renderedText).queue();
-        }
+        scheduleUpdate(event.getGuild().getIdLong(), event.getChannel().getIdLong(), event.getMessageIdLong());
     }
 
-    @EventHandler(threaded = true)
-    public void onReactionRemoveAll(GuildMessageReactionRemoveAllEvent event) throws SQLException, ExecutionException {
+    @EventHandler(threaded = true, overflow = EventOverflow.KEEP)
+    public void onReactionRemoveAll(GuildMessageReactionRemoveAllEvent event) throws SQLException {
+        starCounter.forget(event.getMessageIdLong());
         messageDelete(event.getMessageIdLong());
     }
 
-    @EventHandler(threaded = true)
-    public void onMessageDelete(GuildMessageDeleteEvent event) throws SQLException, ExecutionException {
+    @EventHandler(threaded = true, overflow = EventOverflow.KEEP)
+    public void onMessageDelete(GuildMessageDeleteEvent event) throws SQLException {
+        starCounter.forget(event.getMessageIdLong());
         messageDelete(event.getMessageIdLong());
     }
 
-    @EventHandler(threaded = true)
-    public void onMessageBulkDelete(MessageBulkDeleteEvent event) throws SQLException, ExecutionException {
+    @EventHandler(threaded = true, overflow = EventOverflow.KEEP)
+    public void onMessageBulkDelete(MessageBulkDeleteEvent event) throws SQLException {
         for (String sid : event.getMessageIds()) {
             long id = Long.parseUnsignedLong(sid);
+            starCounter.forget(id);
+
             StarboardEntry entry = entryDao.queryBuilder().where().eq("botMessageId", id).or().eq("messageId", id)
                     .queryForFirst();
 
@@ -308,19 +406,14 @@ public class StarboardCog extends Cog {
         }
     }
 
-    private void messageDelete(long messageId) throws SQLException, ExecutionException {
+    private void messageDelete(long messageId) throws SQLException {
         StarboardEntry entry = entryDao.queryForId(messageId);
         if (entry != null) {
             messageDelete(entry);
         }
     }
 
-    private void messageDelete(StarboardEntry entry) throws SQLException, ExecutionException {
-        Message message = null;
-        try {
-            message = messageCache.get(ImmutablePair.of(entry.getBotChannelId(), entry.getBotMessageId()));
-        } catch (UncheckedExecutionException ignored) {
-        }
+    private void messageDelete(StarboardEntry entry) throws SQLException {
         entryDao.delete(entry);
 
         DeleteBuilder builder = starrerDao.deleteBuilder();
@@ -328,11 +421,14 @@ public class StarboardCog extends Cog {
         builder.delete();
         logger.info(builder.prepare().getStatement());
 
-        if (message != null)
-            message.delete()
+        // by ID, so there's no need to wait for the message to be fetched
+        TextChannel channel = bot.jda.getTextChannelById(entry.getBotChannelId());
+        if (channel != null)
+            channel.deleteMessageById(entry.getBotMessageId())
                     .reason("All reactions were deleted on source message, or source message itself was deleted")
                     .queue(null, e -> {
                     });
+        messageCache.invalidate(ImmutablePair.of(entry.getBotChannelId(), entry.getBotMessageId()));
     }
 
     private Starboard requireStarboard(Context ctx) throws PassException, SQLException {
@@ -2,9 +2,10 @@ package com.kdrag0n.bluestone.cogs;
 
 import com.kdrag0n.bluestone.Bot;
 import com.kdrag0n.bluestone.Cog;
+import com.kdrag0n.bluestone.GraphiteReporter;
+import com.kdrag0n.bluestone.Metrics;
 import com.kdrag0n.bluestone.ShardUtil;
 import com.kdrag0n.bluestone.annotations.EventHandler;
-import com.zanox.lib.simplegraphiteclient.SimpleGraphiteClient;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.events.ReadyEvent;
 import net.dv8tion.jda.core.events.guild.GuildJoinEvent;
@@ -19,7 +20,7 @@ import org.slf4j.Logger;
 import org.json.JSONObject;
 
 import java.net.SocketTimeoutException;
-import java.util.HashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -29,7 +30,9 @@ import static com.kdrag0n.bluestone.util.Strings.str;
 public class StatReporterCog extends Cog {
     private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json; charset=utf-8");
     private static final Logger logger = LoggerFactory.getLogger(StatReporterCog.class);
-    private SimpleGraphiteClient graphiteClient;
+    private GraphiteReporter graphite;
+    private int graphiteInterval;
+    private ScheduledFuture<?> graphiteTask;
     private static final AtomicInteger messagesSinceLastReport = new AtomicInteger();
     private static final AtomicInteger newGuildsSinceLastReport = new AtomicInteger();
     private static final String DISCORD_BOTS = "https://bots.discord.pw/api/bots/%s/stats";
@@ -40,9 +43,15 @@ public class StatReporterCog extends Cog {
         super(bot);
 
         if (bot.getShardNum() == 1 && bot.getConfig().has("graphite_host") && bot.getConfig().has("graphite_port")) {
-            graphiteClient = new SimpleGraphiteClient(bot.getConfig().getString("graphite_host"),
-                    bot.getConfig().getInt("graphite_port"));
-            Bot.scheduledExecutor.scheduleAtFixedRate(this::graphiteReport, 2, 60, TimeUnit.SECONDS);
+            JSONObject config = bot.getConfig();
+            GraphiteReporter.Protocol protocol = "pickle".equalsIgnoreCase(config.optString("graphite_protocol"))
+                    ? GraphiteReporter.Protocol.PICKLE : GraphiteReporter.Protocol.PLAINTEXT;
+            graphiteInterval = config.optInt("graphite_interval", 10);
+
+            graphite = new GraphiteReporter(config.getString("graphite_host"), config.getInt("graphite_port"),
+                    protocol, config.optInt("graphite_buffer", 65536), 500, graphiteInterval * 1000L);
+            graphiteTask = Bot.scheduledExecutor.scheduleAtFixedRate(this::graphiteReport, 2, graphiteInterval,
+                    TimeUnit.SECONDS);
         }
     }
 
@@ -61,28 +70,40 @@ public class StatReporterCog extends Cog {
 
     private void graphiteReport() {
         try {
-            graphiteClient.sendMetrics(new HashMap<String, Number>() {
-                {
-                    ShardUtil shardUtil = bot.shardUtil;
-                    Runtime runtime = Runtime.getRuntime();
-
-                    put("bot.guilds", shardUtil.getGuildCount());
-                    put("bot.channels", shardUtil.getChannelCount());
-                    put("bot.voice_channels", shardUtil.getVoiceChannelCount());
-                    put("bot.text_channels", shardUtil.getTextChannelCount());
-                    put("bot.users", shardUtil.getUserCount());
-                    put("bot.shards", shardUtil.getShardCount());
-                    put("bot.emotes", shardUtil.getEmoteCount());
-                    put("bot.music_tracks", shardUtil.getTrackCount());
-                    put("bot.music_streams", shardUtil.getStreamCount());
-                    put("bot.messages_per_min", messagesSinceLastReport.getAndSet(0));
-                    put("bot.guilds_per_min", newGuildsSinceLastReport.getAndSet(0));
-
-                    put("system.memory_used", runtime.totalMemory() - runtime.freeMemory());
-                }
-            });
+            ShardUtil shardUtil = bot.shardUtil;
+            Runtime runtime = Runtime.getRuntime();
+            long time = System.currentTimeMillis() / 1000;
+            // counters are reset every report, scale them to a minute
+            double perMinute = 60.0 / graphiteInterval;
+
+            graphite.record("bot.guilds", shardUtil.getGuildCount(), time);
+            graphite.record("bot.channels", shardUtil.getChannelCount(), time);
+            graphite.record("bot.voice_channels", shardUtil.getVoiceChannelCount(), time);
+            graphite.record("bot.text_channels", shardUtil.getTextChannelCount(), time);
+            graphite.record("bot.users", shardUtil.getUserCount(), time);
+            graphite.record("bot.shards", shardUtil.getShardCount(), time);
+            graphite.record("bot.emotes", shardUtil.getEmoteCount(), time);
+            graphite.record("bot.music_tracks", shardUtil.getTrackCount(), time);
+            graphite.record("bot.music_streams", shardUtil.getStreamCount(), time);
+            graphite.record("bot.messages_per_min", messagesSinceLastReport.getAndSet(0) * perMinute, time);
+            graphite.record("bot.guilds_per_min", newGuildsSinceLastReport.getAndSet(0) * perMinute, time);
+            graphite.record("bot.graphite.dropped", graphite.getDropped(), time);
+            // executors, commands, event handlers, database and HTTP
+            Metrics.report(graphite, time);
+
+            graphite.record("system.memory_used", runtime.totalMemory() - runtime.freeMemory(), time);
         } catch (Exception e) {
-            logger.error("Error reporting stats to Graphite", e);
+            logger.error("Error collecting stats for Graphite", e);
+        }
+    }
+
+    @Override
+    public void unload() {
+        super.unload();
+
+        if (graphite != null) {
+            graphiteTask.cancel(false);
+            graphite.close();
         }
     }
 
@@ -21,7 +21,6 @@ import net.dv8tion.jda.core.entities.*;
 import net.dv8tion.jda.core.entities.impl.GuildImpl;
 import net.dv8tion.jda.core.exceptions.ErrorResponseException;
 import net.dv8tion.jda.core.utils.MiscUtil;
-import okhttp3.Request;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.WordUtils;
@@ -56,6 +55,8 @@ public class UtilityCog extends Cog {
 
     private static final Pattern MC_COLOR_PATTERN = Pattern.compile("\\u00a7[4c6e2ab319d5f78lnokmr]");
     private static final JSONArray EMPTY_JSON_ARRAY = new JSONArray();
+    // bump when the QR code images change, so cached ones are generated again
+    private static final int QR_CODE_VERSION = 1;
     private static final Pattern END_MENTION_PATTERN = Pattern.compile(", [<@&0-9>]*$");
 
     private static final ThreadPoolExecutor calcExecutor = new ThreadPoolExecutor(1, 2, 5, TimeUnit.SECONDS,
@@ -201,10 +202,9 @@ public class UtilityCog extends Cog {
         }
         ctx.channel.sendTyping().queue();
 
-        Bot.http.newCall(new Request.Builder().get()
-                .url("https://api.urbandictionary.com/v0/define?term=" + URLEncoder.encode(ctx.rawArgs, "UTF-8"))
-                .build()).enqueue(Bot.callback(response -> {
-                    JSONArray results = new JSONObject(response.body().string()).getJSONArray("list");
+        Bot.sharedHttp.get("https://api.urbandictionary.com/v0/define?term=" + URLEncoder.encode(ctx.rawArgs, "UTF-8"),
+                30, TimeUnit.MINUTES).thenAccept(body -> {
+                    JSONArray results = new JSONObject(body).getJSONArray("list");
 
                     if (results.length() < 1) {
                         ctx.fail("No definitions found.");
@@ -244,10 +244,11 @@ public class UtilityCog extends Cog {
                             str(word.getInt("thumbs_down")), true);
 
                     ctx.send(emb.build()).queue();
-                }, e -> {
+                }).exceptionally(e -> {
                     logger.error("Urban Dictionary API error", e);
                     ctx.fail("Request failed.");
-                }));
+                    return null;
+                });
     }
 
     @Command(name = "rcolor", desc = "Generate a random color.", aliases = { "rc", "randcolor" })
@@ -558,14 +559,16 @@ public class UtilityCog extends Cog {
 
         byte[] data;
         try {
-            QrCode qr = QrCode.encodeText(ctx.rawArgs, QrCode.Ecc.LOW);
-            BufferedImage img = qr.toImage(6, 2);
+            data = bot.shardUtil.getImageCache().get(ImageCache.key("qrcode", QR_CODE_VERSION, ctx.rawArgs), () -> {
+                QrCode qr = QrCode.encodeText(ctx.rawArgs, QrCode.Ecc.LOW);
+                BufferedImage img = qr.toImage(6, 2);
 
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            ImageIO.write(img, "png", stream);
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                ImageIO.write(img, "png", stream);
 
-            data = stream.toByteArray();
-        } catch (IllegalArgumentException | IOException e) {
+                return stream.toByteArray();
+            });
+        } catch (Exception e) {
             logger.error("QR code error", e);
             ctx.fail("An error occurred. Text too long?");
             return;
@@ -584,7 +587,7 @@ public class UtilityCog extends Cog {
         ctx.send("You have " + smartJoin(permList) + " here.").queue();
     }
 
-    @Command(name = "xkcd", desc = "All that xkcd goodness!", thread = true)
+    @Command(name = "xkcd", desc = "All that xkcd goodness!")
     public void cmdXkcd(Context ctx) {
         if (ctx.args.empty) {
             ctx.send("🤔 **You need to specify what to get!**\n" + "The following are valid:\n"
@@ -598,89 +601,57 @@ public class UtilityCog extends Cog {
         if (second == null)
             second = "";
 
-        String comicTitle;
-        String comicUrl;
-        String comicDesc;
-        int comicNum;
-
-        if (first.equalsIgnoreCase("latest")) {
-            ctx.channel.sendTyping().queue();
+        boolean latest = first.equalsIgnoreCase("latest");
+        boolean random = first.equalsIgnoreCase("random");
+        String number;
+        if ((first.equalsIgnoreCase("number") || first.equalsIgnoreCase("num")) && Strings.is4Digits(second))
+            number = second;
+        else if (Strings.is4Digits(first))
+            number = first;
+        else
+            number = null;
 
-            try {
-                comicNum = new JSONObject(
-                        Bot.http.newCall(new Request.Builder().get().url("https://xkcd.com/info.0.json").build())
-                                .execute().body().string()).getInt("num");
-            } catch (IOException e) {
-                logger.error("xkcd > latest: http error", e);
-                ctx.fail("An error occurred.");
-                return;
-            }
-        } else if (first.equalsIgnoreCase("random")) {
-            ctx.channel.sendTyping().queue();
+        if (!latest && !random && number == null) {
+            ctx.send("🤔 **Invalid comic!**\n" + "The following are valid:\n" + "    \u2022 `latest`\n"
+                    + "    \u2022 `random`\n" + "    \u2022 `number [comic number]`\n" + "    \u2022 `[comic number]`")
+                    .queue();
+            return;
+        }
+        ctx.channel.sendTyping().queue();
 
-            try {
-                comicNum = randint(1,
-                        new JSONObject(Bot.http
-                                .newCall(new Request.Builder().get().url("https://xkcd.com/info.0.json").build())
-                                .execute().body().string()).getInt("num") + 1);
-            } catch (IOException e) {
-                logger.error("xkcd > random: http error", e);
-                ctx.fail("An error occurred.");
-                return;
-            }
-        } else if (((first.equalsIgnoreCase("number") || first.equalsIgnoreCase("num")) && Strings.is4Digits(second))
-                || Strings.is4Digits(first)) {
-            ctx.channel.sendTyping().queue();
+        Bot.sharedHttp.get("https://xkcd.com/info.0.json", 10, TimeUnit.MINUTES).thenCompose(body -> {
+            int max = new JSONObject(body).getInt("num");
+            int comicNum;
 
-            try {
-                int max = new JSONObject(
-                        Bot.http.newCall(new Request.Builder().get().url("https://xkcd.com/info.0.json").build())
-                                .execute().body().string()).getInt("num");
-                int requested;
-                try {
-                    requested = Integer.parseInt(first);
-                } catch (NumberFormatException e) {
-                    requested = Integer.parseInt(second);
-                }
+            if (latest) {
+                comicNum = max;
+            } else if (random) {
+                comicNum = randint(1, max + 1);
+            } else {
+                comicNum = Integer.parseInt(number);
 
-                if (requested > 0 && requested <= max) {
-                    comicNum = requested;
-                } else {
+                if (comicNum < 1 || comicNum > max) {
                     ctx.send(Emotes.getFailure() + " Invalid comic. The latest is " + max + '.').queue();
-                    return;
+                    return CompletableFuture.completedFuture(null);
                 }
-            } catch (IOException e) {
-                logger.error("xkcd > random: http error", e);
-                ctx.fail("An error occurred.");
-                return;
             }
-        } else {
-            ctx.send("🤔 **Invalid comic!**\n" + "The following are valid:\n" + "    \u2022 `latest`\n"
-                    + "    \u2022 `random`\n" + "    \u2022 `number [comic number]`\n" + "    \u2022 `[comic number]`")
-                    .queue();
-            return;
-        }
 
-        try {
-            JSONObject resp = new JSONObject(Bot.http
-                    .newCall(
-                            new Request.Builder().get().url("http://www.xkcd.com/" + comicNum + "/info.0.json").build())
-                    .execute().body().string());
-
-            comicTitle = resp.getString("safe_title");
-            comicDesc = resp.getString("alt");
-            comicUrl = resp.getString("img");
-        } catch (IOException e) {
-            logger.error("xkcd: http error", e);
-            ctx.fail("An error occurred.");
-            return;
-        }
+            // published comics never change
+            return Bot.sharedHttp.get("http://www.xkcd.com/" + comicNum + "/info.0.json", 1, TimeUnit.DAYS)
+                    .thenAccept(comicBody -> {
+                        JSONObject resp = new JSONObject(comicBody);
 
-        EmbedBuilder emb = new EmbedBuilder().setColor(randomColor())
-                .setAuthor(comicTitle, "https://xkcd.com/" + comicNum, null).setImage(comicUrl)
-                .setFooter(comicDesc, null);
+                        EmbedBuilder emb = new EmbedBuilder().setColor(randomColor())
+                                .setAuthor(resp.getString("safe_title"), "https://xkcd.com/" + comicNum, null)
+                                .setImage(resp.getString("img")).setFooter(resp.getString("alt"), null);
 
-        ctx.send(emb.build()).queue();
+                        ctx.send(emb.build()).queue();
+                    });
+        }).exceptionally(e -> {
+            logger.error("xkcd: http error", e);
+            ctx.fail("An error occurred.");
+            return null;
+        });
     }
 
     @Command(name = "zwsp", desc = "Get a zero width space.", aliases = { "u200b", "200b" })
@@ -4,8 +4,10 @@ import com.j256.ormlite.dao.Dao;
 import com.kdrag0n.bluestone.*;
 import com.kdrag0n.bluestone.annotations.Command;
 import com.kdrag0n.bluestone.annotations.EventHandler;
+import com.kdrag0n.bluestone.enums.EventOverflow;
 import com.kdrag0n.bluestone.sql.GuildWelcomeMessages;
-import com.kdrag0n.bluestone.util.Strings;
+import com.kdrag0n.bluestone.util.LongLruCache;
+import com.kdrag0n.bluestone.util.MessageTemplate;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.TextChannel;
@@ -19,15 +21,19 @@ import org.slf4j.Logger;
 
 import java.sql.SQLException;
 import java.util.Date;
-import java.util.regex.Pattern;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class WelcomeCog extends Cog {
     private static final Logger logger = LoggerFactory.getLogger(WelcomeCog.class);
     private static final String DEFAULT_WELCOME = "[mention] **Welcome to [server]!**\n"
             + "Enjoy your time here, and find out more about me with `[prefix]help`.";
     private static final String DEFAULT_LEAVE = "[rip] **[member_tag] has left the server...**";
+    // more greetings than this in one channel per window are combined into one message
+    private static final long GREETING_WINDOW = 5000L;
+    private static final int GREETING_BURST = 3;
 
-    private static final Pattern SUB_REGEX = Pattern.compile("\\[([a-z_]+)]");
     private static final String NO_COMMAND = "🤔 **I need an action!**\n" + "The following are valid:\n"
             + "    \u2022 `status` - view the status of this message\n"
             + "    \u2022 `show` - show the current message\n"
@@ -50,11 +56,41 @@ public class WelcomeCog extends Cog {
             + "[mention] Hey there, and welcome to [server]! The owner here is [server_owner]. You joined at [time]. "
             + "To use this bot, try [prefix]help. It was made by [bot_owner]. Have fun!```";
     private final Dao<GuildWelcomeMessages, Long> messageDao;
+    private final Map<String, MessageTemplate.Placeholder<Member>> tags = new HashMap<>();
+    private final LongLruCache<Settings> settingsCache = new LongLruCache<>(2048);
+    private final BurstCoalescer<String> greetings = new BurstCoalescer<>(GREETING_WINDOW, GREETING_BURST,
+            this::sendGreetings);
 
     public WelcomeCog(Bot bot) {
         super(bot);
 
         messageDao = setupDao(GuildWelcomeMessages.class);
+
+        MessageTemplate.Placeholder<Member> mention = (member, out) -> out.append(member.getAsMention());
+        MessageTemplate.Placeholder<Member> serverName = (member, out) -> out.append(member.getGuild().getName());
+        MessageTemplate.Placeholder<Member> time = (member, out) -> out.append(new Date().toString());
+
+        tags.put("mention", mention);
+        tags.put("member", mention);
+        tags.put("member_mention", mention);
+        tags.put("member_name", (member, out) -> out.append(member.getEffectiveName()));
+        tags.put("member_tag", (member, out) -> out.append(getTag(member.getUser())));
+        tags.put("member_discrim", (member, out) -> out.append(member.getUser().getDiscriminator()));
+        tags.put("member_id", (member, out) -> out.append(member.getUser().getIdLong()));
+        tags.put("server", serverName);
+        tags.put("server_name", serverName);
+        tags.put("server_icon", (member, out) -> {
+            String iconUrl = member.getGuild().getIconUrl();
+            if (iconUrl != null)
+                out.append(iconUrl);
+        });
+        tags.put("server_id", (member, out) -> out.append(member.getGuild().getIdLong()));
+        tags.put("server_owner", (member, out) -> out.append(member.getGuild().getOwner().getEffectiveName()));
+        tags.put("time", time);
+        tags.put("date", time);
+        tags.put("prefix", (member, out) -> out.append(bot.prefixStore.getPrefix(member.getGuild().getIdLong())));
+        tags.put("bot_owner", (member, out) -> out.append("Dragon5232#1841"));
+        tags.put("rip", (member, out) -> out.append(Emotes.getGrave()));
     }
 
     public String getName() {
@@ -107,8 +143,7 @@ public class WelcomeCog extends Cog {
             ctx.fail("Something's not right with this server's message settings. Let me try to fix that...");
 
             try {
-                messageDao.createOrUpdate(
-                        new GuildWelcomeMessages(ctx.guild.getIdLong(), "[default]", "[default]", true, true));
+                initGuild(ctx.guild);
             } catch (SQLException ex) {
                 logger.error("Failed to recover from NPE (control cmd)", ex);
                 ctx.send(":sob: I wasn't able to fix it for you. If it's a problem, contact the bot owner.").queue();
@@ -143,6 +178,7 @@ public class WelcomeCog extends Cog {
         query.setWelcome(newMessage);
 
         messageDao.update(query);
+        cache(query);
         ctx.success("Welcome message set.");
     }
 
@@ -152,6 +188,7 @@ public class WelcomeCog extends Cog {
         String st = query.isWelcomeEnabled() ? "on" : "off";
 
         messageDao.update(query);
+        cache(query);
         ctx.success("The welcome message is now **" + st + "**.");
     }
 
@@ -165,6 +202,7 @@ public class WelcomeCog extends Cog {
             TextChannel channel = ctx.message.getMentionedChannels().get(0);
             query.setChannelId(channel.getIdLong());
             messageDao.update(query);
+            cache(query);
 
             ctx.send(Emotes.getSuccess() + " Welcome and leave channel changed to " + channel.getAsMention() + '.')
                     .queue();
@@ -222,8 +260,7 @@ public class WelcomeCog extends Cog {
             ctx.fail("Something's not right with this server's message settings. Let me try to fix that...");
 
             try {
-                messageDao.createOrUpdate(
-                        new GuildWelcomeMessages(ctx.guild.getIdLong(), "[default]", "[default]", true, true));
+                initGuild(ctx.guild);
             } catch (SQLException ex) {
                 logger.error("Failed to recover from NPE (control cmd)", ex);
                 ctx.send(":robot: I wasn't able to fix it for you. If it's a problem, contact the bot owner.").queue();
@@ -258,6 +295,7 @@ public class WelcomeCog extends Cog {
         query.setLeave(newMessage);
 
         messageDao.update(query);
+        cache(query);
         ctx.success("Leave message set.");
     }
 
@@ -267,6 +305,7 @@ public class WelcomeCog extends Cog {
         String st = query.isLeaveEnabled() ? "on" : "off";
 
         messageDao.update(query);
+        cache(query);
         ctx.success("The leave message is now **" + st + "**.");
     }
 
@@ -274,32 +313,64 @@ public class WelcomeCog extends Cog {
         onGuildMemberLeave(new GuildMemberLeaveEvent(ctx.jda, ctx.event.getResponseNumber(), ctx.member));
     }
 
-    private GuildWelcomeMessages initGuild(Guild guild) throws SQLException {
+    private Settings initGuild(Guild guild) throws SQLException {
         GuildWelcomeMessages obj = new GuildWelcomeMessages(guild.getIdLong(), "[default]", "[default]", true, true);
         messageDao.createOrUpdate(obj);
 
-        return obj;
+        return cache(obj);
+    }
+
+    private Settings cache(GuildWelcomeMessages messages) {
+        Settings settings = new Settings(messages, tags);
+        settingsCache.put(messages.getGuildId(), settings);
+        return settings;
     }
 
-    private String formatMessage(String msg, Guild guild, Member member, String def) {
-        return Strings.replace(StringUtils.replace(msg, "[default]", def), SUB_REGEX,
-                m -> Strings.createMap().map("mention", member::getAsMention)
-                        .map("member_name", member::getEffectiveName).map("member_tag", () -> getTag(member.getUser()))
-                        .map("member_discrim", member.getUser()::getDiscriminator)
-                        .map("member_id", member.getUser()::getId).map("server", guild::getName)
-                        .map("server_icon", guild::getIconUrl).map("server_id", guild::getId)
-                        .map("server_owner", guild.getOwner()::getEffectiveName).map("member", member::getAsMention)
-                        .map("member_mention", member::getAsMention).map("time", () -> new Date().toString())
-                        .map("date", () -> new Date().toString()).map("server_name", guild::getName)
-                        .map("prefix", () -> bot.prefixStore.getPrefix(guild.getIdLong()))
-                        .map("bot_owner", "Dragon5232#1841").map("rip", Emotes::getGrave).exec(m));
+    private Settings getSettings(long guildId) throws SQLException {
+        Settings settings = settingsCache.get(guildId);
+        if (settings != null)
+            return settings;
+
+        GuildWelcomeMessages messages = messageDao.queryForId(guildId);
+        if (messages == null)
+            return null;
+
+        settings = new Settings(messages, tags);
+        // a command may have cached a newer version in the meantime
+        if (!settingsCache.putIfAbsent(guildId, settings))
+            settings = settingsCache.get(guildId);
+
+        return settings;
+    }
+
+    private void sendGreetings(long channelId, List<String> messages) {
+        TextChannel channel = bot.jda.getTextChannelById(channelId);
+        if (channel == null || !channel.canTalk())
+            return;
+
+        StringBuilder combined = new StringBuilder();
+        for (String message : messages) {
+            message = Context.truncate(message);
+
+            if (combined.length() > 0 && combined.length() + 1 + message.length() > 2000) {
+                channel.sendMessage(combined.toString()).queue();
+                combined.setLength(0);
+            }
+
+            if (combined.length() > 0)
+                combined.append('\n');
+            combined.append(message);
+        }
+
+        if (combined.length() > 0)
+            channel.sendMessage(combined.toString()).queue();
     }
 
     private void allCmdHelp(Context ctx) {
         ctx.send(TAG_HELP).queue();
     }
 
-    @EventHandler(threaded = true)
+    @EventHandler(threaded = true, overflow = EventOverflow.KEEP)
     public void onGuildMemberJoin(GuildMemberJoinEvent event) {
         if (event.getMember().getUser().getIdLong() == bot.jda.getSelfUser().getIdLong())
             return;
@@ -308,16 +379,17 @@ public class WelcomeCog extends Cog {
             return;
 
         try {
-            GuildWelcomeMessages queryResult = messageDao.queryForId(event.getGuild().getIdLong());
+            Settings settings = getSettings(event.getGuild().getIdLong());
 
-            if (queryResult == null) {
+            if (settings == null) {
                 try {
-                    queryResult = initGuild(event.getGuild());
+                    settings = initGuild(event.getGuild());
                 } catch (SQLException ex) {
                     logger.error("Failed to init message object (join event)", ex);
                     return;
                 }
             }
+            GuildWelcomeMessages queryResult = settings.messages;
             if (!queryResult.isWelcomeEnabled())
                 return;
 
@@ -333,15 +405,15 @@ public class WelcomeCog extends Cog {
             if (channel == null || !channel.canTalk())
                 return;
 
-            String msg = formatMessage(queryResult.getWelcome(), event.getGuild(), event.getMember(), DEFAULT_WELCOME);
+            String msg = settings.welcome.render(event.getMember());
 
-            channel.sendMessage(Context.truncate(msg)).queue();
+            greetings.submit(channel.getIdLong(), msg);
         } catch (SQLException e) {
             logger.error("SQL error while handling member join", e);
         }
     }
 
-    @EventHandler(threaded = true)
+    @EventHandler(threaded = true, overflow = EventOverflow.KEEP)
     public void onGuildMemberLeave(GuildMemberLeaveEvent event) {
         if (event.getMember().getUser().getIdLong() == bot.jda.getSelfUser().getIdLong())
             return;
@@ -350,16 +422,17 @@ public class WelcomeCog extends Cog {
             return;
 
         try {
-            GuildWelcomeMessages queryResult = messageDao.queryForId(event.getGuild().getIdLong());
+            Settings settings = getSettings(event.getGuild().getIdLong());
 
-            if (queryResult == null) {
+            if (settings == null) {
                 try {
-                    queryResult = initGuild(event.getGuild());
+                    settings = initGuild(event.getGuild());
                 } catch (SQLException ex) {
                     logger.error("Failed to init message object (leave event)", ex);
                     return;
                 }
             }
+            GuildWelcomeMessages queryResult = settings.messages;
             if (!queryResult.isLeaveEnabled())
                 return;
 
@@ -375,9 +448,9 @@ public class WelcomeCog extends Cog {
             if (channel == null || !channel.canTalk())
                 return;
 
-            String msg = formatMessage(queryResult.getLeave(), event.getGuild(), event.getMember(), DEFAULT_LEAVE);
+            String msg = settings.leave.render(event.getMember());
 
-            channel.sendMessage(Context.truncate(msg)).queue();
+            greetings.submit(channel.getIdLong(), msg);
         } catch (SQLException e) {
             logger.error("SQL error while handling member leave", e);
         }
@@ -386,8 +459,7 @@ public class WelcomeCog extends Cog {
     @EventHandler(threaded = true)
     public void onGuildJoin(GuildJoinEvent event) {
         try {
-            messageDao.createOrUpdate(
-                    new GuildWelcomeMessages(event.getGuild().getIdLong(), "[default]", "[default]", true, true));
+            initGuild(event.getGuild());
         } catch (SQLException e) {
             logger.error("Failed to create WelcomeMessages for guild {}", event.getGuild().getId(), e);
         }
@@ -395,10 +467,28 @@ public class WelcomeCog extends Cog {
 
     @EventHandler(threaded = true)
     public void onGuildLeave(GuildLeaveEvent event) {
+        settingsCache.remove(event.getGuild().getIdLong());
+
         try {
             messageDao.deleteById(event.getGuild().getIdLong());
         } catch (SQLException e) {
             logger.warn("Failed to delete WelcomeMessages of guild {}", event.getGuild().getId(), e);
         }
     }
+
+    /**
+     * The messages of a guild, with its welcome and leave messages compiled.
+     */
+    private static final class Settings {
+        private final GuildWelcomeMessages messages;
+        private final MessageTemplate<Member> welcome;
+        private final MessageTemplate<Member> leave;
+
+        private Settings(GuildWelcomeMessages messages, Map<String, MessageTemplate.Placeholder<Member>> tags) {
+            this.messages = messages;
+            welcome = MessageTemplate.compile(StringUtils.replace(messages.getWelcome(), "[default]", DEFAULT_WELCOME),
+                    tags);
+            leave = MessageTemplate.compile(StringUtils.replace(messages.getLeave(), "[default]", DEFAULT_LEAVE), tags);
+        }
+    }
 }
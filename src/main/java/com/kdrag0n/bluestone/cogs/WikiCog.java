@@ -5,9 +5,10 @@ import com.kdrag0n.bluestone.Cog;
 import com.kdrag0n.bluestone.Context;
 import com.kdrag0n.bluestone.annotations.Command;
 import net.dv8tion.jda.core.EmbedBuilder;
-import okhttp3.Request;
 import org.json.JSONArray;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Wikipedia cog
  * @author Beefywhale
@@ -38,17 +39,9 @@ public class WikiCog extends Cog {
                 .setAuthor("Wikipedia", "https://wikipedia.com/",
                 "https://upload.wikimedia.org/wikipedia/en/thumb/8/80/Wikipedia-logo-v2.svg/1122px-Wikipedia-logo-v2.svg.png");
 
-        Bot.http.newCall(new Request.Builder()
-                .url("https://en.wikipedia.org/w/api.php?action=opensearch&search=" + ctx.rawArgs)
-                .build()).enqueue(Bot.callback(response -> {
-
-            if (!response.isSuccessful()) {
-                emb.setDescription("⚠ Failed to get results from Wikipedia.");
-                ctx.send(emb.build()).queue();
-                return;
-            }
-
-            JSONArray json = new JSONArray(response.body().string());
+        Bot.sharedHttp.get("https://en.wikipedia.org/w/api.php?action=opensearch&search=" + ctx.rawArgs,
+                30, TimeUnit.MINUTES).thenAccept(body -> {
+            JSONArray json = new JSONArray(body);
             if (json.getJSONArray(1).length() < 1) {
                 emb.setDescription("No results.");
                 ctx.send(emb.build()).queue();
@@ -59,9 +52,11 @@ public class WikiCog extends Cog {
                     .setDescription(json.getJSONArray(2).getString(0))
                     .addField("Link", json.getJSONArray(3).getString(0), false);
             ctx.send(emb.build()).queue();
-
-            response.body().close();
-        }, e -> {}));
+        }).exceptionally(e -> {
+            emb.setDescription("⚠ Failed to get results from Wikipedia.");
+            ctx.send(emb.build()).queue();
+            return null;
+        });
     }
 
 }
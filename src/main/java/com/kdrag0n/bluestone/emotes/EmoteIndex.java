@@ -0,0 +1,373 @@
+package com.kdrag0n.bluestone.emotes;
+
+import gnu.trove.list.array.TLongArrayList;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable index of emotes from every {@link EmoteSource}, answering lookups with a single hash probe.
+ *
+ * Codes are stored back to back as UTF-8 in one byte array, and each emote's source, ID and description are packed
+ * into one long. IDs that aren't numbers, descriptions and URL templates are the only strings kept on their own.
+ * When several sources have the same code, the one added first wins.
+ */
+public final class EmoteIndex implements EmoteProvider {
+    private static final int MAGIC = 0x454d5449; // EMTI
+    private static final int VERSION = 1;
+
+    // layout of the packed data
+    private static final int SOURCE_SHIFT = 56;
+    private static final long NUMERIC_ID = 1L << 55;
+    private static final int DESCRIPTION_SHIFT = 32;
+    private static final long DESCRIPTION_MASK = (1L << 23) - 1;
+    private static final long ID_MASK = 0xffffffffL;
+
+    static final EmoteIndex EMPTY = new EmoteIndex(new String[0], new String[0], new byte[0], new int[1],
+            new long[0], new String[0]);
+
+    private final String[] sources;
+    private final String[] templates;
+    private final byte[] pool;
+    private final int[] offsets; // code i is pool[offsets[i], offsets[i + 1])
+    private final long[] data;
+    private final String[] extras;
+    private final int[] hashes;
+    private final int[] slots; // entry index + 1, or 0 if empty
+    private final int mask;
+    private final EmoteSearch search;
+
+    private EmoteIndex(String[] sources, String[] templates, byte[] pool, int[] offsets, long[] data,
+                       String[] extras) {
+        this.sources = sources;
+        this.templates = templates;
+        this.pool = pool;
+        this.offsets = offsets;
+        this.data = data;
+        this.extras = extras;
+
+        // at most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(data.length, 4) * 2 - 1) << 1;
+        mask = capacity - 1;
+        slots = new int[capacity];
+        hashes = new int[data.length];
+
+        for (int i = 0; i < data.length; i++) {
+            int hash = hash(pool, offsets[i], offsets[i + 1]);
+            hashes[i] = hash;
+
+            int slot = hash & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = i + 1;
+        }
+
+        search = new EmoteSearch(pool, offsets);
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        // FNV-1a
+        int hash = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            hash ^= bytes[i];
+            hash *= 0x01000193;
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private int indexOf(String code) {
+        byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes, 0, bytes.length);
+
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && codeEquals(entry, bytes))
+                return entry;
+        }
+
+        return -1;
+    }
+
+    private boolean codeEquals(int entry, byte[] bytes) {
+        int start = offsets[entry];
+        if (offsets[entry + 1] - start != bytes.length)
+            return false;
+
+        for (int i = 0; i < bytes.length; i++) {
+            if (pool[start + i] != bytes[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public EmoteInfo find(String emote) {
+        int entry = indexOf(emote);
+        if (entry < 0)
+            return null;
+
+        String id = idOf(entry);
+        return new EmoteInfo(emote, id, descriptionOf(entry),
+                StringUtils.replaceOnce(templates[sourceOf(entry)], "{{id}}", id));
+    }
+
+    /**
+     * Find the codes closest to one that isn't in the index.
+     * @param query the code to look for
+     * @param limit the maximum number of results
+     * @return matching codes, best first
+     * @see EmoteSearch#suggest(String, int)
+     */
+    public List<String> suggest(String query, int limit) {
+        int[] entries = search.suggest(query, limit);
+        List<String> codes = new ArrayList<>(entries.length);
+        for (int entry : entries) {
+            codes.add(codeOf(entry));
+        }
+
+        return codes;
+    }
+
+    private int sourceOf(int entry) {
+        return (int) (data[entry] >>> SOURCE_SHIFT);
+    }
+
+    private String idOf(int entry) {
+        long packed = data[entry];
+        return (packed & NUMERIC_ID) != 0 ? Long.toString(packed & ID_MASK) : extras[(int) (packed & ID_MASK)];
+    }
+
+    private String descriptionOf(int entry) {
+        int description = (int) ((data[entry] >>> DESCRIPTION_SHIFT) & DESCRIPTION_MASK);
+        return description == 0 ? null : extras[description - 1];
+    }
+
+    private String codeOf(int entry) {
+        return new String(pool, offsets[entry], offsets[entry + 1] - offsets[entry], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of emotes
+     */
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * Save the index, to be loaded with {@link #read(Path)} on the next start.
+     * @param file the file to write
+     * @throws IOException if writing fails
+     */
+    void write(Path file) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(sources.length);
+            for (int i = 0; i < sources.length; i++) {
+                out.writeUTF(sources[i]);
+                out.writeUTF(templates[i] == null ? "" : templates[i]);
+            }
+
+            out.writeInt(extras.length);
+            for (String extra : extras) {
+                out.writeUTF(extra);
+            }
+
+            out.writeInt(data.length);
+            out.writeInt(pool.length);
+            out.write(pool);
+            for (int i = 0; i < data.length; i++) {
+                out.writeInt(offsets[i + 1]);
+                out.writeLong(data[i]);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load an index saved with {@link #write(Path)}.
+     * @param file the file to read
+     * @return the index
+     * @throws IOException if reading fails or the file isn't a saved index
+     */
+    static EmoteIndex read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not an emote index, or an old version");
+
+            String[] sources = new String[in.readInt()];
+            String[] templates = new String[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = in.readUTF();
+                templates[i] = in.readUTF();
+            }
+
+            String[] extras = new String[in.readInt()];
+            for (int i = 0; i < extras.length; i++) {
+                extras[i] = in.readUTF();
+            }
+
+            long[] data = new long[in.readInt()];
+            byte[] pool = new byte[in.readInt()];
+            in.readFully(pool);
+
+            int[] offsets = new int[data.length + 1];
+            for (int i = 0; i < data.length; i++) {
+                offsets[i + 1] = in.readInt();
+                data[i] = in.readLong();
+            }
+
+            return new EmoteIndex(sources, templates, pool, offsets, data, extras);
+        }
+    }
+
+    /**
+     * Collects emotes source by source. If a source fails partway, {@link #rollback()} undoes what it added.
+     */
+    public static final class Builder {
+        private final String[] sources;
+        private final String[] templates;
+        private final List<String> codes = new ArrayList<>();
+        private final Set<String> seen = new HashSet<>();
+        private final TLongArrayList data = new TLongArrayList();
+        private final List<String> extras = new ArrayList<>();
+        private int source = -1;
+        private int markCodes;
+        private int markExtras;
+
+        /**
+         * @param sources the names of the sources, in order of priority
+         */
+        Builder(String[] sources) {
+            this.sources = sources;
+            templates = new String[sources.length];
+        }
+
+        /**
+         * Start adding emotes from a source.
+         * @param source the index of the source
+         */
+        void begin(int source) {
+            this.source = source;
+            markCodes = codes.size();
+            markExtras = extras.size();
+        }
+
+        /**
+         * Undo everything added since {@link #begin(int)}.
+         */
+        void rollback() {
+            for (int i = markCodes; i < codes.size(); i++) {
+                seen.remove(codes.get(i));
+            }
+
+            codes.subList(markCodes, codes.size()).clear();
+            data.remove(markCodes, data.size() - markCodes);
+            extras.subList(markExtras, extras.size()).clear();
+            templates[source] = null;
+        }
+
+        /**
+         * Set the URL template of the current source.
+         * @param template the template, with {@code {{id}}} in place of the emote ID
+         */
+        public void setUrlTemplate(String template) {
+            templates[source] = template;
+        }
+
+        /**
+         * Add an emote from the current source, unless an earlier source already has its code.
+         * @param code the emote code
+         * @param id the emote ID
+         * @param description the description, or null
+         */
+        public void add(String code, String id, String description) {
+            if (!seen.add(code))
+                return;
+
+            long packed = (long) source << SOURCE_SHIFT;
+            // without leading zeros, so it turns back into the same string
+            if (StringUtils.isNumeric(id) && id.length() <= 10 && (id.length() == 1 || id.charAt(0) != '0')
+                    && Long.parseLong(id) <= ID_MASK) {
+                packed |= NUMERIC_ID | Long.parseLong(id);
+            } else {
+                packed |= addExtra(id);
+            }
+
+            if (description != null && !description.isEmpty())
+                packed |= (long) (addExtra(description) + 1) << DESCRIPTION_SHIFT;
+
+            codes.add(code);
+            data.add(packed);
+        }
+
+        private int addExtra(String extra) {
+            if (extras.size() >= DESCRIPTION_MASK)
+                throw new IllegalStateException("Too many strings in emote index");
+
+            extras.add(extra);
+            return extras.size() - 1;
+        }
+
+        /**
+         * Add every emote a source had in an older index, e.g. when fetching it again failed.
+         * @param old the older index
+         * @param source the index of the source
+         */
+        void copy(EmoteIndex old, int source) {
+            int oldSource = Arrays.asList(old.sources).indexOf(sources[source]);
+            if (oldSource < 0)
+                return;
+
+            begin(source);
+            setUrlTemplate(old.templates[oldSource]);
+
+            for (int i = 0; i < old.data.length; i++) {
+                if (old.sourceOf(i) == oldSource)
+                    add(old.codeOf(i), old.idOf(i), old.descriptionOf(i));
+            }
+        }
+
+        EmoteIndex build() {
+            int[] offsets = new int[codes.size() + 1];
+            byte[][] encoded = new byte[codes.size()][];
+            int length = 0;
+
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = codes.get(i).getBytes(StandardCharsets.UTF_8);
+                length += encoded[i].length;
+                offsets[i + 1] = length;
+            }
+
+            byte[] pool = new byte[length];
+            for (int i = 0; i < encoded.length; i++) {
+                System.arraycopy(encoded[i], 0, pool, offsets[i], encoded[i].length);
+            }
+
+            return new EmoteIndex(sources.clone(), templates.clone(), pool, offsets, data.toArray(),
+                    extras.toArray(new String[0]));
+        }
+    }
+}
@@ -3,11 +3,13 @@ package com.kdrag0n.bluestone.emotes;
 public class EmoteInfo {
     public final String name;
     public final String description;
+    public final String url;
     private final String id;
 
-    EmoteInfo(String name, String id, String description) {
+    EmoteInfo(String name, String id, String description, String url) {
         this.name = name;
         this.id = id;
         this.description = description;
+        this.url = url;
     }
 }
@@ -1,7 +1,9 @@
 package com.kdrag0n.bluestone.emotes;
 
 interface EmoteProvider {
-    boolean hasEmote(String emote);
-    String getUrl(String emote);
-    EmoteInfo getEmoteInfo(String emote);
+    /**
+     * @param emote the emote code
+     * @return the emote, or null if this provider doesn't have it
+     */
+    EmoteInfo find(String emote);
 }
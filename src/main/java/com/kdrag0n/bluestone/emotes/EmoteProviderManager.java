@@ -1,44 +1,153 @@
 package com.kdrag0n.bluestone.emotes;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import com.kdrag0n.bluestone.Bot;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Finds emotes by code, first in the {@link EmoteIndex} of every {@link EmoteSource} and then in providers that
+ * recognize emotes by their format.
+ *
+ * The index is rebuilt in the background every few hours and swapped in once complete, so lookups never wait for a
+ * download. It's also saved to disk, and a recent enough copy is used on startup instead of downloading again.
+ */
 public class EmoteProviderManager {
-    private final List<EmoteProvider> providers = new LinkedList<>();
+    private static final Logger logger = LoggerFactory.getLogger(EmoteProviderManager.class);
+    private static final long REFRESH_INTERVAL = TimeUnit.HOURS.toMillis(12);
+
+    private final OkHttpClient client;
+    private final Path snapshot;
+    private final EmoteSource[] sources;
+    private final String[] sourceNames;
+    private final List<EmoteProvider> providers = new CopyOnWriteArrayList<>();
+    private volatile EmoteIndex index = EmoteIndex.EMPTY;
+
+    /**
+     * @param client the client to download emotes with
+     * @param snapshot where to save the index
+     * @param sources the sources to index, in order of priority
+     */
+    public EmoteProviderManager(OkHttpClient client, File snapshot, EmoteSource... sources) {
+        this.client = client;
+        this.snapshot = snapshot.toPath();
+        this.sources = sources;
 
-    public boolean canProvideEmote(String emote) {
-        for (EmoteProvider provider: providers) {
-            if (provider.hasEmote(emote))
-                return true;
+        sourceNames = new String[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            sourceNames[i] = sources[i].getName();
         }
-        return false;
+
+        Bot.scheduledExecutor.execute(this::start);
     }
 
-    public String getFirstUrl(String emote) {
-        for (EmoteProvider provider: providers) {
-            if (provider.hasEmote(emote)) {
-                final String result = provider.getUrl(emote);
-                if (result != null)
-                    return result;
-            }
+    private void start() {
+        try {
+            index = EmoteIndex.read(snapshot);
+            logger.info("Loaded {} emotes from {}", index.size(), snapshot);
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            logger.warn("Failed to load saved emote index, downloading it again", e);
         }
-        return null;
+
+        // don't download everything again on every restart
+        long age = System.currentTimeMillis() - snapshot.toFile().lastModified();
+        long delay = index.size() == 0 ? 0 : Math.max(0, REFRESH_INTERVAL - age);
+        Bot.scheduledExecutor.scheduleWithFixedDelay(this::refresh, delay, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    public EmoteInfo getFirstInfo(String emote) {
-        for (EmoteProvider provider: providers) {
-            if (provider.hasEmote(emote)) {
-                final EmoteInfo result = provider.getEmoteInfo(emote);
-                if (result != null)
-                    return result;
+    private void refresh() {
+        EmoteIndex old = index;
+        EmoteIndex.Builder builder = new EmoteIndex.Builder(sourceNames);
+        boolean changed = false;
+
+        for (int i = 0; i < sources.length; i++) {
+            builder.begin(i);
+
+            try {
+                sources[i].load(client, builder);
+                changed = true;
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to get {} emotes, keeping the old ones", sourceNames[i], e);
+                builder.rollback();
+                builder.copy(old, i);
             }
         }
+
+        if (!changed)
+            return;
+
+        EmoteIndex newIndex = builder.build();
+        index = newIndex;
+        logger.info("Indexed {} emotes", newIndex.size());
+
+        try {
+            snapshot.toFile().getParentFile().mkdirs();
+            newIndex.write(snapshot);
+        } catch (IOException e) {
+            logger.warn("Failed to save emote index", e);
+        }
+    }
+
+    static JSONObject fetchJson(OkHttpClient client, String url) throws IOException {
+        try (Response response = client.newCall(new Request.Builder().get().url(url).build()).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null)
+                throw new IOException("Request unsuccessful, status " + response.code() + " " + response.message());
+
+            return new JSONObject(body.string());
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON from " + url, e);
+        }
+    }
+
+    /**
+     * Find an emote.
+     * @param emote the emote code
+     * @return the emote, or null if none of the sources or providers have it
+     */
+    public EmoteInfo find(String emote) {
+        EmoteInfo info = index.find(emote);
+        if (info != null)
+            return info;
+
+        for (EmoteProvider provider : providers) {
+            info = provider.find(emote);
+            if (info != null)
+                return info;
+        }
+
         return null;
     }
 
-    public List<EmoteProvider> getProviders() {
-        return Collections.unmodifiableList(providers);
+    /**
+     * Suggest indexed emotes for a code that wasn't found, e.g. because of a typo.
+     * @param emote the emote code
+     * @param limit the maximum number of suggestions
+     * @return the suggested codes, best first
+     */
+    public List<String> suggest(String emote, int limit) {
+        return index.suggest(emote, limit);
+    }
+
+    /**
+     * @return the number of indexed emotes
+     */
+    public int getIndexedCount() {
+        return index.size();
     }
 
     public boolean addProvider(EmoteProvider provider) {
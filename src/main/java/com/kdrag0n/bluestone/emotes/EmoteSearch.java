@@ -0,0 +1,386 @@
+package com.kdrag0n.bluestone.emotes;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Case-insensitive prefix and typo-tolerant search over the codes of an {@link EmoteIndex}.
+ *
+ * Prefixes are found by binary search over the emotes sorted by code. Typos are found through an index of the
+ * trigrams in every code: emotes sharing the most of the query's less common trigrams are candidates, and the ones
+ * within a small edit distance are kept. Everything works on the index's UTF-8 codes directly, with ASCII letters
+ * folded to lowercase, so searching doesn't decode or allocate a string per emote.
+ */
+final class EmoteSearch {
+    private static final int PAD = 1;
+    private static final int MIN_MAX_POSTINGS = 256;
+    // trigrams in more codes than this are too common to narrow anything down
+    private static final int MAX_POSTINGS_DIVISOR = 500;
+    private static final int MAX_CANDIDATES = 200;
+    private static final int MAX_SIMILAR_LENGTH = 100;
+
+    private final byte[] pool;
+    private final int[] offsets;
+    private final int[] sorted; // emotes by code
+    private final TIntIntHashMap gramIds;
+    private final int[] gramStarts; // postings of gram i are postings[gramStarts[i], gramStarts[i + 1])
+    private final int[] postings;
+    private final int maxPostings;
+    // how many trigrams each emote shares with the current query, reset after every search
+    private final ThreadLocal<byte[]> tallies;
+
+    /**
+     * @param pool the codes of the index, back to back
+     * @param offsets where each code starts in the pool, and where the last one ends
+     */
+    EmoteSearch(byte[] pool, int[] offsets) {
+        this.pool = pool;
+        this.offsets = offsets;
+        int count = offsets.length - 1;
+        maxPostings = Math.max(MIN_MAX_POSTINGS, count / MAX_POSTINGS_DIVISOR);
+
+        gramIds = new TIntIntHashMap(1024, 0.5f, -1, -1);
+        TLongArrayList pairs = new TLongArrayList(pool.length + 1);
+        for (int i = 0; i < count; i++) {
+            // padded at the start, so the first letters count for more and short codes still have a trigram
+            int gram = PAD << 8 | PAD;
+
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                gram = (gram << 8 | fold(pool[j])) & 0xffffff;
+
+                int id = gramIds.putIfAbsent(gram, gramIds.size());
+                if (id == -1)
+                    id = gramIds.size() - 1;
+
+                pairs.add((long) id << 32 | i);
+            }
+        }
+
+        // sorting (gram, emote) pairs groups every gram's emotes together, in order
+        long[] packed = pairs.toArray();
+        Arrays.sort(packed);
+        gramStarts = new int[gramIds.size() + 1];
+        int[] list = new int[packed.length];
+        int total = 0;
+
+        for (int i = 0; i < packed.length; i++) {
+            // a code can have the same trigram twice
+            if (i > 0 && packed[i] == packed[i - 1])
+                continue;
+
+            list[total++] = (int) packed[i];
+            gramStarts[(int) (packed[i] >>> 32) + 1] = total;
+        }
+        postings = Arrays.copyOf(list, total);
+
+        sorted = sortCodes(count);
+        tallies = ThreadLocal.withInitial(() -> new byte[count]);
+    }
+
+    private int[] sortCodes(int count) {
+        // each code's first 3 bytes and its index, so most comparisons are of a single long
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            long head = 0;
+            for (int j = 0; j < 3; j++) {
+                int at = offsets[i] + j;
+                head = head << 8 | (at < offsets[i + 1] ? fold(pool[at]) : 0);
+            }
+
+            keys[i] = head << 32 | i;
+        }
+        Arrays.sort(keys);
+
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = (int) keys[i];
+        }
+
+        // codes with the same first 3 bytes are only in order of index so far
+        int start = 0;
+        for (int i = 1; i <= count; i++) {
+            if (i == count || keys[i] >>> 32 != keys[start] >>> 32) {
+                if (i - start > 1)
+                    sortRun(result, start, i);
+                start = i;
+            }
+        }
+
+        return result;
+    }
+
+    private void sortRun(int[] result, int from, int to) {
+        Integer[] run = new Integer[to - from];
+        for (int i = from; i < to; i++) {
+            run[i - from] = result[i];
+        }
+
+        Arrays.sort(run, this::compare);
+        for (int i = from; i < to; i++) {
+            result[i] = run[i - from];
+        }
+    }
+
+    private static int fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+    }
+
+    private int compare(int a, int b) {
+        int lengthA = offsets[a + 1] - offsets[a];
+        int lengthB = offsets[b + 1] - offsets[b];
+
+        for (int i = 0; i < lengthA && i < lengthB; i++) {
+            int diff = fold(pool[offsets[a] + i]) - fold(pool[offsets[b] + i]);
+            if (diff != 0)
+                return diff;
+        }
+
+        return lengthA - lengthB;
+    }
+
+    /**
+     * @return negative if the code is before the query, 0 if it starts with it, positive if it's after it
+     */
+    private int comparePrefix(int emote, byte[] query) {
+        int from = offsets[emote];
+        int length = offsets[emote + 1] - from;
+
+        for (int i = 0; i < query.length; i++) {
+            if (i == length)
+                return -1;
+
+            int diff = fold(pool[from + i]) - (query[i] & 0xff);
+            if (diff != 0)
+                return diff;
+        }
+
+        return 0;
+    }
+
+    private int lengthOf(int emote) {
+        return offsets[emote + 1] - offsets[emote];
+    }
+
+    /**
+     * Find the emotes whose codes best match a query: case-insensitive matches first, then ones a single typo away,
+     * then the shortest ones starting with it, and then ones a few typos away.
+     * @param query the query
+     * @param limit the maximum number of results
+     * @return the matching emotes, best first
+     */
+    int[] suggest(String query, int limit) {
+        if (query.isEmpty())
+            return new int[0];
+
+        byte[] folded = query.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = (byte) fold(folded[i]);
+        }
+
+        int[] prefixed = findPrefixed(folded, limit);
+        long[] similar = findSimilar(folded);
+        TIntArrayList results = new TIntArrayList(limit);
+
+        for (int emote : prefixed) {
+            if (lengthOf(emote) == folded.length)
+                add(results, emote, limit);
+        }
+        for (long match : similar) {
+            if (match >>> 32 <= 1)
+                add(results, (int) match, limit);
+        }
+        for (int emote : prefixed) {
+            add(results, emote, limit);
+        }
+        for (long match : similar) {
+            add(results, (int) match, limit);
+        }
+
+        return results.toArray();
+    }
+
+    private static void add(TIntArrayList results, int emote, int limit) {
+        if (results.size() < limit && !results.contains(emote))
+            results.add(emote);
+    }
+
+    /**
+     * @return emotes starting with the query, shortest first
+     */
+    private int[] findPrefixed(byte[] query, int limit) {
+        // first code that isn't before the query
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparePrefix(sorted[mid], query) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        // sorted by code rather than length, so look at a few more than needed
+        int end = low;
+        while (end < sorted.length && end - low < limit * 4 && comparePrefix(sorted[end], query) == 0)
+            end++;
+
+        long[] byLength = new long[end - low];
+        for (int i = low; i < end; i++) {
+            byLength[i - low] = (long) lengthOf(sorted[i]) << 32 | sorted[i];
+        }
+        Arrays.sort(byLength);
+
+        int[] result = new int[byLength.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (int) byLength[i];
+        }
+
+        return result;
+    }
+
+    /**
+     * @return emotes within a few edits of the query, with the distance in the upper 32 bits, closest first
+     */
+    private long[] findSimilar(byte[] query) {
+        // also keeps tallies, which can't go past the number of trigrams in the query, within a byte
+        if (query.length == 0 || query.length > MAX_SIMILAR_LENGTH)
+            return new long[0];
+
+        int maxDistance = query.length <= 3 ? 1 : query.length <= 8 ? 2 : 3;
+        byte[] tally = tallies.get();
+        TIntArrayList touched = new TIntArrayList();
+        TIntArrayList seen = new TIntArrayList(query.length);
+        int used = 0;
+        int rarest = -1;
+        int gram = PAD << 8 | PAD;
+
+        for (byte b : query) {
+            gram = (gram << 8 | (b & 0xff)) & 0xffffff;
+            int id = gramIds.get(gram);
+            // codes are only counted once per trigram too
+            if (id == -1 || seen.contains(id))
+                continue;
+            seen.add(id);
+
+            int size = gramStarts[id + 1] - gramStarts[id];
+            if (size > maxPostings) {
+                if (rarest == -1 || size < gramStarts[rarest + 1] - gramStarts[rarest])
+                    rarest = id;
+                continue;
+            }
+
+            count(id, tally, touched);
+            used++;
+        }
+
+        // every trigram is common, still try the least common one
+        if (used == 0 && rarest != -1) {
+            count(rarest, tally, touched);
+            used = 1;
+        }
+
+        // the ones sharing the most trigrams are the most likely to be close, so check those first
+        int[] starts = new int[used + 2];
+        int[] candidates = new int[touched.size()];
+        int candidateCount = 0;
+        for (int i = 0; i < touched.size(); i++) {
+            int emote = touched.get(i);
+            if (Math.abs(lengthOf(emote) - query.length) <= maxDistance) {
+                starts[used - (tally[emote] & 0xff) + 1]++;
+                candidates[candidateCount++] = emote;
+            }
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+
+        int[] ordered = new int[candidateCount];
+        for (int i = 0; i < candidateCount; i++) {
+            int emote = candidates[i];
+            ordered[starts[used - (tally[emote] & 0xff)]++] = emote;
+        }
+
+        // each edit changes at most 3 trigrams
+        int minShared = Math.max(1, used - 3 * maxDistance);
+        TLongArrayList matches = new TLongArrayList();
+        // shared by every candidate, since none are longer than this
+        int[][] rows = new int[3][query.length + maxDistance + 1];
+        byte[] code = new byte[query.length + maxDistance];
+
+        for (int i = 0; i < ordered.length && i < MAX_CANDIDATES; i++) {
+            int emote = ordered[i];
+            if ((tally[emote] & 0xff) < minShared)
+                break;
+
+            int distance = distance(query, emote, maxDistance, rows, code);
+            if (distance <= maxDistance)
+                matches.add((long) distance << 32 | emote);
+        }
+
+        for (int i = 0; i < touched.size(); i++) {
+            tally[touched.get(i)] = 0;
+        }
+        matches.sort();
+        return matches.toArray();
+    }
+
+    private void count(int gram, byte[] tally, TIntArrayList touched) {
+        for (int i = gramStarts[gram]; i < gramStarts[gram + 1]; i++) {
+            int emote = postings[i];
+            if (tally[emote]++ == 0)
+                touched.add(emote);
+        }
+    }
+
+    /**
+     * Optimal string alignment distance between the query and an emote's code, giving up once it's over the maximum.
+     * @param rows space for the matrix rows, at least as long as the code plus one
+     * @param code space for the folded code
+     * @return the distance, or more than {@literal max} if it's over
+     */
+    private int distance(byte[] query, int emote, int max, int[][] rows, byte[] code) {
+        int length = lengthOf(emote);
+        for (int j = 0; j < length; j++) {
+            code[j] = (byte) fold(pool[offsets[emote] + j]);
+        }
+
+        int[] twoBack = rows[0];
+        int[] previous = rows[1];
+        int[] current = rows[2];
+        for (int j = 0; j <= length; j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= query.length; i++) {
+            byte a = query[i - 1];
+            current[0] = i;
+            int rowMin = i;
+
+            for (int j = 1; j <= length; j++) {
+                byte b = code[j - 1];
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                        previous[j - 1] + (a == b ? 0 : 1));
+
+                if (i > 1 && j > 1 && a == code[j - 2] && query[i - 2] == b)
+                    value = Math.min(value, twoBack[j - 2] + 1);
+
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+
+            if (rowMin > max)
+                return max + 1;
+
+            int[] recycled = twoBack;
+            twoBack = previous;
+            previous = current;
+            current = recycled;
+        }
+
+        return previous[length];
+    }
+}
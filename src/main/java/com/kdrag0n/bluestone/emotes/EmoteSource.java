@@ -0,0 +1,23 @@
+package com.kdrag0n.bluestone.emotes;
+
+import okhttp3.OkHttpClient;
+
+import java.io.IOException;
+
+/**
+ * A service whose emotes are downloaded in bulk into the {@link EmoteIndex}.
+ */
+public interface EmoteSource {
+    /**
+     * @return a name that stays the same across restarts, to find this source's emotes in a saved index
+     */
+    String getName();
+
+    /**
+     * Download every emote. Runs on a background thread.
+     * @param client the client to make requests with
+     * @param builder the index to add the emotes and URL template to
+     * @throws IOException if downloading fails
+     */
+    void load(OkHttpClient client, EmoteIndex.Builder builder) throws IOException;
+}
@@ -1,63 +1,27 @@
 package com.kdrag0n.bluestone.emotes;
 
-import com.kdrag0n.bluestone.Bot;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import org.slf4j.LoggerFactory;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
-import static com.kdrag0n.bluestone.util.Strings.str;
-
-public class FrankerFaceZEmoteProvider implements EmoteProvider {
-    private JSONObject emotes = new JSONObject();
-
-    public FrankerFaceZEmoteProvider(OkHttpClient client) {
-        client.newCall(new Request.Builder().get()
-                .url("https://api.frankerfacez.com/v1/emoticons?sort=count-desc&per_page=200&page=1").build())
-                .enqueue(Bot.callback(response -> {
-                    JSONObject data = new JSONObject(response.body().string());
-                    JSONArray rawEmotes = data.getJSONArray("emoticons");
-                    JSONObject tempEmotes = new JSONObject();
-
-                    for (Object emote : rawEmotes) {
-                        JSONObject realEmote = (JSONObject) emote;
-                        final String name = realEmote.getString("name");
-                        realEmote.remove("name");
-                        realEmote.remove("css");
-                        realEmote.remove("margins");
-                        realEmote.remove("public");
-                        realEmote.remove("hidden");
-                        realEmote.remove("modifier");
-                        realEmote.remove("offset");
-
-                        tempEmotes.put(name, realEmote);
-                    }
-                    emotes = tempEmotes;
-                }, e -> LoggerFactory.getLogger(FrankerFaceZEmoteProvider.class).error("Failed to get data", e)));
-    }
+import java.io.IOException;
 
+public class FrankerFaceZEmoteProvider implements EmoteSource {
     @Override
-    public boolean hasEmote(String emote) {
-        return emotes.has(emote);
-    }
-
-    @Override
-    public String getUrl(String emote) {
-        if (emotes.has(emote)) {
-            return "https:" + emotes.getJSONObject(emote).getJSONObject("urls").getString("2");
-        } else {
-            return null;
-        }
+    public String getName() {
+        return "frankerfacez";
     }
 
     @Override
-    public EmoteInfo getEmoteInfo(String emote) {
-        if (emotes.has(emote)) {
-            JSONObject emoteObj = emotes.getJSONObject(emote);
-            return new EmoteInfo(emote, str(emoteObj.getInt("id")), null);
-        } else {
-            return null;
+    public void load(OkHttpClient client, EmoteIndex.Builder builder) throws IOException {
+        // the 2x URL is always this, so only the ID needs to be kept
+        builder.setUrlTemplate("https://cdn.frankerfacez.com/emoticon/{{id}}/2");
+
+        JSONObject data = EmoteProviderManager.fetchJson(client,
+                "https://api.frankerfacez.com/v1/emoticons?sort=count-desc&per_page=200&page=1");
+        for (Object iter : data.getJSONArray("emoticons")) {
+            JSONObject emote = (JSONObject) iter;
+            if (emote.getJSONObject("urls").has("2"))
+                builder.add(emote.getString("name"), String.valueOf(emote.getInt("id")), null);
         }
     }
 }
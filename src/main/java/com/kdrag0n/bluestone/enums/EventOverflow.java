@@ -0,0 +1,30 @@
+package com.kdrag0n.bluestone.enums;
+
+/**
+ * What to do with a threaded event when its guild's queue is full.
+ */
+public enum EventOverflow {
+    /**
+     * Drop the handler's oldest queued event in the guild to make room. If it has none, drop the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new event.
+     */
+    DROP_NEWEST,
+    /**
+     * Replace a queued event for the same handler and message or member, if there is one.
+     * Otherwise, drop the handler's oldest.
+     */
+    COALESCE,
+    /**
+     * Never drop: queue the event even if the guild's queue is full. For events that must all be seen, like
+     * member joins, or state changes that are counted incrementally. The handler should be quick.
+     */
+    KEEP,
+    /**
+     * Make the gateway thread wait for room, for a short while. The event is dropped if none frees up.
+     * This stalls every guild on the shard, so it's not for anything a guild's members can trigger in bulk.
+     */
+    BLOCK
+}
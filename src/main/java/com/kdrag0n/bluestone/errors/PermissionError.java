@@ -21,7 +21,11 @@ public class PermissionError extends RuntimeException {
     }
 
     public List<String> getFriendlyPerms() {
-        return Arrays.stream(erroredPerms).map(Permission::getName)
+        return getFriendlyPerms(erroredPerms);
+    }
+
+    public static List<String> getFriendlyPerms(Permission[] perms) {
+        return Arrays.stream(perms).map(Permission::getName)
                 .collect(Collectors.toList());
     }
 }
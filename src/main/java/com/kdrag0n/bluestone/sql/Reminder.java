@@ -27,6 +27,10 @@ public class Reminder {
         this.remindAt = remindAt;
     }
 
+    public int getId() {
+        return id;
+    }
+
     public long getUserId() {
         return userId;
     }
@@ -0,0 +1,220 @@
+package com.kdrag0n.bluestone.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, log-linear latency histogram in the style of HdrHistogram.
+ * Values are recorded in nanoseconds into buckets with a relative error of about 12.5%,
+ * up to about 18 minutes. Larger values are counted in the last bucket.
+ *
+ * The getters cover everything recorded so far. {@link #interval()} covers only what was recorded since it was last
+ * called, for reporters that send a datapoint per interval.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BITS + 2) << SUB_BITS;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong intervalMax = new AtomicLong();
+
+    // counts at the start of the current interval, guarded by this
+    private final long[] intervalStart = new long[BUCKET_COUNT];
+    private long intervalStartSum = 0L;
+
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT)
+            return value < 0 ? 0 : (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKET_COUNT - 1;
+
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_COUNT)
+            return index;
+
+        int block = index >>> SUB_BITS;
+        int sub = index & (SUB_COUNT - 1);
+        return ((long) (SUB_COUNT + sub + 1) << (block - 1)) - 1;
+    }
+
+    /**
+     * Record a value.
+     * @param nanos the value, in nanoseconds
+     */
+    public void record(long nanos) {
+        buckets.incrementAndGet(indexOf(nanos));
+        count.increment();
+        sum.add(nanos);
+
+        raise(max, nanos);
+        raise(intervalMax, nanos);
+    }
+
+    private static void raise(AtomicLong max, long nanos) {
+        long current;
+        while (nanos > (current = max.get())) {
+            if (max.compareAndSet(current, nanos))
+                break;
+        }
+    }
+
+    /**
+     * Record the time elapsed since the given {@link System#nanoTime()} value.
+     * @param startNanos the start time
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public double getMean(TimeUnit unit) {
+        long n = count.sum();
+        if (n == 0)
+            return 0.0;
+
+        return (double) sum.sum() / n / unit.toNanos(1);
+    }
+
+    /**
+     * Get the value below which the given percentage of recorded values fall.
+     * Concurrent recording may make the result slightly stale, but never invalid.
+     * @param percentile the percentile, from 0 to 100
+     * @param unit the unit to return the value in
+     * @return the value at the percentile
+     */
+    public long getValueAtPercentile(double percentile, TimeUnit unit) {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+
+        return unit.convert(valueAtPercentile(counts, max.get(), percentile), TimeUnit.NANOSECONDS);
+    }
+
+    private static long valueAtPercentile(long[] counts, long max, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+
+        if (total == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+
+            if (seen >= target)
+                return Math.min(highestValueOf(i), max);
+        }
+
+        return max;
+    }
+
+    /**
+     * Take the values recorded since the last call, and start a new interval.
+     * The cumulative values are left as they are.
+     * @return the values recorded in the interval that just ended
+     */
+    public synchronized Interval interval() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        int highest = -1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long current = buckets.get(i);
+            counts[i] = current - intervalStart[i];
+            intervalStart[i] = current;
+            total += counts[i];
+
+            if (counts[i] > 0)
+                highest = i;
+        }
+
+        long currentSum = sum.sum();
+        long intervalSum = currentSum - intervalStartSum;
+        intervalStartSum = currentSum;
+
+        // a value being recorded right now may be counted before it raises the max
+        long intervalMaxValue = intervalMax.getAndSet(0);
+        if (highest > 0)
+            intervalMaxValue = Math.max(intervalMaxValue, highestValueOf(highest - 1) + 1);
+
+        return new Interval(counts, total, intervalSum, intervalMaxValue);
+    }
+
+    /**
+     * Clear all recorded values.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+            intervalStart[i] = 0;
+        }
+
+        count.reset();
+        sum.reset();
+        max.set(0);
+        intervalMax.set(0);
+        intervalStartSum = 0L;
+    }
+
+    /**
+     * The values recorded in one interval.
+     */
+    public static final class Interval {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Interval(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax(TimeUnit unit) {
+            return unit.convert(max, TimeUnit.NANOSECONDS);
+        }
+
+        public double getMean(TimeUnit unit) {
+            if (count == 0)
+                return 0.0;
+
+            return (double) sum / count / unit.toNanos(1);
+        }
+
+        /**
+         * @param percentile the percentile, from 0 to 100
+         * @param unit the unit to return the value in
+         * @return the value at the percentile
+         */
+        public long getValueAtPercentile(double percentile, TimeUnit unit) {
+            return unit.convert(valueAtPercentile(counts, max, percentile), TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.kdrag0n.bluestone.util;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * A bounded, thread-safe LRU cache with primitive {@code long} keys.
+ * The cache is split into independently locked segments so threads working on different keys rarely contend.
+ * Each segment keeps its entries in parallel arrays linked in access order, so lookups don't allocate.
+ * @param <V> the value type
+ */
+public class LongLruCache<V> {
+    private static final int NONE = -1;
+    private final Segment<V>[] segments;
+    private final int segmentMask;
+
+    /**
+     * Construct a new {@link LongLruCache} holding at most {@literal capacity} entries, with 16 segments.
+     * @param capacity the maximum number of entries
+     */
+    public LongLruCache(int capacity) {
+        this(capacity, 16);
+    }
+
+    /**
+     * Construct a new {@link LongLruCache} holding at most {@literal capacity} entries.
+     * @param capacity the maximum number of entries
+     * @param concurrency the number of segments, rounded up to a power of 2
+     */
+    @SuppressWarnings("unchecked")
+    public LongLruCache(int capacity, int concurrency) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+
+        int count = Integer.highestOneBit(Math.max(1, Math.min(concurrency, capacity)) * 2 - 1);
+        int perSegment = (capacity + count - 1) / count;
+
+        segments = new Segment[count];
+        segmentMask = count - 1;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(perSegment);
+        }
+    }
+
+    private Segment<V> segmentFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 40) & segmentMask];
+    }
+
+    /**
+     * Get the value for a key, marking it as recently used.
+     * @param key the key
+     * @return the value, or null if not present
+     */
+    public V get(long key) {
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Set the value for a key, evicting the least recently used entry of its segment if full.
+     * @param key the key
+     * @param value the value, not null
+     */
+    public void put(long key, V value) {
+        segmentFor(key).put(key, value, true);
+    }
+
+    /**
+     * Set the value for a key only if it isn't already present.
+     * @param key the key
+     * @param value the value, not null
+     * @return whether the value was added
+     */
+    public boolean putIfAbsent(long key, V value) {
+        return segmentFor(key).put(key, value, false);
+    }
+
+    /**
+     * Remove the entry for a key.
+     * @param key the key
+     */
+    public void remove(long key) {
+        segmentFor(key).remove(key);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return the current number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    private static final class Segment<V> {
+        private final TLongIntHashMap index;
+        private final long[] keys;
+        private final Object[] values;
+        private final int[] prev;
+        private final int[] next;
+        private int head = NONE; // most recently used
+        private int tail = NONE; // least recently used
+        private int used = 0;
+        private int freeHead = NONE;
+
+        private Segment(int capacity) {
+            index = new TLongIntHashMap(capacity, 0.5f, 0L, NONE);
+            keys = new long[capacity];
+            values = new Object[capacity];
+            prev = new int[capacity];
+            next = new int[capacity];
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized V get(long key) {
+            int slot = index.get(key);
+            if (slot == NONE)
+                return null;
+
+            moveToHead(slot);
+            return (V) values[slot];
+        }
+
+        private synchronized boolean put(long key, V value, boolean overwrite) {
+            int slot = index.get(key);
+            if (slot != NONE) {
+                if (overwrite) {
+                    values[slot] = value;
+                    moveToHead(slot);
+                }
+
+                return overwrite;
+            }
+
+            if (freeHead != NONE) {
+                slot = freeHead;
+                freeHead = next[slot];
+            } else if (used < keys.length) {
+                slot = used++;
+            } else {
+                slot = tail;
+                unlink(slot);
+                index.remove(keys[slot]);
+            }
+
+            keys[slot] = key;
+            values[slot] = value;
+            index.put(key, slot);
+            linkHead(slot);
+            return true;
+        }
+
+        private synchronized void remove(long key) {
+            int slot = index.remove(key);
+            if (slot == NONE)
+                return;
+
+            unlink(slot);
+            values[slot] = null;
+            next[slot] = freeHead;
+            freeHead = slot;
+        }
+
+        private synchronized void clear() {
+            index.clear();
+            for (int i = 0; i < used; i++) {
+                values[i] = null;
+            }
+
+            head = tail = freeHead = NONE;
+            used = 0;
+        }
+
+        private synchronized int size() {
+            return index.size();
+        }
+
+        private void moveToHead(int slot) {
+            if (slot != head) {
+                unlink(slot);
+                linkHead(slot);
+            }
+        }
+
+        private void linkHead(int slot) {
+            prev[slot] = NONE;
+            next[slot] = head;
+            if (head != NONE)
+                prev[head] = slot;
+            head = slot;
+            if (tail == NONE)
+                tail = slot;
+        }
+
+        private void unlink(int slot) {
+            int p = prev[slot];
+            int n = next[slot];
+
+            if (p == NONE)
+                head = n;
+            else
+                next[p] = n;
+
+            if (n == NONE)
+                tail = p;
+            else
+                prev[n] = p;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.kdrag0n.bluestone.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A message with [tag] placeholders, parsed once into literal and placeholder fragments.
+ * Rendering appends each fragment in turn, without any regex matching or per-render lookups.
+ * @param <C> the type of the context that placeholders are filled from
+ */
+public class MessageTemplate<C> {
+    private static final Pattern TAG_REGEX = Pattern.compile("\\[([a-z_]+)]");
+    private static final String UNKNOWN_TAG = "**[__unknown key__]**";
+    private static final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final Placeholder<C>[] fragments;
+
+    private MessageTemplate(Placeholder<C>[] fragments) {
+        this.fragments = fragments;
+    }
+
+    /**
+     * Parse a template.
+     * @param template the template text
+     * @param tags the placeholders, by tag name
+     * @return the compiled template
+     */
+    @SuppressWarnings("unchecked")
+    public static <C> MessageTemplate<C> compile(String template, Map<String, Placeholder<C>> tags) {
+        List<Placeholder<C>> fragments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        Matcher matcher = TAG_REGEX.matcher(template);
+        int last = 0;
+
+        while (matcher.find()) {
+            literal.append(template, last, matcher.start());
+            last = matcher.end();
+
+            Placeholder<C> tag = tags.get(matcher.group(1));
+            if (tag == null) {
+                literal.append(UNKNOWN_TAG);
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                String text = literal.toString();
+                fragments.add((context, out) -> out.append(text));
+                literal.setLength(0);
+            }
+            fragments.add(tag);
+        }
+
+        literal.append(template, last, template.length());
+        if (literal.length() > 0) {
+            String text = literal.toString();
+            fragments.add((context, out) -> out.append(text));
+        }
+
+        return new MessageTemplate<>(fragments.toArray(new Placeholder[0]));
+    }
+
+    /**
+     * Fill in the template.
+     * @param context the context to fill placeholders from
+     * @return the message
+     */
+    public String render(C context) {
+        StringBuilder out = builders.get();
+        out.setLength(0);
+
+        for (Placeholder<C> fragment : fragments) {
+            fragment.render(context, out);
+        }
+
+        String result = out.toString();
+        // don't hold on to huge buffers
+        if (out.capacity() > 8192)
+            builders.remove();
+
+        return result;
+    }
+
+    @FunctionalInterface
+    public interface Placeholder<C> {
+        /**
+         * Append the value of this placeholder.
+         * @param context the context to get the value from
+         * @param out where to append it
+         */
+        void render(C context, StringBuilder out);
+    }
+}
@@ -201,7 +201,11 @@ public class Strings {
     public static String statify(IntStream stream) {
         IntSummaryStatistics stats = stream.summaryStatistics();
 
-        return String.format("Min: %d\nAvg: %.2f\nMax: %d", stats.getMin(), stats.getAverage(), stats.getMax());
+        return statify(stats.getMin(), stats.getAverage(), stats.getMax());
+    }
+
+    public static String statify(int min, double avg, int max) {
+        return String.format("Min: %d\nAvg: %.2f\nMax: %d", min, avg, max);
     }
 
     public static String statify(TIntList list) {
@@ -217,7 +221,7 @@ public class Strings {
             return true;
         });
 
-        return String.format("Min: %d\nAvg: %.2f\nMax: %d", v.min, avg, v.max);
+        return statify(v.min, avg, v.max);
     }
 
     private static class MinMaxV {
@@ -0,0 +1,236 @@
+package com.kdrag0n.bluestone.util;
+
+import gnu.trove.set.hash.TLongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Fires DB-backed timers, like reminders, without keeping all of them in memory.
+ *
+ * Only timers due within the next half hour are loaded, into a two-level timing wheel with one second ticks.
+ * Later ones stay in the DB and are paged in as time passes, so a restart only has to load the next window.
+ * Timers that come due in the same tick are deleted in one batch, then fired in parallel.
+ */
+public class TimerWheel<T> {
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+    private static final int INNER_BITS = 6;
+    private static final int INNER_SLOTS = 1 << INNER_BITS;
+    private static final int OUTER_SLOTS = 32;
+    private static final long WINDOW = TimeUnit.MINUTES.toSeconds(30);
+    private static final long PAGE_INTERVAL = TimeUnit.MINUTES.toSeconds(5);
+
+    private final String name;
+    private final Source<T> source;
+    private final ToLongFunction<T> idOf;
+    private final ToLongFunction<T> dueOf;
+    private final Consumer<T> action;
+    private final Executor fireExecutor;
+    private final LongSupplier clock;
+
+    private final List<T>[] inner = newSlots(INNER_SLOTS);
+    private final List<T>[] outer = newSlots(OUTER_SLOTS);
+    private final List<T> far = new ArrayList<>();
+    private final TLongHashSet loaded = new TLongHashSet();
+    private long currentTick;
+    // timers due before this (in seconds) are either in the wheel or already fired
+    private long loadedUntil = 0L;
+    private long nextPage = 0L;
+    private ScheduledFuture<?> tickTask;
+
+    /**
+     * @param name the name of the timers, for logging
+     * @param source loads and deletes timers
+     * @param idOf gets the unique ID of a timer
+     * @param dueOf gets the time a timer is due at, in milliseconds since the epoch
+     * @param action what to do when a timer fires
+     * @param fireExecutor where to run actions
+     */
+    public TimerWheel(String name, Source<T> source, ToLongFunction<T> idOf, ToLongFunction<T> dueOf,
+                      Consumer<T> action, Executor fireExecutor) {
+        this(name, source, idOf, dueOf, action, fireExecutor, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock gets the current time, in milliseconds since the epoch
+     */
+    TimerWheel(String name, Source<T> source, ToLongFunction<T> idOf, ToLongFunction<T> dueOf,
+               Consumer<T> action, Executor fireExecutor, LongSupplier clock) {
+        this.name = name;
+        this.source = source;
+        this.idOf = idOf;
+        this.dueOf = dueOf;
+        this.action = action;
+        this.fireExecutor = fireExecutor;
+        this.clock = clock;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T>[] newSlots(int count) {
+        List<T>[] slots = new List[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = new ArrayList<>();
+        }
+
+        return slots;
+    }
+
+    private long nowTick() {
+        return clock.getAsLong() / 1000L;
+    }
+
+    private long tickOf(T timer) {
+        // round up, so timers never fire early
+        return (dueOf.applyAsLong(timer) + 999L) / 1000L;
+    }
+
+    /**
+     * Load the first window of timers and start ticking.
+     * @param executor the executor to tick on
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        currentTick = nowTick();
+        page();
+
+        // line ticks up with the start of each second
+        tickTask = executor.scheduleAtFixedRate(this::tick, 1000L - clock.getAsLong() % 1000L, 1000L,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (tickTask != null)
+            tickTask.cancel(false);
+    }
+
+    /**
+     * Add a timer that has just been stored in the DB.
+     * @param timer the timer
+     */
+    public synchronized void schedule(T timer) {
+        // anything later will be paged in when its time comes
+        if (dueOf.applyAsLong(timer) < loadedUntil * 1000L)
+            insert(timer);
+    }
+
+    private void insert(T timer) {
+        if (!loaded.add(idOf.applyAsLong(timer)))
+            return;
+
+        long due = Math.max(tickOf(timer), currentTick + 1);
+        if (due >>> INNER_BITS == currentTick >>> INNER_BITS) {
+            inner[(int) (due & (INNER_SLOTS - 1))].add(timer);
+        } else if ((due >>> INNER_BITS) - (currentTick >>> INNER_BITS) < OUTER_SLOTS) {
+            outer[(int) ((due >>> INNER_BITS) % OUTER_SLOTS)].add(timer);
+        } else {
+            // past the end of the wheel, try again on the next rotation
+            far.add(timer);
+        }
+    }
+
+    private void page() {
+        long until = currentTick + WINDOW;
+
+        try {
+            for (T timer : source.load(loadedUntil * 1000L, until * 1000L)) {
+                insert(timer);
+            }
+
+            loadedUntil = until;
+            nextPage = currentTick + PAGE_INTERVAL;
+        } catch (Exception e) {
+            logger.error("Error loading {} from DB", name, e);
+            nextPage = currentTick + 30;
+        }
+    }
+
+    private void tick() {
+        List<T> due = new ArrayList<>();
+
+        synchronized (this) {
+            long now = nowTick();
+
+            // catch up on ticks we missed, if the executor was busy
+            while (currentTick < now) {
+                currentTick++;
+
+                if ((currentTick & (INNER_SLOTS - 1)) == 0) {
+                    List<T> cascade = outer[(int) ((currentTick >>> INNER_BITS) % OUTER_SLOTS)];
+                    for (T timer : cascade) {
+                        inner[(int) (tickOf(timer) & (INNER_SLOTS - 1))].add(timer);
+                    }
+                    cascade.clear();
+
+                    if (!far.isEmpty()) {
+                        List<T> retry = new ArrayList<>(far);
+                        far.clear();
+
+                        for (T timer : retry) {
+                            loaded.remove(idOf.applyAsLong(timer));
+                            insert(timer);
+                        }
+                    }
+                }
+
+                List<T> slot = inner[(int) (currentTick & (INNER_SLOTS - 1))];
+                due.addAll(slot);
+                slot.clear();
+            }
+
+            if (currentTick >= nextPage)
+                page();
+        }
+
+        if (!due.isEmpty())
+            fire(due);
+    }
+
+    private void fire(List<T> due) {
+        try {
+            source.delete(due);
+        } catch (Exception e) {
+            logger.error("Error deleting {} from DB", name, e);
+        }
+
+        synchronized (this) {
+            for (T timer : due) {
+                loaded.remove(idOf.applyAsLong(timer));
+            }
+        }
+
+        for (T timer : due) {
+            fireExecutor.execute(() -> {
+                try {
+                    action.accept(timer);
+                } catch (Exception e) {
+                    logger.error("Error firing {}", name, e);
+                }
+            });
+        }
+    }
+
+    public interface Source<T> {
+        /**
+         * Load the timers due in a range of time.
+         * @param from the start of the range, inclusive, in milliseconds since the epoch
+         * @param until the end of the range, exclusive, in milliseconds since the epoch
+         * @return the timers
+         */
+        List<T> load(long from, long until) throws Exception;
+
+        /**
+         * Delete timers that are about to fire.
+         * @param timers the timers
+         */
+        void delete(Collection<T> timers) throws Exception;
+    }
+}
@@ -23,6 +23,10 @@ public class TrackScheduler extends AudioEventAdapter {
     public final Queue<AudioTrack> queue = new LinkedList<>();
     public AudioTrack current;
     private AudioState state;
+    // what this scheduler last reported to the shard stats
+    private int countedTracks = 0;
+    private boolean countedStreaming = false;
+    private boolean released = false;
 
     public boolean isEmptyPaused() {
         return emptyPaused;
@@ -48,6 +52,8 @@ public class TrackScheduler extends AudioEventAdapter {
     private void queue(AudioTrack track) {
         if (!player.startTrack(track, true))
             queue.offer(track);
+
+        updateStats();
     }
 
     public void queue(AudioTrack track, ExtraTrackInfo info) {
@@ -64,9 +70,42 @@ public class TrackScheduler extends AudioEventAdapter {
             Bot.threadExecutor.execute(state.guild.getAudioManager()::closeAudioConnection);
             state.guild.getAudioManager().setSendingHandler(dummyHandler);
             state.parent.audioStates.remove(state.guild.getIdLong());
+            release();
         }
     }
 
+    /**
+     * Report any change in this scheduler's tracks and streaming to the shard stats since it last did.
+     * Also called now and then to correct for changes that weren't reported right away.
+     */
+    public synchronized void updateStats() {
+        if (released)
+            return;
+
+        int tracks = queue.size() + (current == null ? 0 : 1);
+        boolean streaming = current != null && !player.isPaused();
+        if (tracks == countedTracks && streaming == countedStreaming)
+            return;
+
+        state.parent.getStats().addMusic(tracks - countedTracks,
+                (streaming ? 1 : 0) - (countedStreaming ? 1 : 0));
+        countedTracks = tracks;
+        countedStreaming = streaming;
+    }
+
+    /**
+     * Stop counting this scheduler's tracks, once its state has been dropped.
+     */
+    public synchronized void release() {
+        if (released)
+            return;
+
+        state.parent.getStats().addMusic(-countedTracks, countedStreaming ? -1 : 0);
+        countedTracks = 0;
+        countedStreaming = false;
+        released = true;
+    }
+
     public void skip() {
         onTrackEnd(player, current, AudioTrackEndReason.FINISHED);
     }
@@ -75,6 +114,7 @@ public class TrackScheduler extends AudioEventAdapter {
     public void onTrackStart(AudioPlayer player, AudioTrack track) {
         try {
             current = track;
+            updateStats();
             if (track.getUserData() != null && track.getUserData(ExtraTrackInfo.class).sendNowPlaying) {
                 AudioTrackInfo info = track.getInfo();
                 track.getUserData(ExtraTrackInfo.class).textChannel
@@ -87,6 +127,7 @@ public class TrackScheduler extends AudioEventAdapter {
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
         current = null;
+        updateStats();
 
         try {
             track.stop();
@@ -129,6 +170,16 @@ public class TrackScheduler extends AudioEventAdapter {
         nextTrack();
     }
 
+    @Override
+    public void onPlayerPause(AudioPlayer player) {
+        updateStats();
+    }
+
+    @Override
+    public void onPlayerResume(AudioPlayer player) {
+        updateStats();
+    }
+
     public boolean isRepeating() {
         return repeating;
     }
@@ -1,21 +0,0 @@
-package com.zanox.lib.simplegraphiteclient;
-
-/**
- * Exception that indicates problems when writing to graphite.
- * 
- * @author Helmut Zechmann
- *
- */
-class GraphiteException extends RuntimeException {
-	
-	private static final long serialVersionUID = 1L;
-
-	public GraphiteException(String message) {
-		super(message);
-	}
-
-	public GraphiteException(String message, Throwable cause) {
-		super(message, cause);
-	}	
-	
-}
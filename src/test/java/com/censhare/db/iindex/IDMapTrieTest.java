@@ -0,0 +1,70 @@
+package com.censhare.db.iindex;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IDMapTrieTest {
+    private static long[] keys(int count) {
+        Random random = new Random(42);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++)
+            keys[i] = random.nextLong() >>> 1;
+        return keys;
+    }
+
+    private static IDMapTrie filled(long[] keys) {
+        IDMapTrie trie = new IDMapTrie();
+        for (int i = 0; i < keys.length; i++)
+            trie.put(keys[i], i);
+        return trie;
+    }
+
+    @Test
+    public void putGetClear() {
+        IDMapTrie trie = new IDMapTrie();
+
+        assertEquals(-1L, trie.put(5L, 50L, -1L));
+        assertEquals(50L, trie.put(5L, 60L, -1L));
+        assertEquals(60L, trie.get(5L, -1L));
+        assertEquals(1, trie.size());
+        assertEquals(60L, trie.clear(5L, -1L));
+        assertEquals(-1L, trie.get(5L, -1L));
+        assertEquals(0, trie.size());
+    }
+
+    @Test
+    public void nextGenerationSharesHeap() {
+        IDMapTrie base = filled(keys(10000));
+
+        IDMapTrie next = base.nextGeneration();
+        assertSame(base.mem, next.mem);
+
+        next.put(12345L, 1L);
+        assertSame(base.mem, next.mem);
+    }
+
+    @Test
+    public void nextGenerationLeavesPreviousUnchanged() {
+        long[] keys = keys(10000);
+        IDMapTrie base = filled(keys);
+
+        IDMapTrie current = base;
+        for (int i = 0; i < keys.length; i++) {
+            IDMapTrie next = current.nextGeneration();
+            if ((i & 1) == 0)
+                next.put(keys[i], -5L);
+            else
+                next.clear(keys[i], -1L);
+            current = next;
+        }
+
+        assertEquals(keys.length, base.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, base.get(keys[i], -1L));
+            assertEquals((i & 1) == 0 ? -5L : -1L, current.get(keys[i], -1L));
+        }
+    }
+}
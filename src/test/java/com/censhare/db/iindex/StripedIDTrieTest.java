@@ -0,0 +1,135 @@
+package com.censhare.db.iindex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StripedIDTrieTest {
+    private static final int WRITERS = 4;
+    private static final int KEYS_PER_WRITER = 20000;
+
+    private static long key(int writer, int i) {
+        // snowflake-like: timestamp in the high bits
+        return ((long) (i * WRITERS + writer) << 22) | 0x2a;
+    }
+
+    @Test
+    public void setAndClear() {
+        StripedIDSetTrie set = new StripedIDSetTrie(8);
+
+        assertFalse(set.get(42L));
+        assertFalse(set.set(42L));
+        assertTrue(set.set(42L));
+        assertTrue(set.get(42L));
+        assertEquals(1, set.size());
+
+        assertTrue(set.clear(42L));
+        assertFalse(set.clear(42L));
+        assertFalse(set.get(42L));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void setAll() {
+        StripedIDSetTrie set = new StripedIDSetTrie(4);
+        long[] keys = new long[1000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = key(0, i);
+
+        set.setAll(keys);
+
+        assertEquals(keys.length, set.size());
+        for (long key : keys)
+            assertTrue(set.get(key));
+    }
+
+    @Test
+    public void stripeCountIsPowerOfTwo() {
+        assertEquals(1, new StripedIDSetTrie(0).getStripeCount());
+        assertEquals(1, new StripedIDSetTrie(1).getStripeCount());
+        assertEquals(8, new StripedIDSetTrie(5).getStripeCount());
+        assertEquals(8, new StripedIDSetTrie(8).getStripeCount());
+    }
+
+    @Test
+    public void mapPutAndClear() {
+        StripedIDMapTrie map = new StripedIDMapTrie(8);
+
+        assertEquals(-1L, map.put(7L, 100L, -1L));
+        assertEquals(100L, map.put(7L, 200L, -1L));
+        assertEquals(200L, map.get(7L, -1L));
+        assertEquals(200L, map.clear(7L, -1L));
+        assertEquals(-1L, map.get(7L, -1L));
+    }
+
+    @Test
+    public void concurrentWritersAndReaders() throws InterruptedException {
+        StripedIDSetTrie set = new StripedIDSetTrie(8);
+        // highest index each writer has finished setting
+        AtomicInteger[] progress = new AtomicInteger[WRITERS];
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger missing = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            progress[w] = new AtomicInteger(-1);
+
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < KEYS_PER_WRITER; i++) {
+                    set.set(key(writer, i));
+                    // churn a key that's never checked, to make stripes publish extra generations
+                    set.set(key(writer, i) | 1L << 21);
+                    set.clear(key(writer, i) | 1L << 21);
+                    progress[writer].set(i);
+                }
+            }));
+        }
+
+        Thread reader = new Thread(() -> {
+            awaitQuietly(start);
+            while (!done.get()) {
+                for (int w = 0; w < WRITERS; w++) {
+                    int upTo = progress[w].get();
+                    for (int i = Math.max(0, upTo - 64); i <= upTo; i++) {
+                        if (!set.get(key(w, i)))
+                            missing.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        for (Thread thread : threads)
+            thread.start();
+        reader.start();
+        start.countDown();
+
+        for (Thread thread : threads)
+            thread.join();
+        done.set(true);
+        reader.join();
+
+        assertEquals(0, missing.get());
+        assertEquals(WRITERS * KEYS_PER_WRITER, set.size());
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 0; i < KEYS_PER_WRITER; i++)
+                assertTrue(set.get(key(w, i)));
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
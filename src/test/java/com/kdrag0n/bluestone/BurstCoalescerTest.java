@@ -0,0 +1,87 @@
+package com.kdrag0n.bluestone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BurstCoalescerTest {
+    private static final long WINDOW = 200L;
+
+    private final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> keys = Collections.synchronizedList(new ArrayList<>());
+    private final BurstCoalescer<Integer> coalescer = new BurstCoalescer<>(WINDOW, 3, (key, items) -> {
+        keys.add(key);
+        batches.add(new ArrayList<>(items));
+    });
+
+    private void awaitBatches(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batches.size() < count) {
+            assertTrue("timed out waiting for " + count + " batches, got " + batches, System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void passesSlowItemsRightAway() {
+        coalescer.submit(1L, 1);
+        coalescer.submit(1L, 2);
+        coalescer.submit(1L, 3);
+
+        // passed on synchronously, one by one
+        assertEquals(Arrays.asList(Collections.singletonList(1), Collections.singletonList(2),
+                Collections.singletonList(3)), batches);
+    }
+
+    @Test
+    public void holdsBackBurstUntilWindowEnds() throws InterruptedException {
+        for (int i = 1; i <= 6; i++)
+            coalescer.submit(1L, i);
+
+        assertEquals(3, batches.size());
+
+        awaitBatches(4);
+        assertEquals(Arrays.asList(4, 5, 6), batches.get(3));
+    }
+
+    @Test
+    public void keysHaveTheirOwnWindows() {
+        for (int i = 1; i <= 4; i++)
+            coalescer.submit(1L, i);
+        coalescer.submit(2L, 100);
+
+        // the burst on 1 doesn't hold back 2
+        assertEquals(4, batches.size());
+        assertEquals(Collections.singletonList(100), batches.get(3));
+        assertEquals(Long.valueOf(2L), keys.get(3));
+    }
+
+    @Test
+    public void startsOverAfterBurst() throws InterruptedException {
+        for (int i = 1; i <= 4; i++)
+            coalescer.submit(1L, i);
+        awaitBatches(4);
+
+        // a new window started with the batch, so new items pass right away again
+        coalescer.submit(1L, 5);
+        assertEquals(5, batches.size());
+        assertEquals(Collections.singletonList(5), batches.get(4));
+    }
+
+    @Test
+    public void keyIsForgottenAfterQuietWindow() throws InterruptedException {
+        coalescer.submit(1L, 1);
+        Thread.sleep(WINDOW * 3);
+
+        for (int i = 2; i <= 4; i++)
+            coalescer.submit(1L, i);
+
+        assertEquals(4, batches.size());
+    }
+}
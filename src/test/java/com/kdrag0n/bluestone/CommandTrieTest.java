@@ -0,0 +1,106 @@
+package com.kdrag0n.bluestone;
+
+import net.dv8tion.jda.core.Permission;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class CommandTrieTest {
+    private static Command help;
+    private static Command h;
+    private static CommandTrie trie;
+
+    @BeforeClass
+    public static void setUp() throws NoSuchMethodException {
+        help = command("help");
+        h = command("h");
+
+        Map<String, Command> commands = new HashMap<>();
+        commands.put("help", help);
+        commands.put("h", h);
+        commands.put("Info", command("info"));
+        trie = CommandTrie.build(commands);
+    }
+
+    private static Command command(String name) throws NoSuchMethodException {
+        return new Command(name, "", "", false, new Permission[0], false, new String[0],
+                TestCog.class.getMethod("cmdTest", Context.class), new TestCog(), false, false, null);
+    }
+
+    @Test
+    public void matchesNameAfterPrefix() {
+        CommandTrie.Node node = trie.match("!help me", 1);
+
+        assertNotNull(node);
+        assertSame(help, node.command);
+        assertEquals("help", node.name);
+    }
+
+    @Test
+    public void ignoresCase() {
+        assertSame(help, trie.match("!HeLp", 1).command);
+        assertEquals("info", trie.match("!info", 1).name);
+        assertNotNull(trie.match("!INFO", 1));
+    }
+
+    @Test
+    public void matchesAtEndOfContent() {
+        assertSame(h, trie.match("!h", 1).command);
+    }
+
+    @Test
+    public void needsWholeName() {
+        assertNull(trie.match("!helpme", 1));
+        assertNull(trie.match("!hel", 1));
+        assertNull(trie.match("!x", 1));
+        // just the prefix
+        assertNull(trie.match("!", 1));
+    }
+
+    @Test
+    public void anyWhitespaceEndsName() {
+        assertSame(help, trie.match("!help\tme", 1).command);
+        assertSame(help, trie.match("!help\nme", 1).command);
+        assertSame(help, trie.match("!help\u000Bme", 1).command);
+        assertSame(help, trie.match("!help\fme", 1).command);
+        // not whitespace to the argument splitter either
+        assertNull(trie.match("!help\u00A0me", 1));
+    }
+
+    @Test
+    public void emptyTrieMatchesNothing() {
+        assertNull(CommandTrie.EMPTY.match("!help", 1));
+    }
+
+    @Test
+    public void whitespaceIsSameAsRegex() {
+        Pattern whitespace = Pattern.compile("\\s");
+
+        for (char c = 0; c < Character.MAX_VALUE; c++) {
+            assertEquals("char " + (int) c, whitespace.matcher(String.valueOf(c)).matches(),
+                    CommandTrie.isWhitespace(c));
+        }
+    }
+
+    public static class TestCog extends Cog {
+        public TestCog() {
+            super(null);
+        }
+
+        public String getName() {
+            return "Test";
+        }
+
+        public String getDescription() {
+            return "Test cog.";
+        }
+
+        public void cmdTest(Context ctx) {
+        }
+    }
+}
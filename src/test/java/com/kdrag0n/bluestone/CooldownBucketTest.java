@@ -0,0 +1,136 @@
+package com.kdrag0n.bluestone;
+
+import com.kdrag0n.bluestone.annotations.Cooldown;
+import com.kdrag0n.bluestone.enums.BucketType;
+import org.junit.Test;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CooldownBucketTest {
+    private static final long USER = 260000000000000000L;
+    private static final long OTHER_USER = 260000000000000001L;
+
+    private static CooldownBucket bucket(String command, int invocations, float delay) {
+        return CooldownBucket.forCommand(command, new Cooldown() {
+            @Override
+            public BucketType scope() {
+                return BucketType.USER;
+            }
+
+            @Override
+            public int invocations() {
+                return invocations;
+            }
+
+            @Override
+            public float delay() {
+                return delay;
+            }
+
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return Cooldown.class;
+            }
+        });
+    }
+
+    @Test
+    public void allowsInvocationsThenThrottles() {
+        CooldownBucket bucket = bucket("burst", 3, 600f);
+
+        assertEquals(0L, bucket.tryAcquire(USER));
+        assertEquals(0L, bucket.tryAcquire(USER));
+        assertEquals(0L, bucket.tryAcquire(USER));
+
+        // one token comes back every 200 seconds
+        long wait = bucket.tryAcquire(USER);
+        assertTrue(wait > TimeUnit.SECONDS.toNanos(199));
+        assertTrue(wait <= TimeUnit.SECONDS.toNanos(200));
+    }
+
+    @Test
+    public void keysAreIndependent() {
+        CooldownBucket bucket = bucket("independent", 1, 600f);
+
+        assertEquals(0L, bucket.tryAcquire(USER));
+        assertNotEquals(0L, bucket.tryAcquire(USER));
+        assertEquals(0L, bucket.tryAcquire(OTHER_USER));
+    }
+
+    @Test
+    public void sameCommandSharesBucket() {
+        assertSame(bucket("shared", 1, 600f), bucket("shared", 1, 600f));
+    }
+
+    @Test
+    public void releaseGivesTokenBack() {
+        CooldownBucket bucket = bucket("release", 1, 600f);
+
+        assertEquals(0L, bucket.tryAcquire(USER));
+        assertNotEquals(0L, bucket.tryAcquire(USER));
+
+        bucket.release(USER);
+        assertEquals(0L, bucket.tryAcquire(USER));
+        assertNotEquals(0L, bucket.tryAcquire(USER));
+    }
+
+    @Test
+    public void releaseOfFullBucketDoesNothing() {
+        CooldownBucket bucket = bucket("release-full", 1, 600f);
+
+        bucket.release(USER);
+        assertEquals(0L, bucket.tryAcquire(USER));
+        assertNotEquals(0L, bucket.tryAcquire(USER));
+    }
+
+    @Test
+    public void manyKeys() {
+        CooldownBucket bucket = bucket("many", 1, 600f);
+
+        // enough to make every segment grow its table a few times
+        for (long key = USER; key < USER + 5000; key++)
+            assertEquals(0L, bucket.tryAcquire(key));
+
+        for (long key = USER; key < USER + 5000; key++)
+            assertNotEquals(0L, bucket.tryAcquire(key));
+    }
+
+    @Test
+    public void concurrentAcquiresNeverOverbook() throws InterruptedException {
+        CooldownBucket bucket = bucket("concurrent", 100, 600f);
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire(USER) == 0L)
+                        acquired.incrementAndGet();
+                }
+            });
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(100, acquired.get());
+    }
+}
@@ -0,0 +1,244 @@
+package com.kdrag0n.bluestone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GraphiteReporterTest {
+    private static final int TIMEOUT = 10000;
+
+    private ServerSocket server;
+    private GraphiteReporter reporter;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        server.setSoTimeout(TIMEOUT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (reporter != null)
+            reporter.close();
+        server.close();
+    }
+
+    private GraphiteReporter reporter(GraphiteReporter.Protocol protocol, int capacity, int batchSize) {
+        return new GraphiteReporter("127.0.0.1", server.getLocalPort(), protocol, capacity, batchSize, 20);
+    }
+
+    private Socket accept() throws IOException {
+        Socket socket = server.accept();
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+
+    private void awaitSent(long count) throws InterruptedException {
+        // the counter is updated right after the write completes, which may be after the server has read it
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (reporter.getSent() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void plaintextLines() throws Exception {
+        reporter = reporter(GraphiteReporter.Protocol.PLAINTEXT, 16, 4);
+        reporter.record("bot.guilds", 42, 1000L);
+        reporter.record("bot.latency ms", 12.5, 1001L);
+        reporter.record("it's\\odd", -1, 1002L);
+
+        try (Socket socket = accept()) {
+            BufferedReader in = reader(socket);
+            assertEquals("bot.guilds 42.0 1000", in.readLine());
+            assertEquals("bot.latency_ms 12.5 1001", in.readLine());
+            assertEquals("it_s_odd -1.0 1002", in.readLine());
+        }
+
+        awaitSent(3L);
+        assertEquals(3L, reporter.getSent());
+        assertEquals(0, reporter.getBuffered());
+        assertEquals(0L, reporter.getDropped());
+    }
+
+    @Test
+    public void pickleFrames() throws Exception {
+        reporter = reporter(GraphiteReporter.Protocol.PICKLE, 16, 2);
+        reporter.record("a.b", 1, 2000L);
+        reporter.record("c d", 2.25, 2001L);
+        reporter.record("e", 3, 2002L);
+
+        List<Datapoint> received = new ArrayList<>();
+        try (Socket socket = accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            while (received.size() < 3) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+
+                List<Datapoint> batch = unpickle(new String(frame, StandardCharsets.UTF_8));
+                assertTrue(batch.size() <= 2);
+                received.addAll(batch);
+            }
+        }
+
+        assertEquals(new Datapoint("a.b", 2000L, 1.0), received.get(0));
+        assertEquals(new Datapoint("c_d", 2001L, 2.25), received.get(1));
+        assertEquals(new Datapoint("e", 2002L, 3.0), received.get(2));
+        awaitSent(3L);
+        assertEquals(3L, reporter.getSent());
+    }
+
+    @Test
+    public void reconnectsAfterServerClose() throws Exception {
+        reporter = reporter(GraphiteReporter.Protocol.PLAINTEXT, 16, 1);
+        reporter.record("first", 1, 1L);
+
+        try (Socket socket = accept()) {
+            assertEquals("first 1.0 1", reader(socket).readLine());
+        }
+
+        // let the close reach the reporter, so the next flush notices it instead of writing into a dead socket
+        Thread.sleep(200);
+        reporter.record("second", 2, 2L);
+
+        try (Socket socket = accept()) {
+            assertEquals("second 2.0 2", reader(socket).readLine());
+        }
+
+        awaitSent(2L);
+        assertEquals(2L, reporter.getSent());
+        assertEquals(0L, reporter.getDropped());
+    }
+
+    @Test
+    public void wrapWithoutServer() throws IOException {
+        int port = server.getLocalPort();
+        server.close();
+
+        reporter = new GraphiteReporter("127.0.0.1", port, GraphiteReporter.Protocol.PLAINTEXT, 8, 4, 20);
+        for (int i = 0; i < 20; i++)
+            reporter.record("m", i, i);
+
+        assertEquals(0L, reporter.getSent());
+        assertEquals(12L, reporter.getDropped());
+        assertEquals(8, reporter.getBuffered());
+    }
+
+    @Test
+    public void wrapAccounting() throws Exception {
+        int recorded = 200000;
+        GraphiteReporter reporter = reporter(GraphiteReporter.Protocol.PLAINTEXT, 64, 16);
+
+        int[] lines = new int[1];
+        Thread consumer = new Thread(() -> {
+            try (Socket socket = accept()) {
+                BufferedReader in = reader(socket);
+                while (in.readLine() != null)
+                    lines[0]++;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < recorded; i++)
+            reporter.record("m" + (i & 7), i, i);
+
+        // flushes what's left and closes the connection, which ends the consumer
+        reporter.close();
+        consumer.join(TIMEOUT);
+
+        long sent = reporter.getSent();
+        long dropped = reporter.getDropped();
+        int buffered = reporter.getBuffered();
+
+        assertTrue(dropped > 0);
+        assertEquals(recorded, sent + dropped + buffered);
+        assertEquals(sent, lines[0]);
+    }
+
+    // just enough of pickle protocol 0 to read what the reporter sends: a list of (name, (timestamp, value))
+    private static List<Datapoint> unpickle(String payload) {
+        List<Datapoint> result = new ArrayList<>();
+        int[] pos = { 0 };
+
+        expect(payload, pos, "(l");
+        while (payload.charAt(pos[0]) != '.') {
+            expect(payload, pos, "(");
+            String name = string(payload, pos);
+            expect(payload, pos, "(");
+            expect(payload, pos, "L");
+            int end = payload.indexOf("L\n", pos[0]);
+            long timestamp = Long.parseLong(payload.substring(pos[0], end));
+            pos[0] = end + 2;
+            double value = Double.parseDouble(string(payload, pos));
+            expect(payload, pos, "tta");
+
+            result.add(new Datapoint(name, timestamp, value));
+        }
+
+        assertEquals(payload.length() - 1, pos[0]);
+        return result;
+    }
+
+    private static String string(String payload, int[] pos) {
+        expect(payload, pos, "S'");
+        int end = payload.indexOf("'\n", pos[0]);
+        String value = payload.substring(pos[0], end);
+        pos[0] = end + 2;
+        return value;
+    }
+
+    private static void expect(String payload, int[] pos, String opcodes) {
+        assertTrue("expected " + opcodes + " at " + pos[0] + " in " + payload,
+                payload.startsWith(opcodes, pos[0]));
+        pos[0] += opcodes.length();
+    }
+
+    private static final class Datapoint {
+        private final String name;
+        private final long timestamp;
+        private final double value;
+
+        private Datapoint(String name, long timestamp, double value) {
+            this.name = name;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Datapoint))
+                return false;
+
+            Datapoint other = (Datapoint) o;
+            return name.equals(other.name) && timestamp == other.timestamp && value == other.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "(" + name + ", (" + timestamp + ", " + value + "))";
+        }
+    }
+}
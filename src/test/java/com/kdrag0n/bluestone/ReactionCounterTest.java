@@ -0,0 +1,71 @@
+package com.kdrag0n.bluestone;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReactionCounterTest {
+    private static final long MESSAGE = 500L;
+    private static final long AUTHOR = 1L;
+
+    @Test
+    public void countsWhileLoadingAreReplayed() {
+        ReactionCounter counter = new ReactionCounter(16);
+        AtomicInteger loads = new AtomicInteger();
+        ReactionCounter.Loader loader = loads::incrementAndGet;
+
+        assertEquals(-1, counter.add(MESSAGE, 10L, loader));
+        assertEquals(-1, counter.add(MESSAGE, 11L, loader));
+        assertEquals(-1, counter.remove(MESSAGE, 12L, loader));
+        assertEquals(-1, counter.get(MESSAGE));
+        assertEquals(1, loads.get());
+
+        // fetched after 10 had reacted but before 11 did, and before 12 removed theirs
+        assertEquals(2, counter.loaded(MESSAGE, AUTHOR, new long[] { 10L, 12L, AUTHOR }));
+
+        assertEquals(2, counter.get(MESSAGE));
+        assertEquals(3, counter.add(MESSAGE, 13L, loader));
+        assertEquals(2, counter.remove(MESSAGE, 10L, loader));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void authorIsNotCounted() {
+        ReactionCounter counter = new ReactionCounter(16);
+        ReactionCounter.Loader loader = () -> counter.loaded(MESSAGE, AUTHOR, new long[0]);
+
+        assertEquals(0, counter.add(MESSAGE, AUTHOR, loader));
+        assertEquals(1, counter.add(MESSAGE, 10L, loader));
+        assertEquals(1, counter.add(MESSAGE, AUTHOR, loader));
+        assertArrayEquals(new long[] { 10L }, counter.getUsers(MESSAGE));
+    }
+
+    @Test
+    public void failedLoadIsRetried() {
+        ReactionCounter counter = new ReactionCounter(16);
+        AtomicInteger loads = new AtomicInteger();
+        ReactionCounter.Loader loader = loads::incrementAndGet;
+
+        counter.add(MESSAGE, 10L, loader);
+        counter.failed(MESSAGE);
+        assertEquals(-1, counter.get(MESSAGE));
+
+        counter.add(MESSAGE, 10L, loader);
+        assertEquals(2, loads.get());
+        assertEquals(1, counter.loaded(MESSAGE, AUTHOR, new long[] { 10L }));
+    }
+
+    @Test
+    public void forgottenWhileLoading() {
+        ReactionCounter counter = new ReactionCounter(16);
+
+        counter.add(MESSAGE, 10L, () -> { });
+        counter.forget(MESSAGE);
+
+        assertEquals(-1, counter.loaded(MESSAGE, AUTHOR, new long[] { 10L }));
+        assertEquals(-1, counter.get(MESSAGE));
+        assertNull(counter.getUsers(MESSAGE));
+    }
+}
@@ -0,0 +1,81 @@
+package com.kdrag0n.bluestone.emotes;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class EmoteSearchTest {
+    private static EmoteSearch search(String... codes) {
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        int[] offsets = new int[codes.length + 1];
+
+        for (int i = 0; i < codes.length; i++) {
+            byte[] code = codes[i].getBytes(StandardCharsets.UTF_8);
+            pool.write(code, 0, code.length);
+            offsets[i + 1] = pool.size();
+        }
+
+        return new EmoteSearch(pool.toByteArray(), offsets);
+    }
+
+    @Test
+    public void exactMatchIgnoringCaseFirst() {
+        EmoteSearch search = search("pogchampion", "pogchamq", "PogChamp", "PogChamp2");
+
+        // then one typo away, closest and earliest first, then the rest starting with it
+        assertArrayEquals(new int[] { 2, 1, 3, 0 }, search.suggest("pogchamp", 10));
+        assertArrayEquals(new int[] { 2, 1, 3, 0 }, search.suggest("POGCHAMP", 10));
+        assertArrayEquals(new int[] { 2 }, search.suggest("pOgChAmP", 1));
+    }
+
+    @Test
+    public void prefixesShortestFirst() {
+        EmoteSearch search = search("KappaPride", "KappaRoss", "Kappa123", "Keepo");
+
+        assertArrayEquals(new int[] { 2, 1, 0 }, search.suggest("kappa", 10));
+        assertArrayEquals(new int[0], search.suggest("", 10));
+    }
+
+    @Test
+    public void transpositionIsOneEdit() {
+        // a 3 letter query only allows one edit, and swapping two letters would be two without transpositions
+        EmoteSearch search = search("llo", "xyz");
+        assertArrayEquals(new int[] { 0 }, search.suggest("lol", 10));
+
+        search = search("Kappa", "Kappb", "Keepo");
+        assertArrayEquals(new int[] { 0, 1 }, search.suggest("kpapa", 10));
+    }
+
+    @Test
+    public void commonTrigramFallback() {
+        // every trigram of the query is in more codes than are worth counting
+        String[] codes = new String[400];
+        codes[0] = "pepe";
+        for (int i = 1; i < codes.length; i++) {
+            codes[i] = "pepe" + (char) ('a' + i % 26) + (char) ('a' + i / 26);
+        }
+        EmoteSearch search = search(codes);
+
+        int[] results = search.suggest("pepx", 5);
+        assertTrue(results.length > 0);
+        assertEquals(0, results[0]);
+
+        // still reset for the next search
+        assertArrayEquals(search.suggest("pepx", 5), search.suggest("pepx", 5));
+    }
+
+    @Test
+    public void longQueries() {
+        String code = StringUtils.repeat("Long", 40);
+        EmoteSearch search = search("Short", code, code + "er");
+
+        // past the limit for typos, but exact matches and prefixes are still found
+        assertArrayEquals(new int[] { 1, 2 }, search.suggest(code.toUpperCase(), 10));
+        assertArrayEquals(new int[0], search.suggest("x" + code, 10));
+        assertArrayEquals(new int[0], search.suggest(StringUtils.repeat("z", 5000), 10));
+    }
+}
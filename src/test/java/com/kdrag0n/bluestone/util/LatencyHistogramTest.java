@@ -0,0 +1,117 @@
+package com.kdrag0n.bluestone.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    private static final TimeUnit NS = TimeUnit.NANOSECONDS;
+
+    private static void assertWithinError(long expected, long actual) {
+        // values are rounded up to the top of their bucket, which is at most 12.5% above
+        assertTrue(actual + " < " + expected, actual >= expected);
+        assertTrue(actual + " > " + expected + " + 12.5%", actual <= expected + expected / 8);
+    }
+
+    @Test
+    public void empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax(NS));
+        assertEquals(0.0, histogram.getMean(NS), 0.0);
+        assertEquals(0, histogram.getValueAtPercentile(99.0, NS));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 8; value++)
+            histogram.record(value);
+
+        assertEquals(3, histogram.getValueAtPercentile(50.0, NS));
+        assertEquals(7, histogram.getValueAtPercentile(100.0, NS));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long us = 1; us <= 1000; us++)
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(us));
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(TimeUnit.MICROSECONDS), 1e-9);
+        assertEquals(1_000_000L, histogram.getMax(NS));
+
+        assertWithinError(500_000L, histogram.getValueAtPercentile(50.0, NS));
+        assertWithinError(990_000L, histogram.getValueAtPercentile(99.0, NS));
+        // never above the max
+        assertEquals(1_000_000L, histogram.getValueAtPercentile(100.0, NS));
+        assertEquals(1000L, histogram.getValueAtPercentile(100.0, TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void hugeValuesKeepExactMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.HOURS.toNanos(1));
+        histogram.record(-5L);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(1, histogram.getMax(TimeUnit.HOURS));
+    }
+
+    @Test
+    public void intervalsOnlyCoverNewValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 10; i++)
+            histogram.record(1000L);
+
+        LatencyHistogram.Interval first = histogram.interval();
+        assertEquals(10, first.getCount());
+        assertEquals(1000.0, first.getMean(NS), 0.0);
+        assertWithinError(1000L, first.getMax(NS));
+
+        for (int i = 0; i < 5; i++)
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+
+        LatencyHistogram.Interval second = histogram.interval();
+        assertEquals(5, second.getCount());
+        assertEquals(3.0, second.getMean(TimeUnit.MILLISECONDS), 1e-9);
+        assertEquals(3, second.getMax(TimeUnit.MILLISECONDS));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(3), second.getValueAtPercentile(50.0, NS));
+
+        // cumulative values are left alone
+        assertEquals(15, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(3), histogram.getMax(NS));
+
+        LatencyHistogram.Interval third = histogram.interval();
+        assertEquals(0, third.getCount());
+        assertEquals(0, third.getMax(NS));
+        assertEquals(0.0, third.getMean(NS), 0.0);
+        assertEquals(0, third.getValueAtPercentile(99.0, NS));
+    }
+
+    @Test
+    public void intervalMaxIsNotCarriedOver() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+        histogram.interval();
+
+        histogram.record(100L);
+        LatencyHistogram.Interval interval = histogram.interval();
+        assertWithinError(100L, interval.getMax(NS));
+    }
+
+    @Test
+    public void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000L);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax(NS));
+        assertEquals(0, histogram.interval().getCount());
+    }
+}
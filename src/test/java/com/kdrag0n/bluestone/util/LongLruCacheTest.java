@@ -0,0 +1,96 @@
+package com.kdrag0n.bluestone.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongLruCacheTest {
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        LongLruCache<String> cache = new LongLruCache<>(3, 1);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        cache.put(3L, "c");
+
+        // 1 is now more recent than 2
+        assertEquals("a", cache.get(1L));
+        cache.put(4L, "d");
+
+        assertNull(cache.get(2L));
+        assertEquals("a", cache.get(1L));
+        assertEquals("c", cache.get(3L));
+        assertEquals("d", cache.get(4L));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void putOverwritesAndRefreshes() {
+        LongLruCache<String> cache = new LongLruCache<>(2, 1);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        cache.put(1L, "A");
+        cache.put(3L, "c");
+
+        assertEquals("A", cache.get(1L));
+        assertNull(cache.get(2L));
+    }
+
+    @Test
+    public void putIfAbsent() {
+        LongLruCache<String> cache = new LongLruCache<>(4, 1);
+
+        assertTrue(cache.putIfAbsent(1L, "a"));
+        assertFalse(cache.putIfAbsent(1L, "b"));
+        assertEquals("a", cache.get(1L));
+    }
+
+    @Test
+    public void removedSlotsAreReused() {
+        LongLruCache<String> cache = new LongLruCache<>(2, 1);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        cache.remove(1L);
+        cache.remove(5L);
+
+        assertNull(cache.get(1L));
+        assertEquals(1, cache.size());
+
+        // fills the freed slot instead of evicting 2
+        cache.put(3L, "c");
+        assertEquals("b", cache.get(2L));
+        assertEquals("c", cache.get(3L));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void clear() {
+        LongLruCache<String> cache = new LongLruCache<>(2, 1);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get(1L));
+
+        cache.put(3L, "c");
+        cache.put(4L, "d");
+        assertEquals("c", cache.get(3L));
+        assertEquals("d", cache.get(4L));
+    }
+
+    @Test
+    public void segmentedNeverExceedsCapacityByMuch() {
+        LongLruCache<Long> cache = new LongLruCache<>(1024, 16);
+        for (long key = 0; key < 100_000; key++)
+            cache.put(key * 4194304L, key);
+
+        // each segment rounds its share up
+        assertTrue(cache.size() <= 1024 + 16);
+        assertEquals(Long.valueOf(99_999L), cache.get(99_999L * 4194304L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacity() {
+        new LongLruCache<String>(0);
+    }
+}
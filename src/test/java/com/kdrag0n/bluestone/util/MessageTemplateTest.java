@@ -0,0 +1,71 @@
+package com.kdrag0n.bluestone.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MessageTemplateTest {
+    private static final Map<String, MessageTemplate.Placeholder<String[]>> TAGS = new HashMap<>();
+
+    static {
+        TAGS.put("user", (context, out) -> out.append(context[0]));
+        TAGS.put("server", (context, out) -> out.append(context[1]));
+    }
+
+    private static String render(String template, String user, String server) {
+        return MessageTemplate.compile(template, TAGS).render(new String[] { user, server });
+    }
+
+    @Test
+    public void fillsPlaceholders() {
+        assertEquals("Welcome Alex to Lounge!", render("Welcome [user] to [server]!", "Alex", "Lounge"));
+    }
+
+    @Test
+    public void placeholdersAtEdgesAndAdjacent() {
+        assertEquals("AlexLounge", render("[user][server]", "Alex", "Lounge"));
+        assertEquals("Alex, Alex", render("[user], [user]", "Alex", "Lounge"));
+    }
+
+    @Test
+    public void literalsOnly() {
+        assertEquals("Hello there", render("Hello there", "Alex", "Lounge"));
+        assertEquals("", render("", "Alex", "Lounge"));
+    }
+
+    @Test
+    public void unknownTagsAreMarked() {
+        assertEquals("Hi **[__unknown key__]** Alex", render("Hi [nope] [user]", "Alex", "Lounge"));
+    }
+
+    @Test
+    public void onlyLowercaseTagsAreParsed() {
+        assertEquals("[User] [] [user name]", render("[User] [] [user name]", "Alex", "Lounge"));
+    }
+
+    @Test
+    public void placeholdersAreReadEachRender() {
+        MessageTemplate<String[]> template = MessageTemplate.compile("[user] joined", TAGS);
+
+        assertEquals("Alex joined", template.render(new String[] { "Alex", "" }));
+        assertEquals("Sam joined", template.render(new String[] { "Sam", "" }));
+    }
+
+    @Test
+    public void largeRenders() {
+        StringBuilder expected = new StringBuilder();
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            source.append("[user] ");
+            expected.append("Alex ");
+        }
+
+        MessageTemplate<String[]> template = MessageTemplate.compile(source.toString(), TAGS);
+        assertEquals(expected.toString(), template.render(new String[] { "Alex", "" }));
+        // the oversized buffer is dropped, and the next render still works
+        assertEquals(expected.toString(), template.render(new String[] { "Alex", "" }));
+    }
+}
@@ -0,0 +1,192 @@
+package com.kdrag0n.bluestone.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+    // a whole second, but not the start of an inner rotation
+    private static final long BASE = 1_000_000_037_000L;
+
+    private final AtomicLong clock = new AtomicLong(BASE + 250L);
+    private final List<long[]> db = new ArrayList<>();
+    private final List<long[]> fired = new ArrayList<>();
+    private final List<Integer> deleteBatches = new ArrayList<>();
+    private ManualTicker ticker;
+    private TimerWheel<long[]> wheel;
+
+    @Before
+    public void setUp() {
+        ticker = new ManualTicker();
+        wheel = new TimerWheel<>("timers", new TimerWheel.Source<long[]>() {
+            @Override
+            public List<long[]> load(long from, long until) {
+                List<long[]> timers = new ArrayList<>();
+                for (long[] timer : db) {
+                    if (timer[1] >= from && timer[1] < until)
+                        timers.add(timer);
+                }
+
+                return timers;
+            }
+
+            @Override
+            public void delete(Collection<long[]> timers) {
+                db.removeAll(timers);
+                deleteBatches.add(timers.size());
+            }
+        }, timer -> timer[0], timer -> timer[1], fired::add, Runnable::run, clock::get);
+    }
+
+    @After
+    public void tearDown() {
+        ticker.shutdownNow();
+    }
+
+    private long[] timer(long id, long due) {
+        long[] timer = { id, due };
+        db.add(timer);
+        return timer;
+    }
+
+    private void advanceTo(long millis) {
+        clock.set(millis);
+        ticker.tick.run();
+    }
+
+    @Test
+    public void firesOnItsTickAndNotBefore() {
+        long[] timer = timer(1L, BASE + 5000L);
+        wheel.start(ticker);
+
+        advanceTo(BASE + 4999L);
+        assertTrue(fired.isEmpty());
+
+        advanceTo(BASE + 5000L);
+        assertEquals(1, fired.size());
+        assertSame(timer, fired.get(0));
+        assertTrue(db.isEmpty());
+    }
+
+    @Test
+    public void partialSecondsRoundUp() {
+        timer(1L, BASE + 5001L);
+        wheel.start(ticker);
+
+        advanceTo(BASE + 5999L);
+        assertTrue(fired.isEmpty());
+
+        advanceTo(BASE + 6000L);
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void cascadesFromOuterWheel() {
+        // several inner rotations away
+        timer(1L, BASE + 200_000L);
+        wheel.start(ticker);
+
+        advanceTo(BASE + 199_000L);
+        assertTrue(fired.isEmpty());
+
+        advanceTo(BASE + 200_000L);
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void catchesUpOnMissedTicks() {
+        timer(1L, BASE + 3000L);
+        timer(2L, BASE + 70_000L);
+        timer(3L, BASE + 130_000L);
+        wheel.start(ticker);
+
+        // the executor was stuck for two minutes
+        advanceTo(BASE + 125_000L);
+        assertEquals(2, fired.size());
+
+        advanceTo(BASE + 130_000L);
+        assertEquals(3, fired.size());
+    }
+
+    @Test
+    public void overdueTimersFireOnFirstTick() {
+        timer(1L, BASE - 60_000L);
+        wheel.start(ticker);
+
+        advanceTo(BASE + 1000L);
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void sameTickIsDeletedInOneBatch() {
+        timer(1L, BASE + 10_000L);
+        timer(2L, BASE + 9_500L);
+        timer(3L, BASE + 9_001L);
+        wheel.start(ticker);
+
+        advanceTo(BASE + 10_000L);
+        assertEquals(3, fired.size());
+        assertEquals(1, deleteBatches.size());
+        assertEquals(3, (int) deleteBatches.get(0));
+    }
+
+    @Test
+    public void scheduledTimersFire() {
+        wheel.start(ticker);
+
+        long[] timer = timer(1L, BASE + 20_000L);
+        wheel.schedule(timer);
+        // already in the wheel, so scheduling it again doesn't fire it twice
+        wheel.schedule(timer);
+
+        advanceTo(BASE + 20_000L);
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void laterTimersArePagedIn() {
+        wheel.start(ticker);
+
+        // past the loaded window, so it's left in the DB until paged in
+        long due = BASE + TimeUnit.MINUTES.toMillis(40);
+        long[] timer = timer(1L, due);
+        wheel.schedule(timer);
+
+        long firedAt = -1L;
+        for (long now = BASE + 1000L; now <= due + 5000L; now += 1000L) {
+            advanceTo(now);
+
+            if (firedAt == -1L && !fired.isEmpty())
+                firedAt = now;
+        }
+
+        assertEquals(due, firedAt);
+        assertEquals(1, fired.size());
+    }
+
+    private static final class ManualTicker extends ScheduledThreadPoolExecutor {
+        private Runnable tick;
+
+        private ManualTicker() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period,
+                                                      TimeUnit unit) {
+            // ticks are run by hand
+            tick = command;
+            return super.schedule(() -> { }, 1, TimeUnit.DAYS);
+        }
+    }
+}